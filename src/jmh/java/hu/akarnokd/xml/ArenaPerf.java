@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+
+package hu.akarnokd.xml;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Parses small documents one after the other, each into a new tree and through
+ * an XParseArena releasing the previous tree. Run it with the GC profiler to see
+ * the allocation rate per operation.
+ * <p>
+ * gradle jmhJar, then java -jar build/libs/*-jmh.jar ArenaPerf -prof gc
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1)
+@State(Scope.Thread)
+public class ArenaPerf {
+    /** The number of orders in a document. */
+    @Param({ "1", "10" })
+    public int count;
+    /** The parser engine. */
+    @Param({ "STAX", "UTF8" })
+    public XParserContext.Engine engine;
+    /** The document. */
+    byte[] data;
+    /** The parser context. */
+    XParserContext context;
+    /** The arena. */
+    XParseArena arena;
+
+    @Setup
+    public void setup() {
+        data = ParsePerf.document(count).getBytes(StandardCharsets.UTF_8);
+        context = XParserContext.DEFAULT.withEngine(engine);
+        arena = new XParseArena(context);
+    }
+
+    @Benchmark
+    public Object newTree() throws XMLStreamException {
+        return XElement.parseXML(data, context);
+    }
+
+    @Benchmark
+    public Object arena() throws XMLStreamException {
+        XElement e = arena.parseXML(data);
+        int n = e.children().size();
+        arena.release(e);
+        return n;
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+
+package hu.akarnokd.xml;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Builds elements with the given number of attributes and looks them up with
+ * get, getInt and has, by the stored name instance and by an equal copy, with the attributes in the XAttributeMap and, for comparison,
+ * in the LinkedHashMap used before. Run it with the GC profiler to see the bytes
+ * the build allocates per element, which is close to the footprint of the map.
+ * <p>
+ * gradle jmhJar, then java -jar build/libs/*-jmh.jar AttributePerf -prof gc
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1)
+@State(Scope.Thread)
+public class AttributePerf {
+    /** The number of attributes. */
+    @Param({ "0", "2", "8", "64" })
+    public int count;
+    /** The attribute map implementation. */
+    @Param({ "ARRAY", "LINKED" })
+    public String map;
+    /** The attribute names. */
+    String[] names;
+    /** The attribute values. */
+    String[] values;
+    /** The name looked up: the last attribute, or a missing one without attributes. */
+    String name;
+    /** An equal copy of the name, not the instance stored in the map. */
+    String nameCopy;
+    /** The element looked up. */
+    XElement element;
+
+    @Setup
+    public void setup() {
+        names = new String[count];
+        values = new String[count];
+        for (int i = 0; i < count; i++) {
+            names[i] = ("attribute" + i).intern();
+            values[i] = Integer.toString(i * 100);
+        }
+        name = count != 0 ? names[count - 1] : "attribute0";
+        nameCopy = new String(name);
+        element = build();
+    }
+
+    @Benchmark
+    public XElement build() {
+        XElement e = map.equals("ARRAY") ? new XElement("e")
+                : new XElement("e", new LinkedHashMap<>(), new XChildList<>());
+        for (int i = 0; i < names.length; i++) {
+            e.set(names[i], values[i]);
+        }
+        return e;
+    }
+
+    @Benchmark
+    public int lookup() {
+        XElement e = element;
+        String v = e.get(name, "");
+        return v.length() + e.getInt(name, -1) + (e.has(name) ? 1 : 0);
+    }
+
+    @Benchmark
+    public int lookupCopy() {
+        XElement e = element;
+        String v = e.get(nameCopy, "");
+        return v.length() + e.getInt(nameCopy, -1) + (e.has(nameCopy) ? 1 : 0);
+    }
+}
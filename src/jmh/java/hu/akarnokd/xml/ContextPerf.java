@@ -0,0 +1,61 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Parses a small message with a new XMLInputFactory per call, as before XParserContext,
+ * and through the cached factory of the default context.
+ * <p>
+ * gradle jmh -Pjmh=ContextPerf
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1)
+@State(Scope.Thread)
+public class ContextPerf {
+    /** The message. */
+    byte[] data;
+
+    @Setup
+    public void setup() {
+        data = ("<message id='1' type='quote'><symbol>ABC</symbol><bid>12.5</bid>"
+                + "<ask>12.75</ask><time>2015-10-01T12:00:00</time></message>").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public Object newFactory() throws XMLStreamException {
+        XMLInputFactory inf = XMLInputFactory.newInstance();
+        XMLStreamReader ir = inf.createXMLStreamReader(new ByteArrayInputStream(data));
+        try {
+            return XElement.parseXML(ir);
+        } finally {
+            ir.close();
+        }
+    }
+
+    @Benchmark
+    public Object cachedFactory() throws XMLStreamException {
+        return XElement.parseXML(new ByteArrayInputStream(data));
+    }
+}
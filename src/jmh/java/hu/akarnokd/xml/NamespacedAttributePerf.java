@@ -0,0 +1,70 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+
+package hu.akarnokd.xml;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Looks up the attributes of an XNElement by local name and by name and namespace,
+ * which no longer create an XAttributeName per call. Run it with the GC profiler;
+ * gc.alloc.rate.norm should be about zero.
+ * <p>
+ * gradle jmhJar, then java -jar build/libs/*-jmh.jar NamespacedAttributePerf -prof gc
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1)
+@State(Scope.Thread)
+public class NamespacedAttributePerf {
+    /** The namespace of every other attribute. */
+    static final String NAMESPACE = "urn:test";
+    /** The number of attributes. */
+    @Param({ "2", "8", "64" })
+    public int count;
+    /** The element looked up. */
+    XNElement element;
+    /** The last attribute without namespace. */
+    String plain;
+    /** The last attribute with namespace. */
+    String qualified;
+
+    @Setup
+    public void setup() {
+        element = new XNElement("e");
+        for (int i = 0; i < count; i++) {
+            element.set("attribute" + i, i % 2 == 0 ? null : NAMESPACE, i * 100);
+        }
+        // equal copies, as a caller's string literals or parsed names would be
+        plain = new String("attribute" + (count - 2));
+        qualified = new String("attribute" + (count - 1));
+    }
+
+    @Benchmark
+    public int getLocal() {
+        XNElement e = element;
+        return e.get(plain).length() + e.getInt(plain) + (e.hasAttribute("missing") ? 1 : 0);
+    }
+
+    @Benchmark
+    public int getNamespaced() {
+        XNElement e = element;
+        return e.get(qualified, NAMESPACE).length() + e.getInt(qualified, NAMESPACE)
+                + (e.hasAttribute(plain, NAMESPACE) ? 1 : 0);
+    }
+}
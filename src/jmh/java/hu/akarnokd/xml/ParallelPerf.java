@@ -0,0 +1,67 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.*;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Parses a large file sequentially and split at the root's children on the common pool.
+ * The result depends on the number of cores.
+ * <p>
+ * gradle jmh -Pjmh=ParallelPerf
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1)
+@State(Scope.Thread)
+public class ParallelPerf {
+    /** The number of records in the file. */
+    @Param({ "100000" })
+    public int count;
+    /** The document file. */
+    File file;
+    /** The UTF8 engine context. */
+    XParserContext context;
+
+    @Setup
+    public void setup() throws IOException {
+        file = File.createTempFile("parallelperf", ".xml");
+        Files.write(file.toPath(), ParsePerf.document(count).getBytes(StandardCharsets.UTF_8));
+        context = XParserContext.DEFAULT.withEngine(XParserContext.Engine.UTF8);
+    }
+
+    @TearDown
+    public void teardown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public Object sequential() throws XMLStreamException {
+        return XElement.parseXML(file, context);
+    }
+
+    @Benchmark
+    public Object parallel() throws XMLStreamException {
+        return XElement.parseXMLParallel(file, ForkJoinPool.commonPool(), context);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Parses a data document from a byte array with the STAX and the UTF8 engine,
+ * without limits and with every limit set high enough to pass, to show what the checks cost.
+ * <p>
+ * gradle jmh -Pjmh=ParsePerf
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1)
+@State(Scope.Thread)
+public class ParsePerf {
+    /** The number of records in the document. */
+    @Param({ "1", "100", "10000" })
+    public int count;
+    /** The parsing engine. */
+    @Param({ "STAX", "UTF8" })
+    public XParserContext.Engine engine;
+    /** The limits: NONE for {@link XParserContext#DEFAULT}, ALL for every limit set. */
+    @Param({ "NONE", "ALL" })
+    public String limits;
+    /** The document. */
+    byte[] data;
+    /** The context with the engine and the limits. */
+    XParserContext context;
+
+    @Setup
+    public void setup() {
+        data = document(count).getBytes(StandardCharsets.UTF_8);
+        context = XParserContext.DEFAULT.withEngine(engine);
+        if (limits.equals("ALL")) {
+            context = context.withLimits(XParserLimits.UNLIMITED
+                    .withMaxDepth(64)
+                    .withMaxElements(1_000_000)
+                    .withMaxAttributes(64)
+                    .withMaxTextLength(1024 * 1024)
+                    .withMaxInputBytes(64 * 1024 * 1024));
+        }
+    }
+
+    /**
+     * Creates a document with the given number of records.
+     * @param count the number of records
+     * @return the document
+     */
+    static String document(int count) {
+        StringBuilder b = new StringBuilder("<?xml version='1.0' encoding='UTF-8'?>\n<orders>\n");
+        for (int i = 0; i < count; i++) {
+            b.append("  <order id='").append(i).append("' status='open' created='2015-10-01T12:00:00'>\n")
+            .append("    <customer name='Customer ").append(i % 100).append("' country='HU'/>\n")
+            .append("    <item sku='A-").append(i).append("' qty='").append(i % 7 + 1).append("' price='12.5'/>\n")
+            .append("    <note>Deliver to the back door &amp; ring twice</note>\n")
+            .append("  </order>\n");
+        }
+        return b.append("</orders>\n").toString();
+    }
+
+    @Benchmark
+    public Object element() throws XMLStreamException {
+        return XElement.parseXML(data, context);
+    }
+
+    @Benchmark
+    public Object namespaced() throws XMLStreamException {
+        return XNElement.parseXML(data, context);
+    }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+
+package hu.akarnokd.xml;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Serializes the order documents of {@link ParsePerf} through XWriter, and through the
+ * previous path: per-node appender calls, temporary strings for escaping and
+ * {@code String.format} newlines, over a PrintWriter when saving.
+ * <p>
+ * gradle jmh -Pjmh=SerializePerf
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1)
+@State(Scope.Thread)
+public class SerializePerf {
+    /** The number of orders. */
+    @Param({ "1", "100", "10000" })
+    public int count;
+    /** The element tree. */
+    XElement element;
+    /** The namespaced element tree. */
+    XNElement namespaced;
+    /** The target of the saves. */
+    Writer sink;
+
+    @Setup
+    public void setup() throws XMLStreamException {
+        byte[] data = ParsePerf.document(count).getBytes(StandardCharsets.UTF_8);
+        element = XElement.parseXML(data);
+        namespaced = XNElement.parseXML(data);
+        sink = new Writer() {
+            @Override
+            public void write(char[] cbuf, int off, int len) {
+                // discarded
+            }
+            @Override
+            public void write(String str, int off, int len) {
+                // discarded
+            }
+            @Override
+            public void flush() {
+                // nothing to flush
+            }
+            @Override
+            public void close() {
+                // nothing to close
+            }
+        };
+    }
+
+    @Benchmark
+    public Object toStringLegacy() {
+        StringBuilder b = new StringBuilder();
+        legacy(element, "", b::append);
+        return b.toString();
+    }
+
+    @Benchmark
+    public Object toStringWriter() {
+        return element.toString();
+    }
+
+    @Benchmark
+    public void saveLegacy() {
+        PrintWriter out = new PrintWriter(new BufferedWriter(sink));
+        out.println("<?xml version='1.0' encoding='UTF-8'?>");
+        legacy(element, "", o -> out.print(o));
+        out.flush();
+    }
+
+    @Benchmark
+    public void saveWriter() throws IOException {
+        element.save(sink, true, true);
+    }
+
+    @Benchmark
+    public Object namespacedAppender() {
+        StringBuilder b = new StringBuilder();
+        namespaced.toStringRep("", new HashMap<>(), new XNAppender() {
+            @Override
+            public XNAppender append(Object o) {
+                b.append(o);
+                return this;
+            }
+            @Override
+            public int length() {
+                return b.length();
+            }
+        }, null);
+        return b.toString();
+    }
+
+    @Benchmark
+    public Object namespacedWriter() {
+        return namespaced.toString();
+    }
+
+    /** Receives the parts of the legacy representation. */
+    interface Out {
+        /**
+         * Appends the object.
+         * @param o the object
+         */
+        void append(Object o);
+    }
+
+    /**
+     * The pretty printing of XElement before XWriter.
+     * @param e the element
+     * @param indent the current line indentation
+     * @param out the output
+     */
+    static void legacy(XElement e, String indent, Out out) {
+        out.append(indent);
+        out.append("<");
+        out.append(e.name);
+        for (Map.Entry<String, String> a : e.attributes().entrySet()) {
+            out.append(" ");
+            out.append(a.getKey());
+            out.append("='");
+            out.append(legacySanitize(a.getValue()));
+            out.append("'");
+        }
+        List<XElement> children = e.children();
+        if (children.isEmpty()) {
+            if (e.content == null) {
+                out.append("/>");
+            } else {
+                out.append(">");
+                out.append(legacySanitize(e.content));
+                out.append("</");
+                out.append(e.name);
+                out.append(">");
+            }
+        } else {
+            if (e.content == null) {
+                out.append(String.format(">%n"));
+            } else {
+                out.append(">");
+                out.append(legacySanitize(e.content));
+                out.append(String.format("%n"));
+            }
+            for (XElement c : children) {
+                legacy(c, indent + "  ", out);
+            }
+            out.append(indent);
+            out.append("</");
+            out.append(e.name);
+            out.append(">");
+        }
+        out.append(String.format("%n"));
+    }
+
+    /**
+     * The escaping before XWriter, always copying.
+     * @param s the string, can be null
+     * @return the escaped string
+     */
+    static String legacySanitize(String s) {
+        if (s == null) {
+            return "";
+        }
+        StringBuilder b = new StringBuilder(s.length());
+        for (int i = 0, n = s.length(); i < n; i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '<':
+                b.append("&lt;");
+                break;
+            case '>':
+                b.append("&gt;");
+                break;
+            case '\'':
+                b.append("&#39;");
+                break;
+            case '"':
+                b.append("&quot;");
+                break;
+            case '&':
+                b.append("&amp;");
+                break;
+            default:
+                b.append(c);
+            }
+        }
+        return b.toString();
+    }
+}
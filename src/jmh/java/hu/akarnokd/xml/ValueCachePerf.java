@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+
+package hu.akarnokd.xml;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Reads the same attribute and child values of an element again and again,
+ * with and without the value cache, on an XElement and on an XNElement.
+ * Run it with the GC profiler to see the allocations per call on either path.
+ * <p>
+ * gradle jmhJar, then java -jar build/libs/*-jmh.jar ValueCachePerf -prof gc
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Fork(value = 1)
+@State(Scope.Thread)
+public class ValueCachePerf {
+    /** The element implementation. */
+    @Param({ "XELEMENT", "XNELEMENT" })
+    public String type;
+    /** Enable the value cache? */
+    @Param({ "false", "true" })
+    public boolean cache;
+    /** The element read, if type is XELEMENT. */
+    XElement element;
+    /** The element read, if type is XNELEMENT. */
+    XNElement nelement;
+
+    @Setup
+    public void setup() throws Exception {
+        byte[] data = ("<item qty='1234' price='1234.5678'><id>9876543210</id><count>4321</count></item>")
+                .getBytes(StandardCharsets.UTF_8);
+        if (type.equals("XELEMENT")) {
+            element = XElement.parseXML(data);
+            element.cacheValues(cache);
+        } else {
+            nelement = XNElement.parseXML(data);
+            nelement.cacheValues(cache);
+        }
+    }
+
+    @Benchmark
+    public int getInt() {
+        XElement e = element;
+        return e != null ? e.getInt("qty") : nelement.getInt("qty");
+    }
+
+    @Benchmark
+    public double getDouble() {
+        XElement e = element;
+        return e != null ? e.getDouble("price") : nelement.getDouble("price");
+    }
+
+    @Benchmark
+    public long longValue() {
+        XElement e = element;
+        return e != null ? e.longValue("id") : nelement.longValue("id");
+    }
+
+    @Benchmark
+    public int intValue() {
+        XElement e = element;
+        return e != null ? e.intValue("count") : nelement.intValue("count");
+    }
+}
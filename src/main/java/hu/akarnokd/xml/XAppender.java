@@ -22,4 +22,18 @@ public interface XAppender {
      * @return this
      */
     XAppender append(Object o);
+    /**
+     * Append a part of a string.
+     * Implementations should override it to append without creating a substring.
+     * @param s the string
+     * @param start the start index
+     * @param end the end index, exclusive
+     * @return this
+     */
+    default XAppender append(String s, int start, int end) {
+        if (start < end) {
+            append(s.substring(start, end));
+        }
+        return this;
+    }
 }
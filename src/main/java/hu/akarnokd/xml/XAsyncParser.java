@@ -0,0 +1,194 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * A non-blocking parser fed with consecutive chunks of a UTF-8 encoded document,
+ * building the element tree as the chunks arrive.
+ * <p>
+ * The complete tokens of each chunk are processed right away; only an incomplete
+ * last token is kept until the next chunk. The {@link #result()} future completes
+ * with the root element as soon as the root element closes, or exceptionally with
+ * an XMLStreamException on the first error. The input after the root element is ignored.
+ * <p>
+ * The future is completed on the thread calling {@link #feed(ByteBuffer)} or
+ * {@link #endOfInput()}. An instance must not be fed from multiple threads concurrently,
+ * but it can be fed from different threads one after the other.
+ * @param <E> the element type
+ */
+public final class XAsyncParser<E extends XElementBase> {
+    /** The tree builder. */
+    final XByteParser.TreeBuilder<E> builder;
+    /** The result. */
+    final CompletableFuture<E> result = new CompletableFuture<>();
+    /** The unprocessed input, null before the first chunk. */
+    ByteBuffer buf;
+    /** The index of the first unprocessed byte in {@link #buf}. */
+    int pos;
+    /** Was the byte order mark checked? */
+    boolean started;
+    /** Did the input end? */
+    boolean ended;
+    /**
+     * Constructor, sets the tree builder.
+     * @param builder the tree builder
+     */
+    XAsyncParser(XByteParser.TreeBuilder<E> builder) {
+        this.builder = builder;
+        builder.stopAtRoot = true;
+    }
+    /**
+     * Creates a parser building an XElement tree.
+     * @return the parser
+     */
+    public static XAsyncParser<XElement> forXElement() {
+        return forXElement(XParserContext.DEFAULT);
+    }
+    /**
+     * Creates a parser building an XElement tree.
+     * @param context the parser context
+     * @return the parser
+     */
+    public static XAsyncParser<XElement> forXElement(XParserContext context) {
+        return new XAsyncParser<>(new XByteParser.ElementBuilder(context.symbolTable(), context));
+    }
+    /**
+     * Creates a parser building an XNElement tree.
+     * @return the parser
+     */
+    public static XAsyncParser<XNElement> forXNElement() {
+        return forXNElement(XParserContext.DEFAULT);
+    }
+    /**
+     * Creates a parser building an XNElement tree.
+     * @param context the parser context
+     * @return the parser
+     */
+    public static XAsyncParser<XNElement> forXNElement(XParserContext context) {
+        return new XAsyncParser<>(new XByteParser.NElementBuilder(context.symbolTable(), context));
+    }
+    /** @return the future completed with the root element */
+    public CompletableFuture<E> result() {
+        return result;
+    }
+    /**
+     * Processes the remaining bytes of the chunk and moves its position to the limit.
+     * The bytes are copied, the chunk can be reused once the method returns.
+     * @param chunk the next chunk of the document
+     * @throws IllegalStateException if called after {@link #endOfInput()}
+     */
+    public void feed(ByteBuffer chunk) {
+        if (ended) {
+            throw new IllegalStateException("Input already ended");
+        }
+        if (result.isDone()) {
+            chunk.position(chunk.limit());
+            return;
+        }
+        if (append(chunk)) {
+            process(false);
+        }
+    }
+    /**
+     * Indicates there is no more input and completes the result if not yet completed.
+     */
+    public void endOfInput() {
+        if (ended) {
+            return;
+        }
+        ended = true;
+        if (!result.isDone()) {
+            if (buf == null) {
+                buf = ByteBuffer.allocate(0);
+            }
+            process(true);
+        }
+        buf = null;
+    }
+    /**
+     * Appends the chunk to the unprocessed input, dropping the processed bytes first.
+     * @param chunk the chunk
+     * @return false if the unprocessed input became too large and the result was failed
+     */
+    boolean append(ByteBuffer chunk) {
+        int n = chunk.remaining();
+        ByteBuffer b = buf;
+        if (b == null) {
+            b = ByteBuffer.allocate(Math.max(n, 4096));
+            buf = b;
+        } else {
+            int p = pos;
+            int rest = b.limit() - p;
+            if (p != 0) {
+                System.arraycopy(b.array(), p, b.array(), 0, rest);
+                builder.offsetBase += p;
+                pos = 0;
+                b.limit(rest);
+            }
+            if (b.capacity() - rest < n) {
+                long cap = Math.max(b.capacity() * 2L, (long)rest + n);
+                if (cap > XByteParser.MAX_SIZE) {
+                    buf = null;
+                    result.completeExceptionally(builder.error("Token too large", rest));
+                    return false;
+                }
+                ByteBuffer nb = ByteBuffer.allocate((int)cap);
+                nb.put(b.array(), 0, rest);
+                b = nb;
+                buf = b;
+            }
+            b.position(rest);
+            b.limit(b.capacity());
+        }
+        b.put(chunk);
+        b.limit(b.position());
+        b.position(0);
+        return true;
+    }
+    /**
+     * Parses the complete tokens of the unprocessed input and completes the result
+     * if the root element closed or an error happened.
+     * @param last is this the end of the input?
+     */
+    void process(boolean last) {
+        ByteBuffer b = buf;
+        int end = b.limit();
+        try {
+            int p = pos;
+            if (!started) {
+                if (end - p < 3 && !last) {
+                    return;
+                }
+                if (!XByteParser.isUtf8(b, p, end)) {
+                    throw new XMLStreamException("Only UTF-8 encoded input is supported");
+                }
+                p = XByteParser.skipBom(b, p, end);
+                started = true;
+            }
+            pos = builder.parse(b, p, end, last);
+            if (builder.rootClosed) {
+                buf = null;
+                result.complete(builder.root);
+            }
+        } catch (XMLStreamException | RuntimeException ex) {
+            buf = null;
+            result.completeExceptionally(ex);
+        }
+    }
+}
@@ -0,0 +1,458 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+import java.util.*;
+
+/**
+ * An insertion ordered map of attribute values stored in flat key and value arrays.
+ * <p>
+ * Small maps are searched linearly; a hash index over the arrays is built
+ * once the map grows past {@link #THRESHOLD} entries. Nothing is allocated
+ * until the first attribute is added.
+ * @param <K> the attribute name type
+ */
+class XAttributeMap<K> extends AbstractMap<K, String> {
+    /** The number of entries above which lookups go through the hash index. */
+    static final int THRESHOLD = 8;
+    /** The keys in insertion order. */
+    Object[] keys;
+    /** The values in insertion order. */
+    String[] values;
+    /** The number of entries. */
+    int size;
+    /** The hash index holding entry index + 1, null while the map is small. */
+    int[] index;
+    /** The structural modification count for the iterators. */
+    int modCount;
+    /** The lazily created entry set view. */
+    Set<Map.Entry<K, String>> entrySet;
+    /**
+     * Returns the hash of a key for the index.
+     * @param key the key, not null
+     * @return the hash
+     */
+    int hash(Object key) {
+        return key.hashCode();
+    }
+    /**
+     * Checks if two keys are equal.
+     * @param key the key searched for
+     * @param k the key in the map
+     * @return true if equal
+     */
+    boolean same(Object key, Object k) {
+        return key == k || key.equals(k);
+    }
+    /**
+     * Returns the entry index of the key.
+     * @param key the key
+     * @return the index or -1 if not present
+     */
+    final int indexOf(Object key) {
+        if (key == null) {
+            return -1;
+        }
+        Object[] ks = keys;
+        int[] idx = index;
+        if (idx == null) {
+            int n = size;
+            // the parsers and most callers use the same interned name instances
+            for (int i = 0; i < n; i++) {
+                if (key == ks[i]) {
+                    return i;
+                }
+            }
+            // the cached string hashes rule out most other names without comparing them
+            int h = hash(key);
+            for (int i = 0; i < n; i++) {
+                Object k = ks[i];
+                if (hash(k) == h && same(key, k)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        int mask = idx.length - 1;
+        int h = mix(hash(key)) & mask;
+        for (;;) {
+            int j = idx[h];
+            if (j == 0) {
+                return -1;
+            }
+            if (same(key, ks[j - 1])) {
+                return j - 1;
+            }
+            h = (h + 1) & mask;
+        }
+    }
+    /**
+     * Spreads the bits of the hash.
+     * @param h the hash
+     * @return the spread hash
+     */
+    static int mix(int h) {
+        h *= 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+    /** Rebuilds the hash index, or drops it if the map is small enough. */
+    final void reindex() {
+        int n = size;
+        if (n <= THRESHOLD) {
+            index = null;
+            return;
+        }
+        int cap = Integer.highestOneBit(n * 2 - 1) << 1;
+        int[] idx = new int[cap];
+        int mask = cap - 1;
+        Object[] ks = keys;
+        for (int i = 0; i < n; i++) {
+            int h = mix(hash(ks[i])) & mask;
+            while (idx[h] != 0) {
+                h = (h + 1) & mask;
+            }
+            idx[h] = i + 1;
+        }
+        index = idx;
+    }
+    @Override
+    public final String get(Object key) {
+        int i = indexOf(key);
+        return i >= 0 ? values[i] : null;
+    }
+    @Override
+    public final boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+    @Override
+    public final String put(K key, String value) {
+        Objects.requireNonNull(key);
+        int i = indexOf(key);
+        if (i >= 0) {
+            String old = values[i];
+            values[i] = value;
+            return old;
+        }
+        int n = size;
+        if (keys == null) {
+            keys = new Object[4];
+            values = new String[4];
+        } else
+        if (n == keys.length) {
+            keys = Arrays.copyOf(keys, n * 2);
+            values = Arrays.copyOf(values, n * 2);
+        }
+        keys[n] = key;
+        values[n] = value;
+        size = n + 1;
+        modCount++;
+        int[] idx = index;
+        if (idx != null && (n + 1) * 2 <= idx.length) {
+            int mask = idx.length - 1;
+            int h = mix(hash(key)) & mask;
+            while (idx[h] != 0) {
+                h = (h + 1) & mask;
+            }
+            idx[h] = n + 1;
+        } else
+        if (n + 1 > THRESHOLD) {
+            reindex();
+        }
+        return null;
+    }
+    @Override
+    public final String remove(Object key) {
+        int i = indexOf(key);
+        if (i < 0) {
+            return null;
+        }
+        String old = values[i];
+        removeAt(i);
+        return old;
+    }
+    /**
+     * Removes the entry at the given index.
+     * @param i the entry index
+     */
+    final void removeAt(int i) {
+        int n = size - 1;
+        System.arraycopy(keys, i + 1, keys, i, n - i);
+        System.arraycopy(values, i + 1, values, i, n - i);
+        keys[n] = null;
+        values[n] = null;
+        size = n;
+        modCount++;
+        if (index != null) {
+            reindex();
+        }
+    }
+    @Override
+    public final void clear() {
+        if (size != 0) {
+            Arrays.fill(keys, 0, size, null);
+            Arrays.fill(values, 0, size, null);
+            size = 0;
+            index = null;
+            modCount++;
+        }
+    }
+    @Override
+    public final int size() {
+        return size;
+    }
+    @Override
+    public final boolean isEmpty() {
+        return size == 0;
+    }
+    @Override
+    public final Set<Map.Entry<K, String>> entrySet() {
+        Set<Map.Entry<K, String>> es = entrySet;
+        if (es == null) {
+            es = new EntrySet();
+            entrySet = es;
+        }
+        return es;
+    }
+    /**
+     * The attribute map of XNElement, indexed by the local name so attributes
+     * can be looked up without creating an XAttributeName.
+     */
+    static final class Namespaced extends XAttributeMap<XNElement.XAttributeName> {
+        @Override
+        int hash(Object key) {
+            return ((XNElement.XAttributeName)key).name.hashCode();
+        }
+        /**
+         * Checks if the local names are equal, comparing the cached hashes first.
+         * @param name the name searched for
+         * @param hash the hash of the name searched for
+         * @param other the name in the map
+         * @return true if equal
+         */
+        static boolean sameName(String name, int hash, String other) {
+            return name == other || (other.hashCode() == hash && name.equals(other));
+        }
+        /**
+         * Returns the index of the first attribute with the given local name and namespace.
+         * @param name the local name
+         * @param namespace the namespace URI or null
+         * @return the index or -1 if not present
+         */
+        int indexOf(String name, String namespace) {
+            if (name == null) {
+                return -1;
+            }
+            Object[] ks = keys;
+            int[] idx = index;
+            if (idx == null) {
+                int n = size;
+                int h = name.hashCode();
+                for (int i = 0; i < n; i++) {
+                    XNElement.XAttributeName an = (XNElement.XAttributeName)ks[i];
+                    if (sameName(name, h, an.name) && Objects.equals(namespace, an.namespace)) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+            int mask = idx.length - 1;
+            int h = mix(name.hashCode()) & mask;
+            for (;;) {
+                int j = idx[h];
+                if (j == 0) {
+                    return -1;
+                }
+                XNElement.XAttributeName an = (XNElement.XAttributeName)ks[j - 1];
+                if (name.equals(an.name) && Objects.equals(namespace, an.namespace)) {
+                    return j - 1;
+                }
+                h = (h + 1) & mask;
+            }
+        }
+        /**
+         * Returns the index of the first attribute with the given local name in any namespace.
+         * @param name the local name
+         * @return the index or -1 if not present
+         */
+        int indexOfAny(String name) {
+            if (name == null) {
+                return -1;
+            }
+            Object[] ks = keys;
+            int[] idx = index;
+            if (idx == null) {
+                int n = size;
+                int h = name.hashCode();
+                for (int i = 0; i < n; i++) {
+                    if (sameName(name, h, ((XNElement.XAttributeName)ks[i]).name)) {
+                        return i;
+                    }
+                }
+                return -1;
+            }
+            int mask = idx.length - 1;
+            int h = mix(name.hashCode()) & mask;
+            int result = -1;
+            for (;;) {
+                int j = idx[h];
+                if (j == 0) {
+                    return result;
+                }
+                if ((result < 0 || j - 1 < result) && name.equals(((XNElement.XAttributeName)ks[j - 1]).name)) {
+                    result = j - 1;
+                }
+                h = (h + 1) & mask;
+            }
+        }
+        /**
+         * Returns the value of the attribute with the given local name and namespace.
+         * @param name the local name
+         * @param namespace the namespace URI or null
+         * @return the value or null if not present
+         */
+        String get(String name, String namespace) {
+            int i = indexOf(name, namespace);
+            return i >= 0 ? values[i] : null;
+        }
+        /**
+         * Returns the value of the namespace-less attribute with the given local name,
+         * or if there is none, the first attribute with the given local name in any namespace.
+         * @param name the local name
+         * @return the value or null if not present
+         */
+        String getAny(String name) {
+            int i = indexOf(name, null);
+            if (i < 0) {
+                i = indexOfAny(name);
+            }
+            return i >= 0 ? values[i] : null;
+        }
+    }
+    /** The live entry set view. */
+    final class EntrySet extends AbstractSet<Map.Entry<K, String>> {
+        @Override
+        public Iterator<Map.Entry<K, String>> iterator() {
+            return new EntryIterator();
+        }
+        @Override
+        public int size() {
+            return size;
+        }
+        @Override
+        public void clear() {
+            XAttributeMap.this.clear();
+        }
+    }
+    /** Iterates over the entries in insertion order. */
+    final class EntryIterator implements Iterator<Map.Entry<K, String>> {
+        /** The index of the next entry. */
+        int next;
+        /** The index of the last returned entry, -1 if none. */
+        int last = -1;
+        /** The expected modification count. */
+        int expectedModCount = modCount;
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+        @Override
+        public Map.Entry<K, String> next() {
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            int i = next;
+            if (i >= size) {
+                throw new NoSuchElementException();
+            }
+            next = i + 1;
+            last = i;
+            return new Entry(i);
+        }
+        @Override
+        public void remove() {
+            if (last < 0) {
+                throw new IllegalStateException();
+            }
+            if (modCount != expectedModCount) {
+                throw new ConcurrentModificationException();
+            }
+            removeAt(last);
+            next = last;
+            last = -1;
+            expectedModCount = modCount;
+        }
+    }
+    /** An entry writing through to the map. */
+    final class Entry implements Map.Entry<K, String> {
+        /** The key. */
+        final K key;
+        /** The entry index at the time of creation. */
+        final int at;
+        /**
+         * Constructor, sets the entry index.
+         * @param at the entry index
+         */
+        @SuppressWarnings("unchecked")
+        Entry(int at) {
+            this.at = at;
+            this.key = (K)keys[at];
+        }
+        /**
+         * Returns the current index of the entry.
+         * @return the index or -1 if the key was removed
+         */
+        int position() {
+            int i = at;
+            if (i < size && keys[i] == key) {
+                return i;
+            }
+            return indexOf(key);
+        }
+        @Override
+        public K getKey() {
+            return key;
+        }
+        @Override
+        public String getValue() {
+            int i = position();
+            return i >= 0 ? values[i] : null;
+        }
+        @Override
+        public String setValue(String value) {
+            int i = position();
+            if (i < 0) {
+                throw new IllegalStateException("Entry removed");
+            }
+            String old = values[i];
+            values[i] = value;
+            return old;
+        }
+        @Override
+        public boolean equals(Object o) {
+            if (o instanceof Map.Entry) {
+                Map.Entry<?, ?> e = (Map.Entry<?, ?>)o;
+                return key.equals(e.getKey()) && Objects.equals(getValue(), e.getValue());
+            }
+            return false;
+        }
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ Objects.hashCode(getValue());
+        }
+        @Override
+        public String toString() {
+            return key + "=" + getValue();
+        }
+    }
+}
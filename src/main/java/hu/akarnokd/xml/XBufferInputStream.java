@@ -0,0 +1,65 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Reads the remaining bytes of a buffer, heap or direct, through an independent
+ * view so the position of the original buffer is not changed.
+ */
+final class XBufferInputStream extends InputStream {
+    /** The view of the remaining bytes. */
+    final ByteBuffer buf;
+    /**
+     * Constructor, creates the view.
+     * @param buf the buffer
+     */
+    XBufferInputStream(ByteBuffer buf) {
+        this.buf = buf.duplicate();
+    }
+    @Override
+    public int read() {
+        ByteBuffer b = buf;
+        if (!b.hasRemaining()) {
+            return -1;
+        }
+        return b.get() & 0xFF;
+    }
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        ByteBuffer r = buf;
+        if (!r.hasRemaining()) {
+            return -1;
+        }
+        int n = Math.min(len, r.remaining());
+        r.get(b, off, n);
+        return n;
+    }
+    @Override
+    public long skip(long n) {
+        ByteBuffer r = buf;
+        int k = (int)Math.max(0, Math.min(n, r.remaining()));
+        r.position(r.position() + k);
+        return k;
+    }
+    @Override
+    public int available() {
+        return buf.remaining();
+    }
+}
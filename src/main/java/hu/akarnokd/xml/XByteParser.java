@@ -0,0 +1,1532 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * A tokenizer working directly on UTF-8 encoded bytes, without going through
+ * XMLStreamReader and char decoding of the whole input.
+ * <p>
+ * Handles elements, attributes, text, CDATA, comments, processing instructions,
+ * namespaces, the predefined entities and character references. The DOCTYPE
+ * declaration is skipped; entities declared there are not supported.
+ * <p>
+ * Like the STAX path, the input after the end of the root element is not read. The
+ * well-formedness checks are less strict than the JDK parser's for non-ASCII characters:
+ * they are accepted anywhere in names, and only their UTF-8 encoding is checked in text
+ * and attribute values, not whether XML allows them.
+ * <p>
+ * The input is consumed token by token: {@link #parse(ByteBuffer, int, int, boolean)}
+ * stops before the first incomplete token, so the same instance can be fed
+ * with consecutive chunks of a document. The subclasses build the element trees.
+ */
+abstract class XByteParser {
+    /** The namespace URI bound to the {@code xml} prefix. */
+    static final String XML_NAMESPACE = "http://www.w3.org/XML/1998/namespace";
+    /** The largest input which fits into an array. */
+    static final long MAX_SIZE = Integer.MAX_VALUE - 8;
+    /** An element or attribute name entry. */
+    static final class Name {
+        /** The UTF-8 bytes of the qualified name. */
+        final byte[] bytes;
+        /** The hash of the bytes. */
+        final int hash;
+        /** The qualified name. */
+        final String qname;
+        /** The prefix, empty string if none. */
+        final String prefix;
+        /** The local name. */
+        final String local;
+        /** The next entry in the same bucket. */
+        Name next;
+        /**
+         * Constructor, sets the fields.
+         * @param bytes the qualified name bytes
+         * @param hash the hash of the bytes
+         * @param qname the qualified name
+         * @param prefix the prefix
+         * @param local the local name
+         */
+        Name(byte[] bytes, int hash, String qname, String prefix, String local) {
+            this.bytes = bytes;
+            this.hash = hash;
+            this.qname = qname;
+            this.prefix = prefix;
+            this.local = local;
+        }
+    }
+    /** The symbol table to intern the names with. */
+    final XSymbolTable symbols;
+    /** Process namespace declarations and prefixes? */
+    final boolean namespaceAware;
+    /** The empty prefix. */
+    final String emptyPrefix;
+    /** The {@code xmlns} name. */
+    final String xmlns;
+    /** The {@code xml} prefix. */
+    final String xml;
+    /** The current input. */
+    ByteBuffer buf;
+    /** The name hash table. */
+    Name[] names = new Name[64];
+    /** The number of names in the table. */
+    int nameCount;
+    /** The attribute names of the current start tag. */
+    Name[] attNames = new Name[8];
+    /** The attribute namespace URIs of the current start tag. */
+    String[] attUris = new String[8];
+    /** The attribute values of the current start tag. */
+    String[] attValues = new String[8];
+    /** The number of attributes of the current start tag. */
+    int attCount;
+    /** The declared prefixes in scope. */
+    String[] nsPrefixes = new String[8];
+    /** The declared namespace URIs in scope, null for undeclaring the default namespace. */
+    String[] nsUris = new String[8];
+    /** The number of namespace declarations in scope. */
+    int nsCount;
+    /** The open element names. */
+    Name[] openNames = new Name[16];
+    /** The namespace declaration count when the element at the given depth was opened. */
+    int[] nsMarks = new int[16];
+    /** The number of open elements. */
+    int depth;
+    /** Was the root element opened? */
+    boolean rootSeen;
+    /** Was the root element closed? */
+    boolean rootClosed;
+    /** Should {@link #parse(ByteBuffer, int, int, boolean)} return right after the root element closes? */
+    boolean stopAtRoot;
+    /** The absolute offset of the current input's start, for error messages. */
+    long offsetBase;
+    /** The decoding scratch buffer. */
+    char[] chars = new char[256];
+    /** The resource limits. */
+    XParserLimits limits = XParserLimits.UNLIMITED;
+    /** The number of elements started. */
+    long elementCount;
+    /** The index of the text or CDATA token being reported, for the limit errors. */
+    int textPos;
+    /**
+     * Constructor, sets the name handling.
+     * @param symbols the symbol table
+     * @param namespaceAware process namespaces?
+     */
+    XByteParser(XSymbolTable symbols, boolean namespaceAware) {
+        this.symbols = symbols;
+        this.namespaceAware = namespaceAware;
+        this.emptyPrefix = symbols.intern("");
+        this.xmlns = symbols.intern("xmlns");
+        this.xml = symbols.intern("xml");
+    }
+    /**
+     * Called when an element starts. The attributes are in
+     * {@link #attNames}, {@link #attUris} and {@link #attValues}.
+     * @param name the element name
+     * @param uri the resolved namespace URI or null
+     * @throws XMLStreamException on error
+     */
+    abstract void startElement(Name name, String uri) throws XMLStreamException;
+    /**
+     * Called when the current element ends.
+     * @throws XMLStreamException on error
+     */
+    abstract void endElement() throws XMLStreamException;
+    /**
+     * Called with a non-whitespace text or CDATA run of the current element.
+     * @param text the text
+     * @throws XMLStreamException on error
+     */
+    abstract void text(String text) throws XMLStreamException;
+    /** The number of cached names above which {@link #reset()} drops the name table. */
+    static final int MAX_RETAINED_NAMES = 4096;
+    /**
+     * Prepares the parser for the next document, keeping the name table
+     * and the scratch buffers unless they grew too large.
+     */
+    void reset() {
+        buf = null;
+        attCount = 0;
+        nsCount = 0;
+        depth = 0;
+        rootSeen = false;
+        rootClosed = false;
+        offsetBase = 0;
+        elementCount = 0;
+        if (nameCount > MAX_RETAINED_NAMES) {
+            names = new Name[64];
+            nameCount = 0;
+        }
+    }
+    /**
+     * Parses the whole document in the given range.
+     * @param buf the input
+     * @param start the start index
+     * @param end the end index, exclusive
+     * @throws XMLStreamException on error
+     */
+    final void parseAll(ByteBuffer buf, int start, int end) throws XMLStreamException {
+        parse(buf, skipBom(buf, start, end), end, true);
+    }
+    /**
+     * Skips the UTF-8 byte order mark if present.
+     * @param buf the input
+     * @param start the start index
+     * @param end the end index
+     * @return the index after the byte order mark
+     */
+    static int skipBom(ByteBuffer buf, int start, int end) {
+        if (end - start >= 3 && buf.get(start) == (byte)0xEF
+                && buf.get(start + 1) == (byte)0xBB && buf.get(start + 2) == (byte)0xBF) {
+            return start + 3;
+        }
+        return start;
+    }
+    /**
+     * Checks if the document in the given range is UTF-8 (or ASCII) encoded
+     * judging by its byte order mark and XML declaration.
+     * @param buf the input
+     * @param start the start index
+     * @param end the end index
+     * @return true if the document can be parsed by this tokenizer
+     */
+    static boolean isUtf8(ByteBuffer buf, int start, int end) {
+        if (end - start >= 2) {
+            int b0 = buf.get(start) & 0xFF;
+            int b1 = buf.get(start + 1) & 0xFF;
+            // UTF-16 and UTF-32 byte order marks or '<' as wide chars
+            if (b0 == 0xFE || b0 == 0xFF || b0 == 0 || b1 == 0) {
+                return false;
+            }
+        }
+        int i = skipBom(buf, start, end);
+        if (!startsWith(buf, i, end, "<?xml") || i + 5 >= end || !isWhitespace(buf.get(i + 5))) {
+            return true;
+        }
+        int e = indexOf(buf, i, end, (byte)'>');
+        if (e < 0) {
+            return true;
+        }
+        String encoding = pseudoAttribute(buf, i + 5, e, "encoding");
+        return encoding == null || encoding.equalsIgnoreCase("UTF-8")
+                || encoding.equalsIgnoreCase("UTF8") || encoding.equalsIgnoreCase("US-ASCII")
+                || encoding.equalsIgnoreCase("ASCII");
+    }
+    /**
+     * Returns the value of a pseudo-attribute of the XML declaration.
+     * @param buf the input
+     * @param start the start index after the {@code <?xml}
+     * @param end the index of the closing {@code >}
+     * @param name the pseudo-attribute name
+     * @return the value or null if not present
+     */
+    static String pseudoAttribute(ByteBuffer buf, int start, int end, String name) {
+        for (int i = start; i < end - name.length(); i++) {
+            if (startsWith(buf, i, end, name)) {
+                int j = i + name.length();
+                while (j < end && isWhitespace(buf.get(j))) {
+                    j++;
+                }
+                if (j < end && buf.get(j) == '=') {
+                    j++;
+                    while (j < end && isWhitespace(buf.get(j))) {
+                        j++;
+                    }
+                    if (j < end) {
+                        byte q = buf.get(j);
+                        if (q == '"' || q == '\'') {
+                            int k = indexOf(buf, j + 1, end, q);
+                            if (k > 0) {
+                                StringBuilder b = new StringBuilder();
+                                for (int m = j + 1; m < k; m++) {
+                                    b.append((char)(buf.get(m) & 0xFF));
+                                }
+                                return b.toString();
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return null;
+    }
+    /**
+     * Checks if the input at the given index starts with the ASCII text.
+     * @param buf the input
+     * @param i the index
+     * @param end the end index
+     * @param s the ASCII text
+     * @return true if the text is present
+     */
+    static boolean startsWith(ByteBuffer buf, int i, int end, String s) {
+        int n = s.length();
+        if (end - i < n) {
+            return false;
+        }
+        for (int j = 0; j < n; j++) {
+            if (buf.get(i + j) != s.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+    /**
+     * Finds the first occurrence of a byte.
+     * @param buf the input
+     * @param i the start index
+     * @param end the end index
+     * @param b the byte to find
+     * @return the index or -1 if not found
+     */
+    static int indexOf(ByteBuffer buf, int i, int end, byte b) {
+        for (; i < end; i++) {
+            if (buf.get(i) == b) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    /**
+     * Checks for the XML whitespace characters.
+     * @param b the byte
+     * @return true if whitespace
+     */
+    static boolean isWhitespace(int b) {
+        return b == ' ' || b == '\n' || b == '\t' || b == '\r';
+    }
+    /**
+     * Parses the complete tokens in the given range.
+     * @param buf the input
+     * @param start the start index
+     * @param end the end index, exclusive
+     * @param last is this the last range of the document?
+     * @return the index of the first token not yet processed, {@code end} if all were processed
+     * @throws XMLStreamException on error
+     */
+    final int parse(ByteBuffer buf, int start, int end, boolean last) throws XMLStreamException {
+        if (offsetBase + end > limits.maxInputBytes) {
+            throw limits.exceeded(XParserLimits.Limit.INPUT_BYTES, limits.maxInputBytes);
+        }
+        this.buf = buf;
+        int pos = start;
+        while (pos < end) {
+            if (rootClosed) {
+                // like the STAX path, whatever follows the root element is not read
+                return stopAtRoot ? pos : end;
+            }
+            int next;
+            if (buf.get(pos) == '<') {
+                if (pos + 1 >= end) {
+                    next = -1;
+                } else {
+                    byte c = buf.get(pos + 1);
+                    if (c == '/') {
+                        next = endTag(pos, end);
+                    } else
+                    if (c == '?') {
+                        next = processingInstruction(pos, end);
+                    } else
+                    if (c == '!') {
+                        next = declaration(pos, end);
+                    } else {
+                        next = startTag(pos, end);
+                    }
+                }
+            } else {
+                next = text(pos, end, last);
+            }
+            if (next < 0) {
+                if (last) {
+                    throw error("Unexpected end of input", pos);
+                }
+                return pos;
+            }
+            pos = next;
+        }
+        if (last) {
+            if (!rootSeen) {
+                throw error("No root element", pos);
+            }
+            if (depth != 0) {
+                throw error("Unclosed element " + openNames[depth - 1].qname, pos);
+            }
+        }
+        return pos;
+    }
+    /**
+     * Creates an exception with the given message and position.
+     * @param message the message
+     * @param pos the index in the current input
+     * @return the exception
+     */
+    final XMLStreamException error(String message, int pos) {
+        return new XMLStreamException(message + " at offset " + (offsetBase + pos));
+    }
+    /**
+     * Creates an exception for the exceeded limit at the given position.
+     * @param limit the limit
+     * @param pos the index in the current input
+     * @return the exception
+     */
+    final XLimitExceededException exceeded(XParserLimits.Limit limit, int pos) {
+        return limits.exceeded(limit, offsetBase + pos);
+    }
+    /**
+     * Checks that a text run of the given size in bytes can fit the text length limit.
+     * A character takes at most 3 bytes, so larger runs are rejected before being decoded.
+     * @param bytes the size of the run
+     * @param pos the index of the run in the current input
+     * @throws XLimitExceededException if the run doesn't fit
+     */
+    final void checkTextBytes(int bytes, int pos) throws XLimitExceededException {
+        if (bytes > 3L * limits.maxTextLength) {
+            throw exceeded(XParserLimits.Limit.TEXT_LENGTH, pos);
+        }
+    }
+    /**
+     * Parses a start or empty element tag.
+     * @param pos the index of the {@code <}
+     * @param end the end index
+     * @return the index after the tag or -1 if incomplete
+     * @throws XMLStreamException on error
+     */
+    final int startTag(int pos, int end) throws XMLStreamException {
+        ByteBuffer buf = this.buf;
+        int gt = tagEnd(buf, pos, end);
+        if (gt < 0) {
+            return -1;
+        }
+        if (rootClosed) {
+            throw error("Multiple root elements", pos);
+        }
+        if (depth >= limits.maxDepth) {
+            throw exceeded(XParserLimits.Limit.DEPTH, pos);
+        }
+        if (++elementCount > limits.maxElements) {
+            throw exceeded(XParserLimits.Limit.ELEMENTS, pos);
+        }
+        int i = pos + 1;
+        int ne = nameEnd(i, gt);
+        if (ne == i) {
+            throw error("Missing element name", i);
+        }
+        Name name = name(i, ne);
+        i = ne;
+
+        int nsMark = nsCount;
+        attCount = 0;
+        boolean empty = false;
+        for (;;) {
+            while (i < gt && isWhitespace(buf.get(i))) {
+                i++;
+            }
+            if (i == gt) {
+                break;
+            }
+            byte b = buf.get(i);
+            if (b == '/') {
+                if (i + 1 != gt) {
+                    throw error("Unexpected '/'", i);
+                }
+                empty = true;
+                break;
+            }
+            if (i == ne || !isWhitespace(buf.get(i - 1))) {
+                throw error("Missing whitespace before attribute", i);
+            }
+            int as = i;
+            i = nameEnd(i, gt);
+            if (i == as) {
+                throw error("Missing attribute name", i);
+            }
+            Name an = name(as, i);
+            if (attCount == limits.maxAttributes && !(namespaceAware && (an.qname == xmlns || an.prefix == xmlns))) {
+                throw exceeded(XParserLimits.Limit.ATTRIBUTES, as);
+            }
+            while (i < gt && isWhitespace(buf.get(i))) {
+                i++;
+            }
+            if (i == gt || buf.get(i) != '=') {
+                throw error("Missing '=' after attribute " + an.qname, i);
+            }
+            i++;
+            while (i < gt && isWhitespace(buf.get(i))) {
+                i++;
+            }
+            byte q = i < gt ? buf.get(i) : 0;
+            if (q != '"' && q != '\'') {
+                throw error("Missing quote for the value of attribute " + an.qname, i);
+            }
+            int vs = i + 1;
+            int ve = indexOf(buf, vs, gt, q);
+            if (ve < 0) {
+                throw error("Unterminated value of attribute " + an.qname, vs);
+            }
+            i = ve + 1;
+            String value = decode(vs, ve, MODE_ATTRIBUTE);
+
+            if (namespaceAware && (an.qname == xmlns || an.prefix == xmlns)) {
+                String prefix = an.qname == xmlns ? emptyPrefix : an.local;
+                declare(prefix, value.isEmpty() ? null : symbols.intern(value));
+            } else {
+                for (int j = 0; j < attCount; j++) {
+                    if (attNames[j] == an) {
+                        throw error("Duplicate attribute " + an.qname, as);
+                    }
+                }
+                if (attCount == attNames.length) {
+                    attNames = Arrays.copyOf(attNames, attCount * 2);
+                    attUris = Arrays.copyOf(attUris, attCount * 2);
+                    attValues = Arrays.copyOf(attValues, attCount * 2);
+                }
+                attNames[attCount] = an;
+                attValues[attCount] = value;
+                attCount++;
+            }
+        }
+        String uri = null;
+        if (namespaceAware) {
+            uri = resolve(name.prefix, pos);
+            for (int j = 0; j < attCount; j++) {
+                Name an = attNames[j];
+                attUris[j] = an.prefix.isEmpty() ? null : resolve(an.prefix, pos);
+            }
+        }
+        if (depth == openNames.length) {
+            openNames = Arrays.copyOf(openNames, depth * 2);
+            nsMarks = Arrays.copyOf(nsMarks, depth * 2);
+        }
+        openNames[depth] = name;
+        nsMarks[depth] = nsMark;
+        depth++;
+        rootSeen = true;
+        startElement(name, uri);
+        Arrays.fill(attValues, 0, attCount, null);
+        if (empty) {
+            closeElement();
+        }
+        return gt + 1;
+    }
+    /**
+     * Puts the attributes of the current start tag into the element.
+     * @param n the element
+     */
+    final void putAttributes(XNElement n) {
+        for (int i = 0; i < attCount; i++) {
+            Name an = attNames[i];
+            n.attributes.put(symbols.attributeName(an.local, attUris[i], an.prefix), attValues[i]);
+        }
+    }
+    /**
+     * Closes the innermost open element.
+     * @throws XMLStreamException on error
+     */
+    final void closeElement() throws XMLStreamException {
+        endElement();
+        depth--;
+        nsCount = nsMarks[depth];
+        openNames[depth] = null;
+        if (depth == 0) {
+            rootClosed = true;
+        }
+    }
+    /**
+     * Declares a namespace prefix in the current scope.
+     * @param prefix the prefix, empty for the default namespace
+     * @param uri the namespace URI, null to undeclare the default namespace
+     */
+    final void declare(String prefix, String uri) {
+        if (nsCount == nsPrefixes.length) {
+            nsPrefixes = Arrays.copyOf(nsPrefixes, nsCount * 2);
+            nsUris = Arrays.copyOf(nsUris, nsCount * 2);
+        }
+        nsPrefixes[nsCount] = prefix;
+        nsUris[nsCount] = uri;
+        nsCount++;
+    }
+    /**
+     * Resolves a prefix to the namespace URI in scope.
+     * @param prefix the prefix, empty for the default namespace
+     * @param pos the position for the error message
+     * @return the namespace URI or null if the default namespace is not declared
+     * @throws XMLStreamException if the prefix is not declared
+     */
+    final String resolve(String prefix, int pos) throws XMLStreamException {
+        for (int i = nsCount - 1; i >= 0; i--) {
+            if (nsPrefixes[i].equals(prefix)) {
+                return nsUris[i];
+            }
+        }
+        if (prefix.isEmpty()) {
+            return null;
+        }
+        if (prefix.equals(xml)) {
+            return XML_NAMESPACE;
+        }
+        throw error("Undeclared namespace prefix " + prefix, pos);
+    }
+    /**
+     * Parses an end element tag.
+     * @param pos the index of the {@code <}
+     * @param end the end index
+     * @return the index after the tag or -1 if incomplete
+     * @throws XMLStreamException on error
+     */
+    final int endTag(int pos, int end) throws XMLStreamException {
+        int gt = indexOf(buf, pos + 2, end, (byte)'>');
+        if (gt < 0) {
+            return -1;
+        }
+        int ne = nameEnd(pos + 2, gt);
+        for (int i = ne; i < gt; i++) {
+            if (!isWhitespace(buf.get(i))) {
+                throw error("Unexpected character in end tag", i);
+            }
+        }
+        if (depth == 0) {
+            throw error("Unexpected end tag", pos);
+        }
+        Name name = name(pos + 2, ne);
+        if (name != openNames[depth - 1]) {
+            throw error("End tag " + name.qname + " doesn't match start tag " + openNames[depth - 1].qname, pos);
+        }
+        closeElement();
+        return gt + 1;
+    }
+    /**
+     * Skips a processing instruction or the XML declaration.
+     * @param pos the index of the {@code <}
+     * @param end the end index
+     * @return the index after the instruction or -1 if incomplete
+     * @throws XMLStreamException on error
+     */
+    final int processingInstruction(int pos, int end) throws XMLStreamException {
+        for (int i = pos + 2; i < end - 1; i++) {
+            if (buf.get(i) == '?' && buf.get(i + 1) == '>') {
+                if (!rootSeen && startsWith(buf, pos, end, "<?xml") && isWhitespace(buf.get(pos + 5))) {
+                    if (!isUtf8(buf, pos, i + 2)) {
+                        throw error("Unsupported encoding", pos);
+                    }
+                }
+                return i + 2;
+            }
+        }
+        return -1;
+    }
+    /**
+     * Parses a comment, a CDATA section or skips the DOCTYPE declaration.
+     * @param pos the index of the {@code <}
+     * @param end the end index
+     * @return the index after the declaration or -1 if incomplete
+     * @throws XMLStreamException on error
+     */
+    final int declaration(int pos, int end) throws XMLStreamException {
+        ByteBuffer buf = this.buf;
+        if (end - pos < 4) {
+            return -1;
+        }
+        if (buf.get(pos + 2) == '-' && buf.get(pos + 3) == '-') {
+            for (int i = pos + 4; i < end - 2; i++) {
+                if (buf.get(i) == '-' && buf.get(i + 1) == '-' && buf.get(i + 2) == '>') {
+                    return i + 3;
+                }
+            }
+            return -1;
+        }
+        if (buf.get(pos + 2) == '[') {
+            if (end - pos < 9) {
+                return -1;
+            }
+            if (!startsWith(buf, pos, end, "<![CDATA[")) {
+                throw error("Invalid markup", pos);
+            }
+            if (depth == 0) {
+                throw error("CDATA outside of the root element", pos);
+            }
+            for (int i = pos + 9; i < end - 2; i++) {
+                if (buf.get(i) == ']' && buf.get(i + 1) == ']' && buf.get(i + 2) == '>') {
+                    checkTextBytes(i - pos - 9, pos);
+                    String s = decode(pos + 9, i, MODE_CDATA);
+                    if (s != null) {
+                        textPos = pos;
+                        text(s);
+                    }
+                    return i + 3;
+                }
+            }
+            return -1;
+        }
+        if (end - pos < 9) {
+            return -1;
+        }
+        if (!startsWith(buf, pos, end, "<!DOCTYPE") || rootSeen) {
+            throw error("Invalid markup", pos);
+        }
+        // skip the DOCTYPE along with its internal subset
+        byte quote = 0;
+        int brackets = 0;
+        for (int i = pos + 9; i < end; i++) {
+            byte b = buf.get(i);
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else
+            if (b == '"' || b == '\'') {
+                quote = b;
+            } else
+            if (b == '[') {
+                brackets++;
+            } else
+            if (b == ']') {
+                brackets--;
+            } else
+            if (b == '>' && brackets == 0) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+    /**
+     * Parses a text run up to the next markup.
+     * @param pos the start index
+     * @param end the end index
+     * @param last is this the last range of the input?
+     * @return the index of the next markup or -1 if incomplete
+     * @throws XMLStreamException on error
+     */
+    final int text(int pos, int end, boolean last) throws XMLStreamException {
+        int lt = indexOf(buf, pos, end, (byte)'<');
+        if (lt < 0) {
+            if (!last) {
+                if (depth != 0) {
+                    checkTextBytes(end - pos, pos);
+                }
+                return -1;
+            }
+            lt = end;
+        }
+        if (depth == 0) {
+            for (int i = pos; i < lt; i++) {
+                if (!isWhitespace(buf.get(i))) {
+                    throw error("Content outside of the root element", i);
+                }
+            }
+        } else {
+            checkTextBytes(lt - pos, pos);
+            for (int gt = indexOf(buf, pos, lt, (byte)'>'); gt >= 0; gt = indexOf(buf, gt + 1, lt, (byte)'>')) {
+                if (gt - pos >= 2 && buf.get(gt - 1) == ']' && buf.get(gt - 2) == ']') {
+                    throw error("']]>' in text", gt - 2);
+                }
+            }
+            String s = decode(pos, lt, MODE_TEXT);
+            if (s != null) {
+                textPos = pos;
+                text(s);
+            }
+        }
+        return lt;
+    }
+    /**
+     * Returns the end index of a name.
+     * @param i the start index
+     * @param end the end index
+     * @return the index of the first byte not part of the name
+     */
+    final int nameEnd(int i, int end) {
+        ByteBuffer buf = this.buf;
+        for (; i < end; i++) {
+            byte b = buf.get(i);
+            if (b == ' ' || b == '>' || b == '/' || b == '=' || b == '\n' || b == '\t' || b == '\r') {
+                break;
+            }
+        }
+        return i;
+    }
+    /**
+     * Returns the shared name entry for the given name bytes.
+     * @param start the start index
+     * @param end the end index
+     * @return the name entry
+     * @throws XMLStreamException on decoding error
+     */
+    final Name name(int start, int end) throws XMLStreamException {
+        ByteBuffer buf = this.buf;
+        int len = end - start;
+        int h = len;
+        for (int i = start; i < end; i++) {
+            h = h * 31 + buf.get(i);
+        }
+        Name[] table = names;
+        int idx = h & (table.length - 1);
+        outer:
+        for (Name n = table[idx]; n != null; n = n.next) {
+            if (n.hash == h) {
+                byte[] bytes = n.bytes;
+                if (bytes.length != len) {
+                    continue;
+                }
+                for (int i = 0; i < len; i++) {
+                    if (bytes[i] != buf.get(start + i)) {
+                        continue outer;
+                    }
+                }
+                return n;
+            }
+        }
+        byte[] bytes = new byte[len];
+        for (int i = 0; i < len; i++) {
+            byte b = buf.get(start + i);
+            if (!isNameByte(b, i == 0)) {
+                throw error("Invalid name character", start + i);
+            }
+            bytes[i] = b;
+        }
+        String qname = new String(bytes, StandardCharsets.UTF_8);
+        String prefix = emptyPrefix;
+        String local = qname;
+        if (namespaceAware) {
+            int colon = qname.indexOf(':');
+            if (colon >= 0) {
+                prefix = qname.substring(0, colon);
+                local = qname.substring(colon + 1);
+                if (prefix.isEmpty() || local.isEmpty()) {
+                    throw error("Invalid qualified name " + qname, start);
+                }
+            }
+        }
+        Name n = new Name(bytes, h, symbols.intern(qname), symbols.intern(prefix), symbols.intern(local));
+        n.next = table[idx];
+        table[idx] = n;
+        if (++nameCount > table.length * 3 / 4) {
+            rehash();
+        }
+        return n;
+    }
+    /**
+     * Checks if the byte can be part of a name. Only the ASCII part of the name
+     * characters is checked; the bytes of non-ASCII characters are accepted anywhere.
+     * @param b the byte
+     * @param first is it the first byte of the name?
+     * @return true if the byte can be part of a name
+     */
+    static boolean isNameByte(byte b, boolean first) {
+        if (b < 0 || (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || b == '_' || b == ':') {
+            return true;
+        }
+        return !first && ((b >= '0' && b <= '9') || b == '-' || b == '.');
+    }
+    /** Doubles the name table. */
+    final void rehash() {
+        Name[] table = names;
+        Name[] newTable = new Name[table.length * 2];
+        int m = newTable.length - 1;
+        for (Name n : table) {
+            while (n != null) {
+                Name next = n.next;
+                int idx = n.hash & m;
+                n.next = newTable[idx];
+                newTable[idx] = n;
+                n = next;
+            }
+        }
+        names = newTable;
+    }
+    /** Decode text content: entities, line end normalization, whitespace-only is dropped. */
+    static final int MODE_TEXT = 0;
+    /** Decode attribute value: entities, whitespace normalization. */
+    static final int MODE_ATTRIBUTE = 1;
+    /** Decode CDATA: line end normalization, whitespace-only is dropped. */
+    static final int MODE_CDATA = 2;
+    /**
+     * Decodes the UTF-8 bytes of the given range.
+     * @param start the start index
+     * @param end the end index
+     * @param mode the decoding mode
+     * @return the string or null if a text or CDATA consists only of whitespace
+     * @throws XMLStreamException on error
+     */
+    final String decode(int start, int end, int mode) throws XMLStreamException {
+        ByteBuffer buf = this.buf;
+        boolean whitespace = true;
+        int i = start;
+        // fast path for ASCII without references, control characters and line ends to normalize
+        for (; i < end; i++) {
+            byte b = buf.get(i);
+            if (b < ' ' && b != '\n' && b != '\t') {
+                break;
+            }
+            if (mode != MODE_CDATA) {
+                if (b == '&' || b == '<') {
+                    break;
+                }
+                if (mode == MODE_ATTRIBUTE && (b == '\n' || b == '\t')) {
+                    break;
+                }
+            }
+            if (b != ' ' && b != '\n' && b != '\t') {
+                whitespace = false;
+            }
+        }
+        if (i == end) {
+            if (whitespace && mode != MODE_ATTRIBUTE) {
+                return null;
+            }
+            if (buf.hasArray()) {
+                return new String(buf.array(), buf.arrayOffset() + start, end - start, StandardCharsets.ISO_8859_1);
+            }
+        }
+        return decodeSlow(start, end, mode);
+    }
+    /**
+     * Decodes the UTF-8 bytes of the given range through the scratch buffer.
+     * @param start the start index
+     * @param end the end index
+     * @param mode the decoding mode
+     * @return the string or null if a text or CDATA consists only of whitespace
+     * @throws XMLStreamException on error
+     */
+    final String decodeSlow(int start, int end, int mode) throws XMLStreamException {
+        ByteBuffer buf = this.buf;
+        char[] c = chars;
+        if (c.length < end - start) {
+            c = new char[Math.max(end - start, c.length * 2)];
+            chars = c;
+        }
+        int n = 0;
+        boolean whitespace = true;
+        int i = start;
+        while (i < end) {
+            int b = buf.get(i);
+            if (b >= 0) {
+                i++;
+                if (b < ' ' && b != '\n' && b != '\t' && b != '\r') {
+                    throw error("Invalid character", i - 1);
+                }
+                if (b == '\r') {
+                    if (i < end && buf.get(i) == '\n') {
+                        i++;
+                    }
+                    b = mode == MODE_ATTRIBUTE ? ' ' : '\n';
+                } else
+                if (mode == MODE_ATTRIBUTE && (b == '\n' || b == '\t')) {
+                    b = ' ';
+                } else
+                if (mode != MODE_CDATA) {
+                    if (b == '<') {
+                        throw error("Unexpected '<' in attribute value", i - 1);
+                    }
+                    if (b == '&') {
+                        int semi = indexOf(buf, i, Math.min(end, i + 10), (byte)';');
+                        if (semi < 0) {
+                            throw error("Unterminated entity reference", i - 1);
+                        }
+                        int cp = entity(i, semi);
+                        i = semi + 1;
+                        if (cp >= 0x10000) {
+                            c[n++] = Character.highSurrogate(cp);
+                            c[n++] = Character.lowSurrogate(cp);
+                            whitespace = false;
+                            continue;
+                        }
+                        b = cp;
+                    }
+                }
+                c[n++] = (char)b;
+                if (b != ' ' && b != '\n' && b != '\t' && b != '\r') {
+                    whitespace = false;
+                }
+            } else {
+                int cp;
+                if ((b & 0xE0) == 0xC0) {
+                    cp = ((b & 0x1F) << 6) | continuation(i + 1, end);
+                    i += 2;
+                } else
+                if ((b & 0xF0) == 0xE0) {
+                    cp = ((b & 0x0F) << 12) | (continuation(i + 1, end) << 6) | continuation(i + 2, end);
+                    i += 3;
+                } else
+                if ((b & 0xF8) == 0xF0) {
+                    cp = ((b & 0x07) << 18) | (continuation(i + 1, end) << 12)
+                            | (continuation(i + 2, end) << 6) | continuation(i + 3, end);
+                    i += 4;
+                } else {
+                    throw error("Malformed UTF-8", i);
+                }
+                if (cp >= 0x10000) {
+                    c[n++] = Character.highSurrogate(cp);
+                    c[n++] = Character.lowSurrogate(cp);
+                } else {
+                    c[n++] = (char)cp;
+                }
+                whitespace = false;
+            }
+        }
+        if (whitespace && mode != MODE_ATTRIBUTE) {
+            return null;
+        }
+        return new String(c, 0, n);
+    }
+    /**
+     * Returns the payload bits of a UTF-8 continuation byte.
+     * @param i the index
+     * @param end the end index
+     * @return the 6 payload bits
+     * @throws XMLStreamException if the byte is missing or not a continuation byte
+     */
+    final int continuation(int i, int end) throws XMLStreamException {
+        if (i >= end) {
+            throw error("Truncated UTF-8 sequence", i);
+        }
+        int b = buf.get(i);
+        if ((b & 0xC0) != 0x80) {
+            throw error("Malformed UTF-8", i);
+        }
+        return b & 0x3F;
+    }
+    /**
+     * Resolves a predefined entity or character reference.
+     * @param start the index after the {@code &}
+     * @param end the index of the {@code ;}
+     * @return the code point
+     * @throws XMLStreamException if the entity is unknown
+     */
+    final int entity(int start, int end) throws XMLStreamException {
+        ByteBuffer buf = this.buf;
+        if (start < end && buf.get(start) == '#') {
+            int radix = 10;
+            int i = start + 1;
+            if (i < end && buf.get(i) == 'x') {
+                radix = 16;
+                i++;
+            }
+            if (i == end) {
+                throw error("Invalid character reference", start - 1);
+            }
+            int cp = 0;
+            for (; i < end; i++) {
+                int d = Character.digit(buf.get(i), radix);
+                if (d < 0 || cp > 0x10FFFF) {
+                    throw error("Invalid character reference", start - 1);
+                }
+                cp = cp * radix + d;
+            }
+            if (!isXmlChar(cp)) {
+                throw error("Invalid character reference", start - 1);
+            }
+            return cp;
+        }
+        int len = end - start;
+        if (len == 2 && buf.get(start + 1) == 't') {
+            if (buf.get(start) == 'l') {
+                return '<';
+            }
+            if (buf.get(start) == 'g') {
+                return '>';
+            }
+        } else
+        if (len == 3 && startsWith(buf, start, end, "amp")) {
+            return '&';
+        } else
+        if (len == 4) {
+            if (startsWith(buf, start, end, "quot")) {
+                return '"';
+            }
+            if (startsWith(buf, start, end, "apos")) {
+                return '\'';
+            }
+        }
+        throw error("Undeclared entity", start - 1);
+    }
+    /**
+     * Checks if the code point is allowed in XML 1.0 documents.
+     * @param cp the code point
+     * @return true if allowed
+     */
+    static boolean isXmlChar(int cp) {
+        if (cp < 0x20) {
+            return cp == '\t' || cp == '\n' || cp == '\r';
+        }
+        return cp <= 0xD7FF || (cp >= 0xE000 && cp <= 0xFFFD) || (cp >= 0x10000 && cp <= 0x10FFFF);
+    }
+    /**
+     * Finds the end of the element starting at the given index without building anything.
+     * Only the element structure is tracked; names and content are not checked. With a parser,
+     * the skipped elements count against its depth and element count limits.
+     * @param buf the input
+     * @param pos the index of the element's {@code <}
+     * @param end the end index
+     * @param parser the parser whose limits, depth and element count apply, null for none
+     * @return the index after the element or -1 if the element doesn't end before {@code end}
+     * @throws XLimitExceededException if the skipped elements exceed a limit
+     */
+    static int elementEnd(ByteBuffer buf, int pos, int end, XByteParser parser) throws XLimitExceededException {
+        int depth = 0;
+        int i = pos;
+        while (i < end) {
+            int lt = indexOf(buf, i, end, (byte)'<');
+            if (lt < 0 || lt + 1 >= end) {
+                return -1;
+            }
+            byte c = buf.get(lt + 1);
+            if (c == '/') {
+                int gt = indexOf(buf, lt + 2, end, (byte)'>');
+                if (gt < 0) {
+                    return -1;
+                }
+                i = gt + 1;
+                if (--depth == 0) {
+                    return i;
+                }
+            } else
+            if (c == '?') {
+                i = indexOf(buf, lt + 2, end, "?>");
+            } else
+            if (c == '!') {
+                if (startsWith(buf, lt, end, "<!--")) {
+                    i = indexOf(buf, lt + 4, end, "-->");
+                } else {
+                    i = indexOf(buf, lt + 2, end, "]]>");
+                }
+            } else {
+                int gt = tagEnd(buf, lt, end);
+                if (gt < 0) {
+                    return -1;
+                }
+                if (parser != null) {
+                    parser.skipped(depth, lt);
+                }
+                i = gt + 1;
+                if (buf.get(gt - 1) != '/') {
+                    depth++;
+                } else
+                if (depth == 0) {
+                    return i;
+                }
+            }
+            if (i < 0) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+    /**
+     * Counts an element skipped by {@link #elementEnd(ByteBuffer, int, int, XByteParser)}
+     * against the depth and element count limits.
+     * @param nesting the depth of the element within the skipped element
+     * @param pos the index of the element's {@code <}
+     * @throws XLimitExceededException if a limit is exceeded
+     */
+    final void skipped(int nesting, int pos) throws XLimitExceededException {
+        if ((long)depth + nesting >= limits.maxDepth) {
+            throw exceeded(XParserLimits.Limit.DEPTH, pos);
+        }
+        if (++elementCount > limits.maxElements) {
+            throw exceeded(XParserLimits.Limit.ELEMENTS, pos);
+        }
+    }
+    /**
+     * Finds the closing {@code >} of a start tag, skipping over the attribute values.
+     * @param buf the input
+     * @param pos the index of the tag's {@code <}
+     * @param end the end index
+     * @return the index of the {@code >} or -1 if not found
+     */
+    static int tagEnd(ByteBuffer buf, int pos, int end) {
+        byte quote = 0;
+        for (int i = pos + 1; i < end; i++) {
+            byte b = buf.get(i);
+            if (quote != 0) {
+                if (b == quote) {
+                    quote = 0;
+                }
+            } else
+            if (b == '"' || b == '\'') {
+                quote = b;
+            } else
+            if (b == '>') {
+                return i;
+            }
+        }
+        return -1;
+    }
+    /**
+     * Finds the first occurrence of an ASCII text.
+     * @param buf the input
+     * @param i the start index
+     * @param end the end index
+     * @param s the text
+     * @return the index after the text or -1 if not found
+     */
+    static int indexOf(ByteBuffer buf, int i, int end, String s) {
+        byte first = (byte)s.charAt(0);
+        for (;;) {
+            i = indexOf(buf, i, end, first);
+            if (i < 0) {
+                return -1;
+            }
+            if (startsWith(buf, i, end, s)) {
+                return i + s.length();
+            }
+            i++;
+        }
+    }
+    /**
+     * Builds element trees.
+     * @param <E> the element type
+     */
+    abstract static class TreeBuilder<E extends XElementBase> extends XByteParser {
+        /** The root element. */
+        E root;
+        /** The current element. */
+        E node;
+        /** The content builders of the open elements with more than one text run. */
+        StringBuilder[] builders = new StringBuilder[16];
+        /**
+         * Constructor, sets the name handling.
+         * @param symbols the symbol table
+         * @param namespaceAware process namespaces?
+         */
+        TreeBuilder(XSymbolTable symbols, boolean namespaceAware) {
+            super(symbols, namespaceAware);
+        }
+        /**
+         * Creates an element along with the attributes of the current start tag.
+         * @param name the element name
+         * @param uri the element namespace URI
+         * @return the new element
+         */
+        abstract E create(Name name, String uri);
+        /**
+         * Appends a child element.
+         * @param parent the parent element
+         * @param child the child element
+         */
+        abstract void append(E parent, E child);
+        /**
+         * Returns the parent of the element.
+         * @param e the element
+         * @return the parent element
+         */
+        abstract E parentOf(E e);
+        /**
+         * Moves the children of an element to the end of another element's children.
+         * @param from the source element
+         * @param to the target element
+         */
+        abstract void moveChildren(E from, E to);
+        @Override
+        void reset() {
+            super.reset();
+            root = null;
+            node = null;
+            Arrays.fill(builders, null);
+        }
+        @Override
+        final void startElement(Name name, String uri) {
+            E n = create(name, uri);
+            if (node != null) {
+                append(node, n);
+            } else {
+                root = n;
+            }
+            node = n;
+            if (depth > builders.length) {
+                builders = Arrays.copyOf(builders, depth * 2);
+            }
+        }
+        @Override
+        final void text(String text) throws XMLStreamException {
+            E n = node;
+            String c = n.content;
+            if (c == null) {
+                if (text.length() > limits.maxTextLength) {
+                    throw exceeded(XParserLimits.Limit.TEXT_LENGTH, textPos);
+                }
+                n.content = text;
+            } else {
+                StringBuilder b = builders[depth - 1];
+                int have = b != null ? b.length() : c.length();
+                if ((long)have + text.length() > limits.maxTextLength) {
+                    throw exceeded(XParserLimits.Limit.TEXT_LENGTH, textPos);
+                }
+                if (b == null) {
+                    b = new StringBuilder(c.length() + text.length());
+                    b.append(c);
+                    builders[depth - 1] = b;
+                }
+                b.append(text);
+            }
+        }
+        @Override
+        final void endElement() {
+            StringBuilder b = builders[depth - 1];
+            if (b != null) {
+                node.content = b.toString();
+                builders[depth - 1] = null;
+            }
+            node = parentOf(node);
+        }
+        /**
+         * Parses the content of an already open element: the child elements and text
+         * in the given range go into a new container element, which is returned.
+         * @param outer the parser which opened the element, providing the namespaces in scope
+         * @param buf the input
+         * @param start the start index
+         * @param end the end index
+         * @return the container element
+         * @throws XMLStreamException on error
+         */
+        final E parseContent(XByteParser outer, ByteBuffer buf, int start, int end) throws XMLStreamException {
+            Name name = outer.openNames[outer.depth - 1];
+            E container = create(name, null);
+            root = container;
+            node = container;
+            rootSeen = true;
+            openNames[0] = name;
+            nsPrefixes = Arrays.copyOf(outer.nsPrefixes, outer.nsPrefixes.length);
+            nsUris = Arrays.copyOf(outer.nsUris, outer.nsUris.length);
+            nsCount = outer.nsCount;
+            nsMarks[0] = nsCount;
+            depth = 1;
+            int pos = parse(buf, start, end, false);
+            if (pos < end) {
+                if (buf.get(pos) == '<') {
+                    throw error("Unexpected end of input", pos);
+                }
+                text(pos, end, true);
+            }
+            if (depth != 1) {
+                throw error("Unclosed element " + openNames[depth - 1].qname, end);
+            }
+            StringBuilder b = builders[0];
+            if (b != null) {
+                container.content = b.toString();
+            }
+            return container;
+        }
+    }
+    /**
+     * Builds XElement trees.
+     */
+    static final class ElementBuilder extends TreeBuilder<XElement> {
+        /** The arena to take the attribute maps and child lists from, null to allocate new ones. */
+        XParseArena arena;
+        /**
+         * Constructor, sets the name handling and the limits.
+         * @param symbols the symbol table
+         * @param context the parser context
+         */
+        ElementBuilder(XSymbolTable symbols, XParserContext context) {
+            super(symbols, context.namespaceAware);
+            limits = context.limits;
+        }
+        @Override
+        XElement create(Name name, String uri) {
+            XParseArena a = arena;
+            XElement n = a != null ? a.newElement(name.local) : new XElement(name.local);
+            for (int i = 0; i < attCount; i++) {
+                n.attributes.put(attNames[i].local, attValues[i]);
+            }
+            return n;
+        }
+        @Override
+        void append(XElement parent, XElement child) {
+            child.parent = parent;
+            parent.children.add(child);
+        }
+        @Override
+        XElement parentOf(XElement e) {
+            return e.parent;
+        }
+        @Override
+        void moveChildren(XElement from, XElement to) {
+            for (XElement c : from.children) {
+                c.parent = to;
+                to.children.add(c);
+            }
+            from.children.clear();
+        }
+    }
+    /**
+     * Builds XNElement trees.
+     */
+    static final class NElementBuilder extends TreeBuilder<XNElement> {
+        /**
+         * Constructor, sets the name handling and the limits.
+         * @param symbols the symbol table
+         * @param context the parser context
+         */
+        NElementBuilder(XSymbolTable symbols, XParserContext context) {
+            super(symbols, context.namespaceAware);
+            limits = context.limits;
+        }
+        @Override
+        XNElement create(Name name, String uri) {
+            XNElement n = new XNElement(name.local);
+            n.namespace = uri;
+            n.prefix = name.prefix;
+            putAttributes(n);
+            return n;
+        }
+        @Override
+        void append(XNElement parent, XNElement child) {
+            child.parent = parent;
+            parent.children.add(child);
+        }
+        @Override
+        XNElement parentOf(XNElement e) {
+            return e.parent;
+        }
+        @Override
+        void moveChildren(XNElement from, XNElement to) {
+            for (XNElement c : from.children) {
+                c.parent = to;
+                to.children.add(c);
+            }
+            from.children.clear();
+        }
+    }
+    /**
+     * Parses an XElement tree from the remaining bytes of the buffer.
+     * Doesn't change the buffer's position.
+     * @param buf the UTF-8 encoded document
+     * @param context the parser context
+     * @return the root element
+     * @throws XMLStreamException on error
+     */
+    static XElement parseElement(ByteBuffer buf, XParserContext context) throws XMLStreamException {
+        ElementBuilder b = new ElementBuilder(context.symbolTable(), context);
+        b.parseAll(buf, buf.position(), buf.limit());
+        return b.root;
+    }
+    /**
+     * Parses an XNElement tree from the remaining bytes of the buffer.
+     * Doesn't change the buffer's position.
+     * @param buf the UTF-8 encoded document
+     * @param context the parser context
+     * @return the root element
+     * @throws XMLStreamException on error
+     */
+    static XNElement parseNElement(ByteBuffer buf, XParserContext context) throws XMLStreamException {
+        NElementBuilder b = new NElementBuilder(context.symbolTable(), context);
+        b.parseAll(buf, buf.position(), buf.limit());
+        return b.root;
+    }
+    /** The initial size of the buffer a channel is read into. */
+    static final int CHANNEL_BUFFER = 64 * 1024;
+    /** The number of bytes read at most to find the end of the XML declaration. */
+    static final int PROLOG_LIMIT = 128;
+    /**
+     * Reads the first bytes of the channel into a new direct buffer, enough to detect
+     * the encoding with {@link #isUtf8(ByteBuffer, int, int)}: until the XML declaration
+     * is complete, the start rules out a declaration, {@link #PROLOG_LIMIT} bytes are read
+     * or the channel ends.
+     * @param ch the channel in blocking mode
+     * @return the buffer with the bytes read between its position and limit
+     * @throws IOException on error
+     */
+    static ByteBuffer readStart(ReadableByteChannel ch) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocateDirect(CHANNEL_BUFFER);
+        while (buf.position() < PROLOG_LIMIT && !isPrologRead(buf, buf.position())
+                && ch.read(buf) >= 0) {
+            // keep reading
+        }
+        buf.flip();
+        return buf;
+    }
+    /**
+     * Checks if the bytes read so far are enough for {@link #isUtf8(ByteBuffer, int, int)}.
+     * @param buf the input, starting at index 0
+     * @param end the number of bytes read
+     * @return true if the XML declaration is complete or the document doesn't start with one
+     */
+    static boolean isPrologRead(ByteBuffer buf, int end) {
+        if (end < 3) {
+            // may still be a byte order mark or the start of a declaration
+            return end == 2 && (buf.get(0) == 0 || buf.get(1) == 0 || (buf.get(0) & 0xFF) >= 0xFE);
+        }
+        int i = skipBom(buf, 0, end);
+        String decl = "<?xml";
+        for (int k = 0; k < decl.length(); k++) {
+            if (i + k == end) {
+                return false;
+            }
+            if (buf.get(i + k) != decl.charAt(k)) {
+                return true;
+            }
+        }
+        if (i + 5 == end) {
+            return false;
+        }
+        return !isWhitespace(buf.get(i + 5)) || indexOf(buf, i, end, (byte)'>') >= 0;
+    }
+    /**
+     * Parses the rest of the channel, reading it into the buffer chunk by chunk.
+     * The unparsed bytes of the last incomplete token are moved to the beginning of the buffer
+     * before the next read; the buffer grows only if a single token doesn't fit.
+     * @param <E> the element type
+     * @param b the tree builder
+     * @param ch the channel in blocking mode
+     * @param buf the first bytes of the channel, as returned by {@link #readStart(ReadableByteChannel)}
+     * @return the root element
+     * @throws IOException on IO error
+     * @throws XMLStreamException on parsing error
+     */
+    static <E extends XElementBase> E parseChannel(TreeBuilder<E> b, ReadableByteChannel ch, 
+            ByteBuffer buf) throws IOException, XMLStreamException {
+        int pos = skipBom(buf, 0, buf.limit());
+        boolean last = false;
+        for (;;) {
+            // fill the free space
+            buf.position(buf.limit());
+            buf.limit(buf.capacity());
+            while (buf.hasRemaining()) {
+                if (ch.read(buf) < 0) {
+                    last = true;
+                    break;
+                }
+            }
+            buf.flip();
+            int end = buf.limit();
+            pos = b.parse(buf, pos, end, last);
+            if (last) {
+                return b.root;
+            }
+            if (pos == 0 && end == buf.capacity()) {
+                long cap = buf.capacity() * 2L;
+                if (cap > MAX_SIZE) {
+                    throw b.error("Token too large", pos);
+                }
+                ByteBuffer nb = ByteBuffer.allocateDirect((int)cap);
+                nb.put(buf);
+                nb.flip();
+                buf = nb;
+            } else {
+                buf.position(pos);
+                buf.compact();
+                buf.flip();
+                b.offsetBase += pos;
+                pos = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,263 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+import java.util.*;
+
+/**
+ * A child element list which builds an index by element name on the first name based
+ * lookup once it has more than {@link #THRESHOLD} elements.
+ * <p>
+ * Appending keeps the index up to date; any other structural change drops it,
+ * and it is rebuilt by the next lookup.
+ * @param <E> the element type
+ */
+final class XChildList<E extends XElementBase> extends ArrayList<E> {
+    /** */
+    private static final long serialVersionUID = -5326315339453307171L;
+    /** The number of elements above which the lookups build and use the index. */
+    static final int THRESHOLD = 16;
+    /** The elements with the same name in document order. */
+    static final class Bucket {
+        /** The elements. */
+        Object[] items = new Object[4];
+        /** The number of elements. */
+        int count;
+        /**
+         * Appends an element.
+         * @param e the element
+         */
+        void add(Object e) {
+            int n = count;
+            if (n == items.length) {
+                items = Arrays.copyOf(items, n * 2);
+            }
+            items[n] = e;
+            count = n + 1;
+        }
+    }
+    /** The name index with the modification count it reflects. */
+    static final class Index {
+        /** The buckets by name. */
+        final Map<String, Bucket> buckets;
+        /** The modification count of the list the index reflects. */
+        int modCount;
+        /**
+         * Constructor, sets the fields.
+         * @param buckets the buckets by name
+         * @param modCount the modification count of the list
+         */
+        Index(Map<String, Bucket> buckets, int modCount) {
+            this.buckets = buckets;
+            this.modCount = modCount;
+        }
+    }
+    /**
+     * An unmodifiable view of the first elements of a bucket array.
+     * Later appends write past the view's size and reallocation creates a new array,
+     * so the view never changes.
+     * @param <E> the element type
+     */
+    static final class Snapshot<E> extends AbstractList<E> implements RandomAccess {
+        /** The elements. */
+        final Object[] items;
+        /** The number of elements. */
+        final int count;
+        /**
+         * Constructor, sets the fields.
+         * @param items the elements
+         * @param count the number of elements
+         */
+        Snapshot(Object[] items, int count) {
+            this.items = items;
+            this.count = count;
+        }
+        @SuppressWarnings("unchecked")
+        @Override
+        public E get(int index) {
+            if (index >= count) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + count);
+            }
+            return (E)items[index];
+        }
+        @Override
+        public int size() {
+            return count;
+        }
+    }
+    /** The name index, null if not built or dropped. */
+    transient volatile Index index;
+    /** Is the index usable? Cleared when a sublist view is handed out as its changes can't be tracked. */
+    boolean tracked = true;
+    /** Empties the list for reuse by another element. */
+    void recycle() {
+        clear();
+        index = null;
+        tracked = true;
+    }
+    /**
+     * Returns the up-to-date index, building it if necessary.
+     * @return the index or null if the list is small or not tracked
+     */
+    Index index() {
+        if (size() <= THRESHOLD || !tracked) {
+            return null;
+        }
+        Index idx = index;
+        if (idx == null || idx.modCount != modCount) {
+            Map<String, Bucket> buckets = new HashMap<>();
+            for (int i = 0; i < size(); i++) {
+                E e = get(i);
+                Bucket b = buckets.get(e.name);
+                if (b == null) {
+                    b = new Bucket();
+                    buckets.put(e.name, b);
+                }
+                b.add(e);
+            }
+            idx = new Index(buckets, modCount);
+            index = idx;
+        }
+        return idx;
+    }
+    /**
+     * Returns the index bucket of the given name.
+     * @param name the name
+     * @return the elements with the name, null if the list isn't indexed
+     */
+    List<E> bucket(String name) {
+        Index idx = index();
+        if (idx == null) {
+            return null;
+        }
+        Bucket b = idx.buckets.get(name);
+        if (b == null) {
+            return Collections.emptyList();
+        }
+        return new Snapshot<>(b.items, b.count);
+    }
+    /**
+     * Returns the elements which may have the given name: the index bucket if the list is indexed,
+     * otherwise the list itself.
+     * @param <E> the element type
+     * @param list the child list
+     * @param name the name
+     * @return the candidates in document order
+     */
+    static <E extends XElementBase> List<E> candidates(List<E> list, String name) {
+        if (list instanceof XChildList) {
+            List<E> b = ((XChildList<E>)list).bucket(name);
+            if (b != null) {
+                return b;
+            }
+        }
+        return list;
+    }
+    /**
+     * Returns the first element with the given name.
+     * @param <E> the element type
+     * @param list the child list
+     * @param name the name
+     * @return the element or null if not present
+     */
+    static <E extends XElementBase> E first(List<E> list, String name) {
+        for (E e : candidates(list, name)) {
+            if (e.name.equals(name)) {
+                return e;
+            }
+        }
+        return null;
+    }
+    /**
+     * Returns the elements with the given name as an unmodifiable list,
+     * which is a view of the index bucket if the list is indexed.
+     * @param <E> the element type
+     * @param list the child list
+     * @param name the name
+     * @return the elements
+     */
+    static <E extends XElementBase> List<E> withName(List<E> list, String name) {
+        if (list instanceof XChildList) {
+            List<E> b = ((XChildList<E>)list).bucket(name);
+            if (b != null) {
+                return b;
+            }
+        }
+        List<E> result = new ArrayList<>();
+        for (E e : list) {
+            if (e.name.equals(name)) {
+                result.add(e);
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+    /**
+     * Returns the elements with the given name and namespace as an unmodifiable list,
+     * which is a view of the index bucket if the list is indexed and all elements
+     * in the bucket have the namespace.
+     * @param list the child list
+     * @param name the name
+     * @param namespace the namespace URI
+     * @return the elements
+     */
+    static List<XNElement> withName(List<XNElement> list, String name, String namespace) {
+        List<XNElement> c = candidates(list, name);
+        if (c != list) {
+            boolean all = true;
+            for (XNElement e : c) {
+                if (!Objects.equals(e.namespace, namespace)) {
+                    all = false;
+                    break;
+                }
+            }
+            if (all) {
+                return c;
+            }
+        }
+        List<XNElement> result = new ArrayList<>();
+        for (XNElement e : c) {
+            if (e.name.equals(name) && Objects.equals(e.namespace, namespace)) {
+                result.add(e);
+            }
+        }
+        return Collections.unmodifiableList(result);
+    }
+    @Override
+    public boolean add(E e) {
+        Index idx = index;
+        boolean valid = idx != null && idx.modCount == modCount;
+        super.add(e);
+        if (valid) {
+            Bucket b = idx.buckets.get(e.name);
+            if (b == null) {
+                b = new Bucket();
+                idx.buckets.put(e.name, b);
+            }
+            b.add(e);
+            idx.modCount = modCount;
+        }
+        return true;
+    }
+    @Override
+    public E set(int index, E element) {
+        this.index = null;
+        return super.set(index, element);
+    }
+    @Override
+    public List<E> subList(int fromIndex, int toIndex) {
+        tracked = false;
+        this.index = null;
+        return super.subList(fromIndex, toIndex);
+    }
+}
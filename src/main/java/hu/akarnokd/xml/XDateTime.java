@@ -0,0 +1,201 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+import java.time.*;
+import java.time.temporal.TemporalAccessor;
+
+/**
+ * Parses and formats the {@code uuuu-MM-dd'T'HH:mm:ss[xxx]} timestamps
+ * on fixed character positions.
+ * <p>
+ * Only four digit years, valid dates and times and offsets of whole minutes
+ * within &plusmn;18:00 are handled here; everything else, including the inputs
+ * the formatter would adjust or reject, goes to
+ * {@link XElementBase#DATE_TIME_OPTIONAL_OFFSET} so the results stay the same.
+ */
+final class XDateTime {
+    /** The length of a timestamp without offset. */
+    static final int LOCAL_LENGTH = 19;
+    /** The length of a timestamp with offset. */
+    static final int OFFSET_LENGTH = 25;
+    /** Utility class. */
+    private XDateTime() {
+        throw new IllegalStateException("No instances!");
+    }
+    /**
+     * Parse the timestamp; a missing offset means UTC.
+     * @param s the text, not null
+     * @return the timestamp
+     * @throws java.time.format.DateTimeParseException if the text is not a valid timestamp
+     */
+    static OffsetDateTime parse(String s) {
+        OffsetDateTime r = parseFast(s);
+        if (r != null) {
+            return r;
+        }
+        return XElementBase.DATE_TIME_OPTIONAL_OFFSET.withZone(ZoneOffset.UTC).parse(s, OffsetDateTime::from);
+    }
+    /**
+     * Parse the timestamp if it is in the common form.
+     * @param s the text
+     * @return the timestamp or null if the formatter has to decide
+     */
+    static OffsetDateTime parseFast(String s) {
+        int len = s.length();
+        if (len != LOCAL_LENGTH && len != OFFSET_LENGTH) {
+            return null;
+        }
+        if (s.charAt(4) != '-' || s.charAt(7) != '-' || s.charAt(10) != 'T'
+                || s.charAt(13) != ':' || s.charAt(16) != ':') {
+            return null;
+        }
+        int year = digits4(s, 0);
+        int month = digits2(s, 5);
+        int day = digits2(s, 8);
+        int hour = digits2(s, 11);
+        int minute = digits2(s, 14);
+        int second = digits2(s, 17);
+        if ((year | month | day | hour | minute | second) < 0) {
+            return null;
+        }
+        // the formatter moves day 31 of short months and 24:00 instead of rejecting them
+        if (month < 1 || month > 12 || day < 1 || day > monthLength(year, month)
+                || hour > 23 || minute > 59 || second > 59) {
+            return null;
+        }
+        ZoneOffset offset = ZoneOffset.UTC;
+        if (len == OFFSET_LENGTH) {
+            char sign = s.charAt(19);
+            if ((sign != '+' && sign != '-') || s.charAt(22) != ':') {
+                return null;
+            }
+            int oh = digits2(s, 20);
+            int om = digits2(s, 23);
+            if ((oh | om) < 0 || om > 59 || oh > 18 || (oh == 18 && om != 0)) {
+                return null;
+            }
+            int total = oh * 3600 + om * 60;
+            offset = ZoneOffset.ofTotalSeconds(sign == '-' ? -total : total);
+        }
+        return OffsetDateTime.of(year, month, day, hour, minute, second, 0, offset);
+    }
+    /**
+     * Format the temporal, leaving out the fraction of seconds and the seconds of the offset.
+     * @param temporal the temporal
+     * @return the text
+     * @throws java.time.DateTimeException if the temporal has no date and time
+     */
+    static String format(TemporalAccessor temporal) {
+        LocalDateTime local;
+        ZoneOffset offset;
+        if (temporal instanceof OffsetDateTime) {
+            OffsetDateTime odt = (OffsetDateTime)temporal;
+            local = odt.toLocalDateTime();
+            offset = odt.getOffset();
+        } else
+        if (temporal instanceof ZonedDateTime) {
+            ZonedDateTime zdt = (ZonedDateTime)temporal;
+            local = zdt.toLocalDateTime();
+            offset = zdt.getOffset();
+        } else
+        if (temporal instanceof LocalDateTime) {
+            local = (LocalDateTime)temporal;
+            offset = null;
+        } else {
+            return XElementBase.DATE_TIME_OPTIONAL_OFFSET.format(temporal);
+        }
+        int year = local.getYear();
+        if (year < 0 || year > 9999) {
+            // the formatter adds the sign
+            return XElementBase.DATE_TIME_OPTIONAL_OFFSET.format(temporal);
+        }
+        char[] c = new char[offset != null ? OFFSET_LENGTH : LOCAL_LENGTH];
+        put2(c, 0, year / 100);
+        put2(c, 2, year % 100);
+        c[4] = '-';
+        put2(c, 5, local.getMonthValue());
+        c[7] = '-';
+        put2(c, 8, local.getDayOfMonth());
+        c[10] = 'T';
+        put2(c, 11, local.getHour());
+        c[13] = ':';
+        put2(c, 14, local.getMinute());
+        c[16] = ':';
+        put2(c, 17, local.getSecond());
+        if (offset != null) {
+            int total = offset.getTotalSeconds();
+            int abs = Math.abs(total);
+            int oh = abs / 3600;
+            int om = abs / 60 % 60;
+            // an offset of less than a minute west is printed as +00:00
+            c[19] = total < 0 && (oh | om) != 0 ? '-' : '+';
+            put2(c, 20, oh);
+            c[22] = ':';
+            put2(c, 23, om);
+        }
+        return new String(c);
+    }
+    /**
+     * Returns the number of days in the month.
+     * @param year the year
+     * @param month the month, 1 to 12
+     * @return the number of days
+     */
+    static int monthLength(int year, int month) {
+        if (month == 2) {
+            return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0) ? 29 : 28;
+        }
+        // April, June, September, November
+        return month == 4 || month == 6 || month == 9 || month == 11 ? 30 : 31;
+    }
+    /**
+     * Returns the value of two ASCII digits.
+     * @param s the text
+     * @param i the index of the first digit
+     * @return the value or a negative number if not digits
+     */
+    static int digits2(String s, int i) {
+        int a = s.charAt(i) - '0';
+        int b = s.charAt(i + 1) - '0';
+        if (a < 0 || a > 9 || b < 0 || b > 9) {
+            return -1;
+        }
+        return a * 10 + b;
+    }
+    /**
+     * Returns the value of four ASCII digits.
+     * @param s the text
+     * @param i the index of the first digit
+     * @return the value or a negative number if not digits
+     */
+    static int digits4(String s, int i) {
+        int a = digits2(s, i);
+        int b = digits2(s, i + 2);
+        if ((a | b) < 0) {
+            return -1;
+        }
+        return a * 100 + b;
+    }
+    /**
+     * Stores a value as two digits.
+     * @param c the target
+     * @param i the index of the first digit
+     * @param v the value, 0 to 99
+     */
+    static void put2(char[] c, int i, int v) {
+        c[i] = (char)('0' + v / 10);
+        c[i + 1] = (char)('0' + v % 10);
+    }
+}
@@ -0,0 +1,971 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+import java.io.*;
+import java.util.*;
+
+import javax.xml.stream.*;
+
+/**
+ * A read-only XML tree stored in columns of primitive arrays instead of one object per element.
+ * <p>
+ * The elements are numbered in document order, the root being {@code 0}. For each element,
+ * the arrays hold the id of its local name, namespace and prefix combination, the parent,
+ * first child and next sibling indexes, the content's offset and length in the shared
+ * text buffer and the index of the first attribute. The attribute columns are organized
+ * the same way. The strings of the names, content and attribute values are created on demand.
+ * <p>
+ * The tree can be navigated through the index based methods or a {@link Cursor}, and converted
+ * to and from XElement and XNElement trees. The instances can be shared between threads.
+ */
+public final class XDocument {
+    /** The index of a missing element or string. */
+    public static final int NONE = -1;
+    /** The local names by name id. */
+    final String[] localNames;
+    /** The namespace URIs by name id. */
+    final String[] namespaceUris;
+    /** The prefixes by name id. */
+    final String[] namePrefixes;
+    /** The number of elements. */
+    final int size;
+    /** The name ids. */
+    final int[] names;
+    /** The parent indexes. */
+    final int[] parents;
+    /** The first child indexes. */
+    final int[] firstChildren;
+    /** The next sibling indexes. */
+    final int[] nextSiblings;
+    /** The content offsets in the text buffer, {@link #NONE} for no content. */
+    final int[] contentStarts;
+    /** The content lengths. */
+    final int[] contentLengths;
+    /** The index of the first attribute of each element, with an extra entry for the end. */
+    final int[] attributeStarts;
+    /** The attribute name ids. */
+    final int[] attributeNames;
+    /** The attribute value offsets in the text buffer. */
+    final int[] valueStarts;
+    /** The attribute value lengths. */
+    final int[] valueLengths;
+    /** The text buffer of the content and attribute values. */
+    final char[] text;
+    /**
+     * Constructor, takes over the trimmed columns of the builder.
+     * @param b the builder
+     */
+    XDocument(Builder b) {
+        int n = b.size;
+        int a = b.attributeCount;
+        int q = b.nameCount;
+        this.localNames = Arrays.copyOf(b.localNames, q);
+        this.namespaceUris = Arrays.copyOf(b.namespaceUris, q);
+        this.namePrefixes = Arrays.copyOf(b.namePrefixes, q);
+        this.size = n;
+        this.names = Arrays.copyOf(b.names, n);
+        this.parents = Arrays.copyOf(b.parents, n);
+        this.firstChildren = Arrays.copyOf(b.firstChildren, n);
+        this.nextSiblings = Arrays.copyOf(b.nextSiblings, n);
+        this.contentStarts = Arrays.copyOf(b.contentStarts, n);
+        this.contentLengths = Arrays.copyOf(b.contentLengths, n);
+        this.attributeStarts = Arrays.copyOf(b.attributeStarts, n + 1);
+        this.attributeStarts[n] = a;
+        this.attributeNames = Arrays.copyOf(b.attributeNames, a);
+        this.valueStarts = Arrays.copyOf(b.valueStarts, a);
+        this.valueLengths = Arrays.copyOf(b.valueLengths, a);
+        this.text = Arrays.copyOf(b.text, b.textLength);
+    }
+    /**
+     * Parse an XML document from the given file.
+     * @param file the file
+     * @return the document
+     * @throws IOException if the file could not be found or other I/O error occurs
+     * @throws XMLStreamException if an error occurs
+     */
+    public static XDocument parseXML(File file) throws IOException, XMLStreamException {
+        return parseXML(file, XParserContext.DEFAULT);
+    }
+    /**
+     * Parse an XML document from the given file.
+     * @param file the file
+     * @param context the parser context
+     * @return the document
+     * @throws IOException if the file could not be found or other I/O error occurs
+     * @throws XMLStreamException if an error occurs
+     */
+    public static XDocument parseXML(File file, XParserContext context) throws IOException, XMLStreamException {
+        try (InputStream in = context.openFile(file)) {
+            return parseXML(in, context);
+        }
+    }
+    /**
+     * Parse an XML document from the given input stream. Does not close the stream.
+     * @param in the input stream
+     * @return the document
+     * @throws XMLStreamException if an error occurs
+     */
+    public static XDocument parseXML(InputStream in) throws XMLStreamException {
+        return parseXML(in, XParserContext.DEFAULT);
+    }
+    /**
+     * Parse an XML document from the given input stream. Does not close the stream.
+     * @param in the input stream
+     * @param context the parser context
+     * @return the document
+     * @throws XMLStreamException if an error occurs
+     */
+    public static XDocument parseXML(InputStream in, XParserContext context) throws XMLStreamException {
+        return parseXML(context.createXMLStreamReader(in));
+    }
+    /**
+     * Parse an XML document from the given XML stream reader.
+     * Closes the {@code in} stream.
+     * @param in the XMLStreamReader
+     * @return the document
+     * @throws XMLStreamException if an error occurs
+     */
+    public static XDocument parseXML(XMLStreamReader in) throws XMLStreamException {
+        Builder b = new Builder();
+        int depth = 0;
+        while (in.hasNext()) {
+            int type = in.next();
+            switch (type) {
+            case XMLStreamConstants.START_ELEMENT:
+                b.start(in.getLocalName(), in.getNamespaceURI(), in.getPrefix());
+                int attCount = in.getAttributeCount();
+                for (int i = 0; i < attCount; i++) {
+                    b.attribute(in.getAttributeLocalName(i), in.getAttributeNamespace(i),
+                            in.getAttributePrefix(i), in.getAttributeValue(i));
+                }
+                depth++;
+                break;
+            case XMLStreamConstants.CDATA:
+            case XMLStreamConstants.CHARACTERS:
+                if (depth > 0 && !in.isWhiteSpace()) {
+                    b.text(in.getTextCharacters(), in.getTextStart(), in.getTextLength());
+                }
+                break;
+            case XMLStreamConstants.END_ELEMENT:
+                depth--;
+                b.end();
+                break;
+            default:
+                // ignore others.
+            }
+        }
+        in.close();
+        if (b.size == 0) {
+            throw new XMLStreamException("No root element");
+        }
+        return new XDocument(b);
+    }
+    /**
+     * Creates a document from the given XElement tree.
+     * @param root the root element
+     * @return the document
+     */
+    public static XDocument from(XElement root) {
+        Builder b = new Builder();
+        add(b, root);
+        return new XDocument(b);
+    }
+    /**
+     * Adds the element and its subtree to the builder.
+     * @param b the builder
+     * @param e the element
+     */
+    static void add(Builder b, XElement e) {
+        b.start(e.name, null, null);
+        for (Map.Entry<String, String> a : e.attributes().entrySet()) {
+            b.attribute(a.getKey(), null, null, a.getValue());
+        }
+        if (e.content != null) {
+            b.content(e.content);
+        }
+        for (XElement c : e.children()) {
+            add(b, c);
+        }
+        b.end();
+    }
+    /**
+     * Creates a document from the given XNElement tree.
+     * @param root the root element
+     * @return the document
+     */
+    public static XDocument from(XNElement root) {
+        Builder b = new Builder();
+        add(b, root);
+        return new XDocument(b);
+    }
+    /**
+     * Adds the element and its subtree to the builder.
+     * @param b the builder
+     * @param e the element
+     */
+    static void add(Builder b, XNElement e) {
+        b.start(e.name, e.namespace, e.prefix);
+        for (Map.Entry<XNElement.XAttributeName, String> a : e.attributes().entrySet()) {
+            XNElement.XAttributeName an = a.getKey();
+            b.attribute(an.name, an.namespace, an.prefix, a.getValue());
+        }
+        if (e.content != null) {
+            b.content(e.content);
+        }
+        for (XNElement c : e.children()) {
+            add(b, c);
+        }
+        b.end();
+    }
+    /** @return the number of elements */
+    public int size() {
+        return size;
+    }
+    /** @return the total number of attributes */
+    public int attributeCount() {
+        return attributeNames.length;
+    }
+    /** @return the index of the root element */
+    public int root() {
+        return 0;
+    }
+    /** @return a cursor positioned on the root element */
+    public Cursor cursor() {
+        return new Cursor(0);
+    }
+    /**
+     * Returns the local name of the element.
+     * @param node the element index
+     * @return the local name
+     */
+    public String name(int node) {
+        return localNames[names[node]];
+    }
+    /**
+     * Returns the namespace URI of the element.
+     * @param node the element index
+     * @return the namespace URI or null
+     */
+    public String namespace(int node) {
+        return namespaceUris[names[node]];
+    }
+    /**
+     * Returns the prefix of the element.
+     * @param node the element index
+     * @return the prefix or null
+     */
+    public String prefix(int node) {
+        return namePrefixes[names[node]];
+    }
+    /**
+     * Returns the parent of the element.
+     * @param node the element index
+     * @return the parent index or {@link #NONE} for the root
+     */
+    public int parent(int node) {
+        return parents[node];
+    }
+    /**
+     * Returns the first child of the element.
+     * @param node the element index
+     * @return the child index or {@link #NONE}
+     */
+    public int firstChild(int node) {
+        return firstChildren[node];
+    }
+    /**
+     * Returns the next sibling of the element.
+     * @param node the element index
+     * @return the sibling index or {@link #NONE}
+     */
+    public int nextSibling(int node) {
+        return nextSiblings[node];
+    }
+    /**
+     * Returns the first child of the element with the given local name.
+     * @param node the element index
+     * @param name the child name
+     * @return the child index or {@link #NONE}
+     */
+    public int childElement(int node, String name) {
+        for (int c = firstChildren[node]; c != NONE; c = nextSiblings[c]) {
+            if (localNames[names[c]].equals(name)) {
+                return c;
+            }
+        }
+        return NONE;
+    }
+    /**
+     * Returns the content of the element.
+     * @param node the element index
+     * @return the content or null
+     */
+    public String content(int node) {
+        int start = contentStarts[node];
+        return start != NONE ? new String(text, start, contentLengths[node]) : null;
+    }
+    /**
+     * Returns the content of the element as a view of the text buffer,
+     * without copying the characters.
+     * @param node the element index
+     * @return the content or null
+     */
+    public CharSequence contentView(int node) {
+        int start = contentStarts[node];
+        return start != NONE ? new Slice(text, start, contentLengths[node]) : null;
+    }
+    /**
+     * Returns the content of the element parsed as an integer, without creating a string.
+     * @param node the element index
+     * @return the value
+     * @throws IllegalArgumentException if the element has no content
+     * @throws NumberFormatException if the content is not an integer
+     */
+    public int intValue(int node) {
+        return (int)parseLong(node, Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+    /**
+     * Returns the content of the element parsed as a long, without creating a string.
+     * @param node the element index
+     * @return the value
+     * @throws IllegalArgumentException if the element has no content
+     * @throws NumberFormatException if the content is not a long
+     */
+    public long longValue(int node) {
+        return parseLong(node, Long.MIN_VALUE, Long.MAX_VALUE);
+    }
+    /**
+     * Returns the content of the element parsed as a double.
+     * @param node the element index
+     * @return the value
+     * @throws IllegalArgumentException if the element has no content
+     * @throws NumberFormatException if the content is not a double
+     */
+    public double doubleValue(int node) {
+        String s = content(node);
+        if (s == null) {
+            throw new IllegalArgumentException("No content: " + name(node));
+        }
+        return Double.parseDouble(s);
+    }
+    /**
+     * Parses the content of the element as a decimal number in the given range
+     * with the rules of {@link Long#parseLong(String)}.
+     * @param node the element index
+     * @param min the minimum value
+     * @param max the maximum value
+     * @return the value
+     */
+    long parseLong(int node, long min, long max) {
+        int start = contentStarts[node];
+        if (start == NONE) {
+            throw new IllegalArgumentException("No content: " + name(node));
+        }
+        char[] c = text;
+        int i = start;
+        int end = start + contentLengths[node];
+        boolean negative = false;
+        if (i < end && (c[i] == '-' || c[i] == '+')) {
+            negative = c[i] == '-';
+            i++;
+        }
+        if (i == end) {
+            throw new NumberFormatException("For input string: \"" + content(node) + "\"");
+        }
+        // accumulate negatively so the minimum value fits
+        long limit = negative ? min : -max;
+        long multmin = limit / 10;
+        long result = 0;
+        for (; i < end; i++) {
+            int d = Character.digit(c[i], 10);
+            if (d < 0 || result < multmin) {
+                throw new NumberFormatException("For input string: \"" + content(node) + "\"");
+            }
+            result *= 10;
+            if (result < limit + d) {
+                throw new NumberFormatException("For input string: \"" + content(node) + "\"");
+            }
+            result -= d;
+        }
+        return negative ? result : -result;
+    }
+    /**
+     * Returns the number of attributes of the element.
+     * @param node the element index
+     * @return the number of attributes
+     */
+    public int attributeCount(int node) {
+        return attributeStarts[node + 1] - attributeStarts[node];
+    }
+    /**
+     * Returns the local name of an attribute.
+     * @param node the element index
+     * @param index the attribute index within the element
+     * @return the local name
+     */
+    public String attributeName(int node, int index) {
+        return localNames[attributeNames[attributeStarts[node] + index]];
+    }
+    /**
+     * Returns the namespace URI of an attribute.
+     * @param node the element index
+     * @param index the attribute index within the element
+     * @return the namespace URI or null
+     */
+    public String attributeNamespace(int node, int index) {
+        return namespaceUris[attributeNames[attributeStarts[node] + index]];
+    }
+    /**
+     * Returns the prefix of an attribute.
+     * @param node the element index
+     * @param index the attribute index within the element
+     * @return the prefix or null
+     */
+    public String attributePrefix(int node, int index) {
+        return namePrefixes[attributeNames[attributeStarts[node] + index]];
+    }
+    /**
+     * Returns the value of an attribute.
+     * @param node the element index
+     * @param index the attribute index within the element
+     * @return the value
+     */
+    public String attributeValue(int node, int index) {
+        int i = attributeStarts[node] + index;
+        return new String(text, valueStarts[i], valueLengths[i]);
+    }
+    /**
+     * Returns the value of the first attribute with the given local name.
+     * @param node the element index
+     * @param name the attribute name
+     * @return the value or null if not present
+     */
+    public String get(int node, String name) {
+        for (int i = attributeStarts[node]; i < attributeStarts[node + 1]; i++) {
+            if (localNames[attributeNames[i]].equals(name)) {
+                return new String(text, valueStarts[i], valueLengths[i]);
+            }
+        }
+        return null;
+    }
+    /**
+     * Returns the index after the last element of the subtree.
+     * @param node the subtree root
+     * @return the end index
+     */
+    int subtreeEnd(int node) {
+        for (int n = node; n != NONE; n = parents[n]) {
+            int s = nextSiblings[n];
+            if (s != NONE) {
+                return s;
+            }
+        }
+        return size;
+    }
+    /** @return the root converted to an XElement tree */
+    public XElement toXElement() {
+        return toXElement(0);
+    }
+    /**
+     * Converts the subtree of the element into an XElement tree.
+     * @param node the element index
+     * @return the XElement tree
+     */
+    public XElement toXElement(int node) {
+        int end = subtreeEnd(node);
+        XElement[] elements = new XElement[end - node];
+        for (int n = node; n < end; n++) {
+            XElement e = new XElement(name(n));
+            e.content = content(n);
+            for (int i = attributeStarts[n]; i < attributeStarts[n + 1]; i++) {
+                e.attributes.put(localNames[attributeNames[i]], new String(text, valueStarts[i], valueLengths[i]));
+            }
+            elements[n - node] = e;
+            if (n != node) {
+                XElement p = elements[parents[n] - node];
+                e.parent = p;
+                p.children.add(e);
+            }
+        }
+        return elements[0];
+    }
+    /** @return the root converted to an XNElement tree */
+    public XNElement toXNElement() {
+        return toXNElement(0);
+    }
+    /**
+     * Converts the subtree of the element into an XNElement tree.
+     * @param node the element index
+     * @return the XNElement tree
+     */
+    public XNElement toXNElement(int node) {
+        int end = subtreeEnd(node);
+        XNElement[] elements = new XNElement[end - node];
+        for (int n = node; n < end; n++) {
+            XNElement e = new XNElement(name(n));
+            e.namespace = namespace(n);
+            e.prefix = prefix(n);
+            e.content = content(n);
+            for (int i = attributeStarts[n]; i < attributeStarts[n + 1]; i++) {
+                int an = attributeNames[i];
+                e.attributes.put(new XNElement.XAttributeName(localNames[an], namespaceUris[an], namePrefixes[an]),
+                        new String(text, valueStarts[i], valueLengths[i]));
+            }
+            elements[n - node] = e;
+            if (n != node) {
+                XNElement p = elements[parents[n] - node];
+                e.parent = p;
+                p.children.add(e);
+            }
+        }
+        return elements[0];
+    }
+    /**
+     * A movable position in the document. Not thread-safe, but
+     * any number of cursors can be used on the same document.
+     */
+    public final class Cursor {
+        /** The current element index. */
+        int node;
+        /**
+         * Constructor, sets the position.
+         * @param node the element index
+         */
+        Cursor(int node) {
+            this.node = node;
+        }
+        /** @return the current element index */
+        public int node() {
+            return node;
+        }
+        /**
+         * Moves to the given element.
+         * @param node the element index
+         * @return this
+         */
+        public Cursor moveTo(int node) {
+            if (node < 0 || node >= size) {
+                throw new IndexOutOfBoundsException("node: " + node);
+            }
+            this.node = node;
+            return this;
+        }
+        /**
+         * Moves to the parent element if there is one.
+         * @return true if moved
+         */
+        public boolean parent() {
+            return move(parents[node]);
+        }
+        /**
+         * Moves to the first child element if there is one.
+         * @return true if moved
+         */
+        public boolean firstChild() {
+            return move(firstChildren[node]);
+        }
+        /**
+         * Moves to the next sibling element if there is one.
+         * @return true if moved
+         */
+        public boolean nextSibling() {
+            return move(nextSiblings[node]);
+        }
+        /**
+         * Moves to the first child element with the given name if there is one.
+         * @param name the child name
+         * @return true if moved
+         */
+        public boolean childElement(String name) {
+            return move(XDocument.this.childElement(node, name));
+        }
+        /**
+         * Moves to the given element if it exists.
+         * @param n the element index or {@link #NONE}
+         * @return true if moved
+         */
+        boolean move(int n) {
+            if (n != NONE) {
+                node = n;
+                return true;
+            }
+            return false;
+        }
+        /** @return the local name of the current element */
+        public String name() {
+            return XDocument.this.name(node);
+        }
+        /** @return the namespace URI of the current element or null */
+        public String namespace() {
+            return XDocument.this.namespace(node);
+        }
+        /** @return the prefix of the current element or null */
+        public String prefix() {
+            return XDocument.this.prefix(node);
+        }
+        /** @return the content of the current element or null */
+        public String content() {
+            return XDocument.this.content(node);
+        }
+        /** @return the content of the current element as a view of the text buffer or null */
+        public CharSequence contentView() {
+            return XDocument.this.contentView(node);
+        }
+        /** @return the content of the current element parsed as an integer */
+        public int intValue() {
+            return XDocument.this.intValue(node);
+        }
+        /** @return the content of the current element parsed as a long */
+        public long longValue() {
+            return XDocument.this.longValue(node);
+        }
+        /** @return the content of the current element parsed as a double */
+        public double doubleValue() {
+            return XDocument.this.doubleValue(node);
+        }
+        /** @return the number of attributes of the current element */
+        public int attributeCount() {
+            return XDocument.this.attributeCount(node);
+        }
+        /**
+         * Returns the local name of an attribute of the current element.
+         * @param index the attribute index
+         * @return the local name
+         */
+        public String attributeName(int index) {
+            return XDocument.this.attributeName(node, index);
+        }
+        /**
+         * Returns the value of an attribute of the current element.
+         * @param index the attribute index
+         * @return the value
+         */
+        public String attributeValue(int index) {
+            return XDocument.this.attributeValue(node, index);
+        }
+        /**
+         * Returns the value of the first attribute of the current element with the given local name.
+         * @param name the attribute name
+         * @return the value or null if not present
+         */
+        public String get(String name) {
+            return XDocument.this.get(node, name);
+        }
+        /** @return the subtree of the current element as an XElement tree */
+        public XElement toXElement() {
+            return XDocument.this.toXElement(node);
+        }
+        /** @return the subtree of the current element as an XNElement tree */
+        public XNElement toXNElement() {
+            return XDocument.this.toXNElement(node);
+        }
+    }
+    /** A read-only view of a range of the text buffer. */
+    static final class Slice implements CharSequence {
+        /** The characters. */
+        final char[] chars;
+        /** The start offset. */
+        final int start;
+        /** The number of characters. */
+        final int length;
+        /**
+         * Constructor, sets the range.
+         * @param chars the characters
+         * @param start the start offset
+         * @param length the number of characters
+         */
+        Slice(char[] chars, int start, int length) {
+            this.chars = chars;
+            this.start = start;
+            this.length = length;
+        }
+        @Override
+        public int length() {
+            return length;
+        }
+        @Override
+        public char charAt(int index) {
+            if (index < 0 || index >= length) {
+                throw new IndexOutOfBoundsException("Index: " + index + ", Length: " + length);
+            }
+            return chars[start + index];
+        }
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            if (from < 0 || to > length || from > to) {
+                throw new IndexOutOfBoundsException("Range: " + from + ".." + to + ", Length: " + length);
+            }
+            return new Slice(chars, start + from, to - from);
+        }
+        @Override
+        public String toString() {
+            return new String(chars, start, length);
+        }
+    }
+    /** Builds the columns in document order. */
+    static final class Builder {
+        /** The name ids by local name, the first entry being the count. */
+        final Map<String, int[]> nameIds = new HashMap<>();
+        /** The local names by name id. */
+        String[] localNames = new String[64];
+        /** The namespace URIs by name id. */
+        String[] namespaceUris = new String[64];
+        /** The prefixes by name id. */
+        String[] namePrefixes = new String[64];
+        /** The number of name ids. */
+        int nameCount;
+        /** The number of elements. */
+        int size;
+        /** The name ids. */
+        int[] names = new int[256];
+        /** The parent indexes. */
+        int[] parents = new int[256];
+        /** The first child indexes. */
+        int[] firstChildren = new int[256];
+        /** The next sibling indexes. */
+        int[] nextSiblings = new int[256];
+        /** The content offsets. */
+        int[] contentStarts = new int[256];
+        /** The content lengths. */
+        int[] contentLengths = new int[256];
+        /** The first attribute indexes. */
+        int[] attributeStarts = new int[257];
+        /** The number of attributes. */
+        int attributeCount;
+        /** The attribute name ids. */
+        int[] attributeNames = new int[256];
+        /** The attribute value offsets. */
+        int[] valueStarts = new int[256];
+        /** The attribute value lengths. */
+        int[] valueLengths = new int[256];
+        /** The text buffer. */
+        char[] text = new char[4096];
+        /** The used length of the text buffer. */
+        int textLength;
+        /** The open elements. */
+        int[] open = new int[16];
+        /** The last child of the open elements. */
+        int[] lastChildren = new int[16];
+        /** The mixed content runs of the open elements, reused per depth. */
+        StringBuilder[] scratch = new StringBuilder[16];
+        /** Whether the content of the open element is being collected in its scratch buffer. */
+        boolean[] mixed = new boolean[16];
+        /** The number of open elements. */
+        int depth;
+        /**
+         * Returns the id of the name.
+         * @param name the local name
+         * @param namespace the namespace URI or null
+         * @param prefix the prefix or null
+         * @return the id
+         */
+        int id(String name, String namespace, String prefix) {
+            int[] ids = nameIds.get(name);
+            if (ids != null) {
+                for (int i = 1; i <= ids[0]; i++) {
+                    int id = ids[i];
+                    if (Objects.equals(namespaceUris[id], namespace) && Objects.equals(namePrefixes[id], prefix)) {
+                        return id;
+                    }
+                }
+            } else {
+                ids = new int[2];
+            }
+            int id = nameCount;
+            if (id == localNames.length) {
+                localNames = Arrays.copyOf(localNames, id * 2);
+                namespaceUris = Arrays.copyOf(namespaceUris, id * 2);
+                namePrefixes = Arrays.copyOf(namePrefixes, id * 2);
+            }
+            localNames[id] = name;
+            namespaceUris[id] = namespace;
+            namePrefixes[id] = prefix;
+            nameCount = id + 1;
+            int c = ids[0] + 1;
+            if (c == ids.length) {
+                ids = Arrays.copyOf(ids, c * 2);
+            }
+            ids[c] = id;
+            ids[0] = c;
+            nameIds.put(name, ids);
+            return id;
+        }
+        /**
+         * Appends to the text buffer.
+         * @param s the text
+         * @return the offset of the text
+         */
+        int append(String s) {
+            int len = s.length();
+            int start = reserve(len);
+            s.getChars(0, len, text, start);
+            return start;
+        }
+        /**
+         * Reserves space at the end of the text buffer.
+         * @param len the number of characters
+         * @return the offset of the reserved space
+         */
+        int reserve(int len) {
+            int start = textLength;
+            if (text.length - start < len) {
+                long cap = Math.max(text.length * 2L, (long)start + len);
+                if (cap > XByteParser.MAX_SIZE) {
+                    throw new IllegalStateException("Text buffer overflow");
+                }
+                text = Arrays.copyOf(text, (int)cap);
+            }
+            textLength = start + len;
+            return start;
+        }
+        /**
+         * Starts a new element as the last child of the current element.
+         * @param name the local name
+         * @param namespace the namespace URI or null
+         * @param prefix the prefix or null
+         */
+        void start(String name, String namespace, String prefix) {
+            int n = size;
+            if (n == names.length) {
+                int cap = n * 2;
+                names = Arrays.copyOf(names, cap);
+                parents = Arrays.copyOf(parents, cap);
+                firstChildren = Arrays.copyOf(firstChildren, cap);
+                nextSiblings = Arrays.copyOf(nextSiblings, cap);
+                contentStarts = Arrays.copyOf(contentStarts, cap);
+                contentLengths = Arrays.copyOf(contentLengths, cap);
+                attributeStarts = Arrays.copyOf(attributeStarts, cap + 1);
+            }
+            names[n] = id(name, namespace, prefix);
+            firstChildren[n] = NONE;
+            nextSiblings[n] = NONE;
+            contentStarts[n] = NONE;
+            attributeStarts[n] = attributeCount;
+            int d = depth;
+            if (d == 0) {
+                if (n != 0) {
+                    throw new IllegalStateException("Multiple root elements");
+                }
+                parents[n] = NONE;
+            } else {
+                int p = open[d - 1];
+                parents[n] = p;
+                int last = lastChildren[d - 1];
+                if (last == NONE) {
+                    firstChildren[p] = n;
+                } else {
+                    nextSiblings[last] = n;
+                }
+                lastChildren[d - 1] = n;
+            }
+            if (d == open.length) {
+                open = Arrays.copyOf(open, d * 2);
+                lastChildren = Arrays.copyOf(lastChildren, d * 2);
+                scratch = Arrays.copyOf(scratch, d * 2);
+                mixed = Arrays.copyOf(mixed, d * 2);
+            }
+            open[d] = n;
+            lastChildren[d] = NONE;
+            depth = d + 1;
+            size = n + 1;
+        }
+        /**
+         * Adds an attribute to the current element.
+         * @param name the local name
+         * @param namespace the namespace URI or null
+         * @param prefix the prefix or null
+         * @param value the value
+         */
+        void attribute(String name, String namespace, String prefix, String value) {
+            int a = attributeCount;
+            if (a == attributeNames.length) {
+                int cap = a * 2;
+                attributeNames = Arrays.copyOf(attributeNames, cap);
+                valueStarts = Arrays.copyOf(valueStarts, cap);
+                valueLengths = Arrays.copyOf(valueLengths, cap);
+            }
+            attributeNames[a] = id(name, namespace, prefix);
+            valueStarts[a] = append(value);
+            valueLengths[a] = value.length();
+            attributeCount = a + 1;
+        }
+        /**
+         * Sets the content of the current element.
+         * @param s the content
+         */
+        void content(String s) {
+            int n = open[depth - 1];
+            contentStarts[n] = append(s);
+            contentLengths[n] = s.length();
+        }
+        /**
+         * Appends a text run to the content of the current element.
+         * <p>
+         * Runs following each other go straight into the text buffer. Once a child
+         * element's text came in between, the runs are collected in the scratch
+         * buffer of the depth and copied into the text buffer once by {@link #end()}.
+         * @param chars the characters
+         * @param start the start offset
+         * @param len the number of characters
+         */
+        void text(char[] chars, int start, int len) {
+            int d = depth - 1;
+            if (mixed[d]) {
+                scratch[d].append(chars, start, len);
+                return;
+            }
+            int n = open[d];
+            int cs = contentStarts[n];
+            if (cs == NONE) {
+                cs = reserve(len);
+                System.arraycopy(chars, start, text, cs, len);
+                contentStarts[n] = cs;
+                contentLengths[n] = len;
+                return;
+            }
+            int cl = contentLengths[n];
+            if (cs + cl == textLength) {
+                reserve(len);
+                System.arraycopy(chars, start, text, cs + cl, len);
+                contentLengths[n] = cl + len;
+                return;
+            }
+            // the content of a child element came in between
+            StringBuilder b = scratch[d];
+            if (b == null) {
+                b = new StringBuilder(cl + len);
+                scratch[d] = b;
+            } else {
+                b.setLength(0);
+            }
+            b.append(text, cs, cl).append(chars, start, len);
+            mixed[d] = true;
+        }
+        /** Ends the current element. */
+        void end() {
+            int d = --depth;
+            if (mixed[d]) {
+                mixed[d] = false;
+                StringBuilder b = scratch[d];
+                int len = b.length();
+                int cs = reserve(len);
+                b.getChars(0, len, text, cs);
+                int n = open[d];
+                contentStarts[n] = cs;
+                contentLengths[n] = len;
+            }
+        }
+    }
+}
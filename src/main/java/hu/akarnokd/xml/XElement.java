@@ -15,9 +15,14 @@ package hu.akarnokd.xml;
 
 import java.io.*;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
 import java.sql.*;
+import java.time.OffsetDateTime;
 import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.Consumer;
+import java.util.stream.Stream;
 import java.util.zip.GZIPInputStream;
 
 import javax.xml.stream.*;
@@ -33,7 +38,88 @@ public class XElement extends XElementBase {
      * @throws XMLStreamException on error
      */
     public static XElement parseXML(byte[] data) throws XMLStreamException {
-        return parseXML(new ByteArrayInputStream(data));
+        return parseXML(data, XParserContext.DEFAULT);
+    }
+    /**
+     * Parse an XML from the binary data.
+     * @param data the XML data
+     * @param context the parser context
+     * @return the parsed xml
+     * @throws XMLStreamException on error
+     */
+    public static XElement parseXML(byte[] data, XParserContext context) throws XMLStreamException {
+        if (context.engine == XParserContext.Engine.UTF8) {
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            if (XByteParser.isUtf8(buf, 0, data.length)) {
+                return XByteParser.parseElement(buf, context);
+            }
+        }
+        return parseXML(new ByteArrayInputStream(data), context);
+    }
+    /**
+     * Parse an XML from the remaining bytes of the buffer, heap or direct.
+     * Does not change the buffer's position.
+     * @param buf the buffer
+     * @return the parsed xml
+     * @throws XMLStreamException on error
+     */
+    public static XElement parseXML(ByteBuffer buf) throws XMLStreamException {
+        return parseXML(buf, XParserContext.DEFAULT);
+    }
+    /**
+     * Parse an XML from the remaining bytes of the buffer, heap or direct.
+     * Does not change the buffer's position.
+     * <p>
+     * The UTF8 engine parses the buffer in place; the STAX engine reads it through a stream view.
+     * @param buf the buffer
+     * @param context the parser context
+     * @return the parsed xml
+     * @throws XMLStreamException on error
+     */
+    public static XElement parseXML(ByteBuffer buf, XParserContext context) throws XMLStreamException {
+        if (context.engine == XParserContext.Engine.UTF8 
+                && XByteParser.isUtf8(buf, buf.position(), buf.limit())) {
+            return XByteParser.parseElement(buf, context);
+        }
+        return parseXML(new XBufferInputStream(buf), context);
+    }
+    /**
+     * Parse an XML from the channel, which has to be in blocking mode.
+     * Does not close the channel.
+     * @param ch the channel
+     * @return the parsed xml
+     * @throws XMLStreamException on error
+     */
+    public static XElement parseXML(ReadableByteChannel ch) throws XMLStreamException {
+        return parseXML(ch, XParserContext.DEFAULT);
+    }
+    /**
+     * Parse an XML from the channel, which has to be in blocking mode.
+     * Does not close the channel.
+     * <p>
+     * The UTF8 engine reads the channel into a direct buffer and parses each chunk in place,
+     * keeping only an incomplete last token for the next chunk. The STAX engine reads the
+     * channel through a stream.
+     * @param ch the channel
+     * @param context the parser context
+     * @return the parsed xml
+     * @throws XMLStreamException on error
+     */
+    public static XElement parseXML(ReadableByteChannel ch, XParserContext context) throws XMLStreamException {
+        try {
+            if (context.engine == XParserContext.Engine.UTF8) {
+                ByteBuffer buf = XByteParser.readStart(ch);
+                if (XByteParser.isUtf8(buf, 0, buf.limit())) {
+                    return XByteParser.parseChannel(
+                            new XByteParser.ElementBuilder(context.symbolTable(), context), ch, buf);
+                }
+                return parseXML(new SequenceInputStream(new XBufferInputStream(buf), 
+                        Channels.newInputStream(ch)), context);
+            }
+            return parseXML(Channels.newInputStream(ch), context);
+        } catch (IOException ex) {
+            throw new XMLStreamException(ex);
+        }
     }
     /**
      * Parse an XML from the given local file.
@@ -42,8 +128,65 @@ public class XElement extends XElementBase {
      * @throws XMLStreamException on error
      */
     public static XElement parseXML(File file) throws XMLStreamException {
-        try (InputStream in = new FileInputStream(file)) {
-            return parseXML(in);
+        return parseXML(file, XParserContext.DEFAULT);
+    }
+    /**
+     * Parse an XML from the given local file.
+     * @param file the file object
+     * @param context the parser context
+     * @return az XElement object
+     * @throws XMLStreamException on error
+     */
+    public static XElement parseXML(File file, XParserContext context) throws XMLStreamException {
+        try {
+            if (context.engine == XParserContext.Engine.UTF8 && file.length() <= XByteParser.MAX_SIZE) {
+                ByteBuffer buf = context.readFile(file);
+                if (XByteParser.isUtf8(buf, buf.position(), buf.limit())) {
+                    return XByteParser.parseElement(buf, context);
+                }
+            }
+            try (InputStream in = context.openFile(file)) {
+                return parseXML(in, context);
+            }
+        } catch (IOException ex) {
+            throw new XMLStreamException(ex);
+        }
+    }
+    /**
+     * Parse an XML from the given local file, building the children of the root
+     * element on multiple threads.
+     * @param file the file object
+     * @param pool the pool to parse on
+     * @return az XElement object
+     * @throws XMLStreamException on error
+     */
+    public static XElement parseXMLParallel(File file, ForkJoinPool pool) throws XMLStreamException {
+        return parseXMLParallel(file, pool, XParserContext.DEFAULT);
+    }
+    /**
+     * Parse an XML from the given local file, building the children of the root
+     * element on multiple threads.
+     * <p>
+     * Files which are not UTF-8 encoded or are larger than 2 GB are parsed sequentially.
+     * @param file the file object
+     * @param pool the pool to parse on
+     * @param context the parser context, its shared symbol table, if any, has to be concurrent
+     * @return az XElement object
+     * @throws XMLStreamException on error
+     */
+    public static XElement parseXMLParallel(File file, ForkJoinPool pool, XParserContext context) throws XMLStreamException {
+        try {
+            if (file.length() <= XByteParser.MAX_SIZE) {
+                ByteBuffer buf = context.readFile(file);
+                if (XByteParser.isUtf8(buf, buf.position(), buf.limit())) {
+                    XSymbolTable symbols = context.concurrentSymbolTable();
+                    return XParallelParser.parse(buf, pool, 
+                            () -> new XByteParser.ElementBuilder(symbols, context));
+                }
+            }
+            try (InputStream in = context.openFile(file)) {
+                return parseXML(in, context);
+            }
         } catch (IOException ex) {
             throw new XMLStreamException(ex);
         }
@@ -56,9 +199,72 @@ public class XElement extends XElementBase {
      * @throws XMLStreamException on error
      */
     public static XElement parseXML(InputStream in) throws XMLStreamException {
-        XMLInputFactory inf = XMLInputFactory.newInstance();
-        XMLStreamReader ir = inf.createXMLStreamReader(in);
-        return parseXML(ir);
+        return parseXML(in, XParserContext.DEFAULT);
+    }
+    /**
+     * Parse an XML document from the given input stream.
+     * Does not close the stream.
+     * @param in the input stream
+     * @param context the parser context
+     * @return az XElement object
+     * @throws XMLStreamException on error
+     */
+    public static XElement parseXML(InputStream in, XParserContext context) throws XMLStreamException {
+        XMLStreamReader ir = context.createXMLStreamReader(in);
+        return parseXML(ir, context.symbolTable(), context.limits);
+    }
+    /**
+     * Parse the parts of an XML document selected by the projection from the given input stream.
+     * Does not close the stream.
+     * @param in the input stream
+     * @param projection the paths to keep
+     * @return the root element
+     * @throws XMLStreamException on error
+     */
+    public static XElement parseXML(InputStream in, XProjection projection) throws XMLStreamException {
+        return parseXML(in, projection, XParserContext.DEFAULT);
+    }
+    /**
+     * Parse the parts of an XML document selected by the projection from the given input stream.
+     * Does not close the stream.
+     * @param in the input stream
+     * @param projection the paths to keep
+     * @param context the parser context
+     * @return the root element
+     * @throws XMLStreamException on error
+     */
+    public static XElement parseXML(InputStream in, XProjection projection, XParserContext context) throws XMLStreamException {
+        XMLStreamReader ir = context.createXMLStreamReader(in);
+        try {
+            return projection.parse(ir, new XProjection.ElementBuilder(context.symbolTable(), context.limits));
+        } finally {
+            ir.close();
+        }
+    }
+    /**
+     * Parse the parts of an XML document selected by the projection from the given file.
+     * @param file the file
+     * @param projection the paths to keep
+     * @return the root element
+     * @throws XMLStreamException on error
+     */
+    public static XElement parseXML(File file, XProjection projection) throws XMLStreamException {
+        return parseXML(file, projection, XParserContext.DEFAULT);
+    }
+    /**
+     * Parse the parts of an XML document selected by the projection from the given file.
+     * @param file the file
+     * @param projection the paths to keep
+     * @param context the parser context
+     * @return the root element
+     * @throws XMLStreamException on error
+     */
+    public static XElement parseXML(File file, XProjection projection, XParserContext context) throws XMLStreamException {
+        try (InputStream in = context.openFile(file)) {
+            return parseXML(in, projection, context);
+        } catch (IOException ex) {
+            throw new XMLStreamException(ex);
+        }
     }
     /**
      * Parse an XML document from the given reader. Does not close the stream.
@@ -67,9 +273,18 @@ public class XElement extends XElementBase {
      * @throws XMLStreamException on error
      */
     public static XElement parseXML(Reader in) throws XMLStreamException {
-        XMLInputFactory inf = XMLInputFactory.newInstance();
-        XMLStreamReader ir = inf.createXMLStreamReader(in);
-        return parseXML(ir);
+        return parseXML(in, XParserContext.DEFAULT);
+    }
+    /**
+     * Parse an XML document from the given reader. Does not close the stream.
+     * @param in the InputStream object
+     * @param context the parser context
+     * @return az XElement object
+     * @throws XMLStreamException on error
+     */
+    public static XElement parseXML(Reader in, XParserContext context) throws XMLStreamException {
+        XMLStreamReader ir = context.createXMLStreamReader(in);
+        return parseXML(ir, context.symbolTable(), context.limits);
     }
     /**
      * Reads the contents of a indexed column as an XML.
@@ -82,9 +297,23 @@ public class XElement extends XElementBase {
      */
     public static XElement parseXML(ResultSet rs, int index) 
             throws SQLException, IOException, XMLStreamException {
+        return parseXML(rs, index, XParserContext.DEFAULT);
+    }
+    /**
+     * Reads the contents of a indexed column as an XML.
+     * @param rs the result set to read from
+     * @param index the column index
+     * @param context the parser context
+     * @return the parsed XNElement or null if the column contained null
+     * @throws SQLException on SQL error
+     * @throws IOException on IO error
+     * @throws XMLStreamException on parsing error
+     */
+    public static XElement parseXML(ResultSet rs, int index, XParserContext context) 
+            throws SQLException, IOException, XMLStreamException {
         try (InputStream is = rs.getBinaryStream(index)) {
             if (is != null) {
-                return parseXML(is);
+                return parseXML(is, context);
             }
             return null;
         }
@@ -100,9 +329,23 @@ public class XElement extends XElementBase {
      */
     public static XElement parseXML(ResultSet rs, String column) 
             throws SQLException, IOException, XMLStreamException {
+        return parseXML(rs, column, XParserContext.DEFAULT);
+    }
+    /**
+     * Reads the contents of a named column as an XML.
+     * @param rs the result set to read from
+     * @param column the column name
+     * @param context the parser context
+     * @return the parsed XNElement or null if the column contained null
+     * @throws SQLException on SQL error
+     * @throws IOException on IO error
+     * @throws XMLStreamException on parsing error
+     */
+    public static XElement parseXML(ResultSet rs, String column, XParserContext context) 
+            throws SQLException, IOException, XMLStreamException {
         try (InputStream is = rs.getBinaryStream(column)) {
             if (is != null) {
-                return parseXML(is);
+                return parseXML(is, context);
             }
             return null;
         }
@@ -114,11 +357,17 @@ public class XElement extends XElementBase {
      * @throws XMLStreamException on error
      */
     public static XElement parseXML(String fileName) throws XMLStreamException {
-        try (InputStream in = new FileInputStream(fileName)) {
-            return parseXML(in);
-        } catch (IOException ex) {
-            throw new XMLStreamException(ex);
-        }
+        return parseXML(fileName, XParserContext.DEFAULT);
+    }
+    /**
+     * Parse an XML from the given local filename.
+     * @param fileName the file name
+     * @param context the parser context
+     * @return az XElement object
+     * @throws XMLStreamException on error
+     */
+    public static XElement parseXML(String fileName, XParserContext context) throws XMLStreamException {
+        return parseXML(new File(fileName), context);
     }
     /**
      * Parses an XML from the given URL.
@@ -128,8 +377,19 @@ public class XElement extends XElementBase {
      * @throws IOException on error
      */
     public static XElement parseXML(URL u) throws XMLStreamException, IOException {
+        return parseXML(u, XParserContext.DEFAULT);
+    }
+    /**
+     * Parses an XML from the given URL.
+     * @param u the url
+     * @param context the parser context
+     * @return the parsed XML
+     * @throws XMLStreamException on error
+     * @throws IOException on error
+     */
+    public static XElement parseXML(URL u, XParserContext context) throws XMLStreamException, IOException {
         try (InputStream in = u.openStream()) {
-            return parseXML(in);
+            return parseXML(in, context);
         }
     }
     /**
@@ -139,7 +399,28 @@ public class XElement extends XElementBase {
      * @throws XMLStreamException on error
      */
     public static XElement parseXML(XMLStreamReader in) throws XMLStreamException {
-        XElement root = parseXMLFragment(in);
+        return parseXML(in, new XSymbolTable());
+    }
+    /**
+     * Parse an XML from an XML stream reader. Does not close the stream
+     * @param in the XMLStreamReader object
+     * @param symbols the symbol table to intern the names with
+     * @return az XElement object
+     * @throws XMLStreamException on error
+     */
+    public static XElement parseXML(XMLStreamReader in, XSymbolTable symbols) throws XMLStreamException {
+        return parseXML(in, symbols, XParserLimits.UNLIMITED);
+    }
+    /**
+     * Parse an XML from an XML stream reader. Does not close the stream
+     * @param in the XMLStreamReader object
+     * @param symbols the symbol table to intern the names with
+     * @param limits the resource limits
+     * @return az XElement object
+     * @throws XMLStreamException on error
+     */
+    public static XElement parseXML(XMLStreamReader in, XSymbolTable symbols, XParserLimits limits) throws XMLStreamException {
+        XElement root = parseXMLFragment(in, symbols, limits);
         in.close();
         return root;
     }
@@ -150,9 +431,30 @@ public class XElement extends XElementBase {
      * @throws XMLStreamException on error
      */
     public static XElement parseXMLFragment(XMLStreamReader in) throws XMLStreamException {
+        return parseXMLFragment(in, new XSymbolTable());
+    }
+    /**
+     * Parse an XML from an XML stream reader. Does not close the stream
+     * @param in the XMLStreamReader object
+     * @param symbols the symbol table to intern the names with
+     * @return the XElement object
+     * @throws XMLStreamException on error
+     */
+    public static XElement parseXMLFragment(XMLStreamReader in, XSymbolTable symbols) throws XMLStreamException {
+        return parseXMLFragment(in, symbols, XParserLimits.UNLIMITED);
+    }
+    /**
+     * Parse an XML from an XML stream reader. Does not close the stream
+     * @param in the XMLStreamReader object
+     * @param symbols the symbol table to intern the names with
+     * @param limits the resource limits, checked as the fragment is parsed
+     * @return the XElement object
+     * @throws XMLStreamException on error
+     */
+    public static XElement parseXMLFragment(XMLStreamReader in, XSymbolTable symbols, XParserLimits limits) throws XMLStreamException {
         if (in.hasNext()) {
             in.next();
-            return parseXMLActiveFragment(in);
+            return parseXMLActiveFragment(in, symbols, limits);
         }
         return null;
     }
@@ -163,8 +465,49 @@ public class XElement extends XElementBase {
      * @throws XMLStreamException on error
      */
     public static XElement parseXMLGZ(File file) throws XMLStreamException {
-        try (GZIPInputStream gin = new GZIPInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
-            return parseXML(gin);
+        return parseXMLGZ(file, XParserContext.DEFAULT);
+    }
+    /**
+     * Parse an XML file compressed by GZIP.
+     * @param file the file
+     * @param context the parser context
+     * @return the parsed XML
+     * @throws XMLStreamException on error
+     */
+    public static XElement parseXMLGZ(File file, XParserContext context) throws XMLStreamException {
+        try (GZIPInputStream gin = new GZIPInputStream(context.openFile(file), 64 * 1024)) {
+            return parseXML(gin, context);
+        } catch (IOException ex) {
+            throw new XMLStreamException(ex);
+        }
+    }
+    /**
+     * Parse an XML file compressed by GZIP, decompressing ahead of the parser on the pool.
+     * <p>
+     * Files consisting of BGZF blocks, as written by bgzip, are inflated on multiple threads;
+     * other gzip files are inflated on one pool thread while the caller parses.
+     * @param file the file
+     * @param pool the pool to decompress on
+     * @return the parsed XML
+     * @throws XMLStreamException on error
+     */
+    public static XElement parseXMLGZ(File file, ForkJoinPool pool) throws XMLStreamException {
+        return parseXMLGZ(file, pool, XParserContext.DEFAULT);
+    }
+    /**
+     * Parse an XML file compressed by GZIP, decompressing ahead of the parser on the pool.
+     * <p>
+     * Files consisting of BGZF blocks, as written by bgzip, are inflated on multiple threads;
+     * other gzip files are inflated on one pool thread while the caller parses.
+     * @param file the file
+     * @param pool the pool to decompress on
+     * @param context the parser context
+     * @return the parsed XML
+     * @throws XMLStreamException on error
+     */
+    public static XElement parseXMLGZ(File file, ForkJoinPool pool, XParserContext context) throws XMLStreamException {
+        try (InputStream in = XGZipInput.open(file, pool)) {
+            return parseXML(in, context);
         } catch (IOException ex) {
             throw new XMLStreamException(ex);
         }
@@ -178,10 +521,97 @@ public class XElement extends XElementBase {
     public static XElement parseXMLGZ(String fileName) throws XMLStreamException {
         return parseXMLGZ(new File(fileName));
     }
+    /**
+     * Parse an XML file compressed by GZIP.
+     * @param fileName the filename
+     * @param context the parser context
+     * @return the parsed XML
+     * @throws XMLStreamException on error
+     */
+    public static XElement parseXMLGZ(String fileName, XParserContext context) throws XMLStreamException {
+        return parseXMLGZ(new File(fileName), context);
+    }
+    /**
+     * Parses the records with the given element name one by one from the input stream.
+     * <p>
+     * A record is the outermost element with the given name, at any depth; the stream
+     * returns each fully built record subtree and doesn't retain it afterwards, allowing
+     * arbitrarily large documents to be processed. Parse errors are thrown as
+     * IllegalStateExceptions wrapping the XMLStreamException.
+     * Closing the returned stream closes the XMLStreamReader but not the input stream.
+     * @param in the input stream
+     * @param name the record element name
+     * @return the stream of records
+     * @throws XMLStreamException on error
+     */
+    public static Stream<XElement> streamChildren(InputStream in, String name) throws XMLStreamException {
+        return streamChildren(in, name, XParserContext.DEFAULT);
+    }
+    /**
+     * Parses the records with the given element name one by one from the input stream.
+     * <p>
+     * A record is the outermost element with the given name, at any depth; the stream
+     * returns each fully built record subtree and doesn't retain it afterwards, allowing
+     * arbitrarily large documents to be processed. Parse errors are thrown as
+     * IllegalStateExceptions wrapping the XMLStreamException.
+     * Closing the returned stream closes the XMLStreamReader but not the input stream.
+     * @param in the input stream
+     * @param name the record element name
+     * @param context the parser context
+     * @return the stream of records
+     * @throws XMLStreamException on error
+     */
+    public static Stream<XElement> streamChildren(InputStream in, String name, XParserContext context) throws XMLStreamException {
+        XMLStreamReader ir = context.createXMLStreamReader(in);
+        XSymbolTable symbols = context.symbolTable();
+        return new XRecordIterator<>(ir, r -> name.equals(r.getLocalName()), 
+                r -> parseXMLActiveFragment(r, symbols, context.limits)).stream();
+    }
+    /**
+     * Publishes the records with the given element name of the input stream,
+     * parsing them on the executor as the subscriber requests them.
+     * <p>
+     * A record is the outermost element with the given name, at any depth. Nothing is read
+     * until the first request and at most the requested number of records are parsed, so a slow
+     * subscriber throttles the reading. The publisher accepts one subscriber; parse errors are
+     * signalled as XMLStreamExceptions. The XMLStreamReader and the input stream are closed after
+     * the last record, on error and on cancellation.
+     * @param in the input stream
+     * @param name the record element name
+     * @param executor the executor to read and parse on
+     * @return the publisher of records
+     */
+    public static XFlow.Publisher<XElement> publishChildren(InputStream in, String name, Executor executor) {
+        return publishChildren(in, name, executor, XParserContext.DEFAULT);
+    }
+    /**
+     * Publishes the records with the given element name of the input stream,
+     * parsing them on the executor as the subscriber requests them.
+     * <p>
+     * A record is the outermost element with the given name, at any depth. Nothing is read
+     * until the first request and at most the requested number of records are parsed, so a slow
+     * subscriber throttles the reading. The publisher accepts one subscriber; parse errors are
+     * signalled as XMLStreamExceptions. The XMLStreamReader and the input stream are closed after
+     * the last record, on error and on cancellation.
+     * @param in the input stream
+     * @param name the record element name
+     * @param executor the executor to read and parse on
+     * @param context the parser context
+     * @return the publisher of records
+     */
+    public static XFlow.Publisher<XElement> publishChildren(InputStream in, String name, Executor executor,
+            XParserContext context) {
+        return new XRecordPublisher<>(in, () -> {
+            XSymbolTable symbols = context.symbolTable();
+            return new XRecordIterator<>(context.createXMLStreamReader(in),
+                    r -> name.equals(r.getLocalName()),
+                    r -> parseXMLActiveFragment(r, symbols, context.limits));
+        }, executor);
+    }
     /** The attribute map. */
-    protected final Map<String, String> attributes = new LinkedHashMap<>();
+    protected final Map<String, String> attributes;
     /** The child elements. */
-    protected final List<XElement> children = new ArrayList<>();
+    protected final List<XElement> children;
     /** The parent element. */
     public XElement parent;
     /**
@@ -190,6 +620,19 @@ public class XElement extends XElementBase {
      */
     public XElement(String name) {
         super(name);
+        this.attributes = new XAttributeMap<>();
+        this.children = new XChildList<>();
+    }
+    /**
+     * Constructor for subclasses with their own attribute and child collections.
+     * @param name the element name
+     * @param attributes the attribute map
+     * @param children the child list
+     */
+    protected XElement(String name, Map<String, String> attributes, List<XElement> children) {
+        super(name);
+        this.attributes = attributes;
+        this.children = children;
     }
     /**
      * Creates a new XElement and sets its content according to the supplied value.
@@ -200,11 +643,29 @@ public class XElement extends XElementBase {
         this(name);
         setValue(value);
     }
+    /**
+     * Enables or disables caching the parsed numbers on this element and all of its descendants.
+     * @param enabled enable the cache?
+     * @see XElementBase#cacheValues(boolean)
+     */
+    @Override
+    public void cacheValues(boolean enabled) {
+        Deque<XElement> queue = new ArrayDeque<>();
+        queue.push(this);
+        while (!queue.isEmpty()) {
+            XElement e = queue.pop();
+            e.cacheValue(enabled);
+            for (XElement c : e.children) {
+                queue.push(c);
+            }
+        }
+    }
     /**
      * Add the iterable of elements as children.
      * @param elements the elements to add
      */
     public void add(Iterable<XElement> elements) {
+        checkMutable();
         for (XElement e : elements) {
             e.parent = this;
             children.add(e);
@@ -216,6 +677,7 @@ public class XElement extends XElementBase {
      * @return the created XElement
      */
     public XElement add(String name) {
+        checkMutable();
         XElement result = new XElement(name);
         result.parent = this;
         children.add(result);
@@ -238,6 +700,7 @@ public class XElement extends XElementBase {
      * @param elements the elements to add
      */
     public void add(XElement... elements) {
+        checkMutable();
         for (XElement e : elements) {
             e.parent = this;
             children.add(e);
@@ -248,6 +711,7 @@ public class XElement extends XElementBase {
      * @param element the element to add
      */
     public void add(XElement element) {
+        checkMutable();
         children.add(element);
     }
     /** @return the attribute map. */
@@ -260,12 +724,7 @@ public class XElement extends XElementBase {
      * @return the XElement or null if not present
      */
     public XElement childElement(String name) {
-        for (XElement e : children) {
-            if (e.name.equals(name)) {
-                return e;
-            }
-        }
-        return null;
+        return XChildList.first(children, name);
     }
     /**
      * @return The child elements.
@@ -275,22 +734,18 @@ public class XElement extends XElementBase {
     }
     /**
      * Returns an iterator which enumerates all children with the given name.
+     * The returned sequence is unmodifiable and doesn't reflect later changes.
      * @param name the name of the children to select
      * @return the iterator
      */
     public Iterable<XElement> childrenWithName(String name) {
-        List<XElement> result = new ArrayList<>(children.size() + 1);
-        for (XElement e : children) {
-            if (e.name.equals(name)) {
-                result.add(e);
-            }
-        }
-        return result;
+        return XChildList.withName(children, name);
     }
     /**
      * Remove attributes and children.
      */
     public void clear() {
+        checkMutable();
         attributes.clear();
         children.clear();
     }
@@ -308,6 +763,7 @@ public class XElement extends XElementBase {
      * @param other the other element
      */
     public void copyFrom(XElement other) {
+        checkMutable();
         content = other.content;
         userObject = other.userObject;
         attributes.putAll(other.attributes);
@@ -315,10 +771,28 @@ public class XElement extends XElementBase {
             add(c.copy());
         }
     }
+    /**
+     * Creates an immutable copy of this element and its subtree, storing the attributes
+     * and children in exact-sized arrays.
+     * <p>
+     * The copy has the same read API; its attributes and children can't be changed and
+     * its mutating methods, including {@code setValue} and {@code cacheValues},
+     * throw UnsupportedOperationException. The protected {@code content} and
+     * {@code userObject} fields are not guarded. The copy has no parent.
+     * <p>
+     * Reading the copy from other threads needs no synchronization once it has been
+     * published safely, for example through a final or volatile field or a concurrent
+     * collection, as the fields of the root are not final.
+     * @return the frozen copy, or this if already frozen
+     */
+    public XElement freeze() {
+        return XFrozenElement.freeze(this);
+    }
     /**
      * Detach this element from its parent.
      */
     public void detach() {
+        checkMutable();
         if (parent != null) {
             parent.children.remove(this);
             parent = null;
@@ -376,13 +850,24 @@ public class XElement extends XElementBase {
         return defaultValue;
     }
 
+    /**
+     * Get a timestamp attribute; a timestamp without offset is in UTC.
+     * @param name the attribute name
+     * @return the timestamp
+     * @throws NoSuchElementException if the attribute is missing
+     * @throws java.time.format.DateTimeParseException if the value is not a valid timestamp
+     */
+    public OffsetDateTime getDateTime(String name) {
+        return XDateTime.parse(get(name));
+    }
+
     public double getDouble(String name) {
-        return Double.parseDouble(get(name));
+        return parseDouble(get(name));
     }
 
     public double getDouble(String name, double defaultValue) {
         String s = attributes.get(name);
-        return s != null ? Double.parseDouble(s) : defaultValue;
+        return s != null ? parseDouble(s) : defaultValue;
     }
     /**
      * Get a double attribute as object or null if not present.
@@ -454,12 +939,12 @@ public class XElement extends XElementBase {
 
     public int getInt(String attributeName) {
         String val = get(attributeName);
-        return Integer.parseInt(val);
+        return parseInt(val);
     }
 
     public int getInt(String attributeName, int def) {
         String val = attributes.get(attributeName);
-        return val != null ? Integer.parseInt(val) : def;
+        return val != null ? parseInt(val) : def;
     }
     /**
      * Get an integer attribute as object or null if not present.
@@ -476,12 +961,12 @@ public class XElement extends XElementBase {
 
     public long getLong(String attributeName) {
         String val = get(attributeName);
-        return Long.parseLong(val);
+        return parseLong(val);
     }
 
     public long getLong(String attributeName, long def) {
         String val = attributes.get(attributeName);
-        return val != null ? Long.parseLong(val) : def;
+        return val != null ? parseLong(val) : def;
     }
 
     public short getShort(String key) {
@@ -606,6 +1091,7 @@ public class XElement extends XElementBase {
      * @param element the element
      */
     public void remove(XElement element) {
+        checkMutable();
         element.parent = null;
         children.remove(element);
     }
@@ -615,6 +1101,7 @@ public class XElement extends XElementBase {
      * @param name the element name
      */
     public void removeChildrenWithName(String name) {
+        checkMutable();
         for (int i = children.size() - 1; i >= 0; i--) {
             if (children.get(i).name.equals(name)) {
                 children.remove(i).parent = null;
@@ -628,6 +1115,7 @@ public class XElement extends XElementBase {
      * @param newChild the new child
      */
     public void replace(XElement oldChild, XElement newChild) {
+        checkMutable();
         int idx = children.indexOf(oldChild);
         if (idx >= 0) {
             children.get(idx).parent = null;
@@ -692,18 +1180,12 @@ public class XElement extends XElementBase {
      * @throws IOException on error
      */
     public void save(Writer writer, boolean header, boolean flush) throws IOException {
-        final PrintWriter out = new PrintWriter(new BufferedWriter(writer));
+        XWriter out = XWriter.pretty(writer);
         try {
             if (header) {
-                out.println("<?xml version='1.0' encoding='UTF-8'?>");
+                out.header();
             }
-            toStringRep("", new XAppender() {
-                @Override
-                public XAppender append(Object o) {
-                    out.print(o);
-                    return this;
-                }
-            });
+            out.write(this);
         } finally {
             if (flush) {
                 out.flush();
@@ -716,6 +1198,7 @@ public class XElement extends XElementBase {
      * @param value the content value, null will remove any existing
      */
     public void set(String name, Object value) {
+        checkMutable();
         if (value != null) {
             attributes.put(name, String.valueOf(value));
         } else {
@@ -725,56 +1208,14 @@ public class XElement extends XElementBase {
     }
     @Override
     public String toString() {
-        final StringBuilder b = new StringBuilder();
-        toStringRep("", new XAppender() {
-            @Override
-            public XAppender append(Object o) {
-                b.append(o);
-                return this;
-            }
-        });
-        return b.toString();
-    }
-    /**
-     * Convert the element into a pretty printed string representation.
-     * @param indent the current line indentation
-     * @param out the output
-     */
-    void toStringRep(String indent, XAppender out) {
-        out.append(indent).append("<");
-        out.append(name);
-        if (attributes.size() > 0) {
-            for (String an : attributes.keySet()) {
-                out.append(" ").append(an).append("='").append(sanitize(attributes.get(an))).append("'");
-            }
-        }
-
-        if (children.size() == 0) {
-            if (content == null) {
-                out.append("/>");
-            } else {
-                out.append(">");
-                out.append(sanitize(content));
-                out.append("</");
-                out.append(name);
-                out.append(">");
-            }
-        } else {
-            if (content == null) {
-                out.append(String.format(">%n"));
-            } else {
-                out.append(">");
-                out.append(sanitize(content));
-                out.append(String.format("%n"));
-            }
-            for (XElement e : children) {
-                e.toStringRep(indent + "  ", out);
-            }
-            out.append(indent).append("</");
-            out.append(name);
-            out.append(">");
+        StringBuilder b = new StringBuilder();
+        try {
+            new XWriter(b, true, 1024).write(this);
+        } catch (IOException ex) {
+            // StringBuilder doesn't throw
+            throw new UncheckedIOException(ex);
         }
-        out.append(String.format("%n"));
+        return b.toString();
     }
     /**
      * Iterate through the elements of this XElement and invoke the action for each.
@@ -802,12 +1243,8 @@ public class XElement extends XElementBase {
 
     @Override
     public String childValue(String name) {
-        for (XElement e : children) {
-            if (e.name.equals(name)) {
-                return e.content;
-            }
-        }
-        return null;
+        XElement e = XChildList.first(children, name);
+        return e != null ? e.content : null;
     }
     
     /**
@@ -817,29 +1254,60 @@ public class XElement extends XElementBase {
      * @throws XMLStreamException in case there is a parsing error
      */
     public static XElement parseXMLActiveFragment(XMLStreamReader in) throws XMLStreamException {
+        return parseXMLActiveFragment(in, new XSymbolTable());
+    }
+    /**
+     * Parses the stream as a fragment from the current element and returns an XElement.
+     * @param in the XML stream reader
+     * @param symbols the symbol table to intern the element and attribute names with
+     * @return the parsed XElement instance
+     * @throws XMLStreamException in case there is a parsing error
+     */
+    public static XElement parseXMLActiveFragment(XMLStreamReader in, XSymbolTable symbols) throws XMLStreamException {
+        return parseXMLActiveFragment(in, symbols, XParserLimits.UNLIMITED);
+    }
+    /**
+     * Parses the stream as a fragment from the current element and returns an XElement.
+     * @param in the XML stream reader
+     * @param symbols the symbol table to intern the element and attribute names with
+     * @param limits the resource limits, checked before the elements and texts exceeding them are created
+     * @return the parsed XElement instance
+     * @throws XMLStreamException in case there is a parsing error or a limit is exceeded
+     */
+    public static XElement parseXMLActiveFragment(XMLStreamReader in, XSymbolTable symbols, XParserLimits limits) throws XMLStreamException {
         XElement node = null;
         XElement root = null;
         final StringBuilder emptyBuilder = new StringBuilder();
         StringBuilder b = null;
         Deque<StringBuilder> stack = new LinkedList<>();
+        long elements = 0;
 
         int type = in.getEventType();
         
         for (;;) {
             switch(type) {
             case XMLStreamConstants.START_ELEMENT:
+                if (stack.size() >= limits.maxDepth) {
+                    throw limits.exceeded(XParserLimits.Limit.DEPTH, in.getLocation());
+                }
+                if (++elements > limits.maxElements) {
+                    throw limits.exceeded(XParserLimits.Limit.ELEMENTS, in.getLocation());
+                }
                 if (b != null) {
                     stack.push(b);
                     b = null;
                 } else {
                     stack.push(emptyBuilder);
                 }
-                XElement n = new XElement(in.getName().getLocalPart());
+                XElement n = new XElement(symbols.intern(in.getLocalName()));
                 n.parent = node;
                 int attCount = in.getAttributeCount();
+                if (attCount > limits.maxAttributes) {
+                    throw limits.exceeded(XParserLimits.Limit.ATTRIBUTES, in.getLocation());
+                }
                 if (attCount > 0) {
                     for (int i = 0; i < attCount; i++) {
-                        n.set(in.getAttributeLocalName(i), in.getAttributeValue(i));
+                        n.attributes.put(symbols.intern(in.getAttributeLocalName(i)), in.getAttributeValue(i));
                     }
                 }
                 if (node != null) {
@@ -853,10 +1321,24 @@ public class XElement extends XElementBase {
             case XMLStreamConstants.CDATA:
             case XMLStreamConstants.CHARACTERS:
                 if (node != null && !in.isWhiteSpace()) {
-                    if (b == null) {
-                        b = new StringBuilder();
+                    String c = node.content;
+                    int len = in.getTextLength();
+                    if (c == null) {
+                        if (len > limits.maxTextLength) {
+                            throw limits.exceeded(XParserLimits.Limit.TEXT_LENGTH, in.getLocation());
+                        }
+                        // a single text run is kept as is
+                        node.content = in.getText();
+                    } else {
+                        if ((long)(b != null ? b.length() : c.length()) + len > limits.maxTextLength) {
+                            throw limits.exceeded(XParserLimits.Limit.TEXT_LENGTH, in.getLocation());
+                        }
+                        if (b == null) {
+                            b = new StringBuilder(c.length() + len);
+                            b.append(c);
+                        }
+                        b.append(in.getTextCharacters(), in.getTextStart(), in.getTextLength());
                     }
-                    b.append(in.getText());
                 }
                 break;
             case XMLStreamConstants.END_ELEMENT:
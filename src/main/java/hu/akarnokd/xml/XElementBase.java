@@ -13,6 +13,7 @@
 
 package hu.akarnokd.xml;
 
+import java.io.*;
 import java.text.ParseException;
 import java.time.*;
 import java.time.format.DateTimeFormatter;
@@ -47,7 +48,7 @@ public abstract class XElementBase {
      * @return the formatted date
      */
     public static String formatDateTime(TemporalAccessor temporal) {
-        return DATE_TIME_OPTIONAL_OFFSET.format(temporal);
+        return XDateTime.format(temporal);
     }
 
     /**
@@ -57,48 +58,125 @@ public abstract class XElementBase {
      * @throws ParseException format exception
      */
     public static OffsetDateTime parseDateTime(String date) throws ParseException {
-        return DATE_TIME_OPTIONAL_OFFSET.withZone(ZoneOffset.UTC).parse(date, OffsetDateTime::from);
+        return XDateTime.parse(date);
     }
     /**
      * Converts all sensitive characters to its HTML entity equivalent.
      * @param s the string to convert, can be null
-     * @return the converted string, or an empty string
+     * @return the converted string, the string itself if it has no sensitive characters,
+     * or an empty string
      */
     public static String sanitize(String s) {
         if (s != null) {
-            StringBuilder b = new StringBuilder(s.length());
-            for (int i = 0, count = s.length(); i < count; i++) {
-                char c = s.charAt(i);
-                switch (c) {
-                case '<':
-                    b.append("&lt;");
-                    break;
-                case '>':
-                    b.append("&gt;");
-                    break;
-                case '\'':
-                    b.append("&#39;");
-                    break;
-                case '"':
-                    b.append("&quot;");
-                    break;
-                case '&':
-                    b.append("&amp;");
-                    break;
-                default:
-                    b.append(c);
-                }
+            int i = nextSensitive(s, 0);
+            if (i < 0) {
+                return s;
             }
-            return b.toString();
+            int count = s.length();
+            StringBuilder b = new StringBuilder(count + 16);
+            int start = 0;
+            do {
+                b.append(s, start, i).append(entity(s.charAt(i)));
+                start = i + 1;
+                i = nextSensitive(s, start);
+            } while (i >= 0);
+            return b.append(s, start, count).toString();
         }
         return "";
     }
+    /**
+     * Appends the string with all sensitive characters converted to their HTML entity
+     * equivalent, appending the runs between them in bulk.
+     * @param s the string to convert, null is treated as an empty string
+     * @param out the output
+     * @throws IOException if the output fails
+     */
+    public static void sanitize(CharSequence s, Appendable out) throws IOException {
+        if (s != null) {
+            int start = 0;
+            for (int i = nextSensitive(s, 0); i >= 0; i = nextSensitive(s, start)) {
+                appendRun(s, start, i, out);
+                out.append(entity(s.charAt(i)));
+                start = i + 1;
+            }
+            appendRun(s, start, s.length(), out);
+        }
+    }
+    /**
+     * Appends a part of the sequence, without creating a substring for writers.
+     * @param s the sequence
+     * @param start the start index
+     * @param end the end index, exclusive
+     * @param out the output
+     * @throws IOException if the output fails
+     */
+    static void appendRun(CharSequence s, int start, int end, Appendable out) throws IOException {
+        if (start < end) {
+            if (out instanceof Writer && s instanceof String) {
+                ((Writer)out).write((String)s, start, end - start);
+            } else {
+                out.append(s, start, end);
+            }
+        }
+    }
+    /**
+     * Appends the string with all sensitive characters converted to their HTML entity equivalent.
+     * @param s the string to convert, null is treated as an empty string
+     * @param out the output
+     */
+    static void appendSanitized(String s, XAppender out) {
+        if (s != null) {
+            int start = 0;
+            for (int i = nextSensitive(s, 0); i >= 0; i = nextSensitive(s, start)) {
+                out.append(s, start, i).append(entity(s.charAt(i)));
+                start = i + 1;
+            }
+            out.append(s, start, s.length());
+        }
+    }
+    /**
+     * Returns the index of the next character which has to be converted to an entity.
+     * @param s the sequence
+     * @param from the index to start from
+     * @return the index or -1 if none
+     */
+    static int nextSensitive(CharSequence s, int from) {
+        for (int i = from, count = s.length(); i < count; i++) {
+            char c = s.charAt(i);
+            // all sensitive characters are at most '>'
+            if (c <= '>' && (c == '<' || c == '>' || c == '&' || c == '\'' || c == '"')) {
+                return i;
+            }
+        }
+        return -1;
+    }
+    /**
+     * Returns the entity of a sensitive character.
+     * @param c the character
+     * @return the entity
+     */
+    static String entity(char c) {
+        switch (c) {
+        case '<':
+            return "&lt;";
+        case '>':
+            return "&gt;";
+        case '\'':
+            return "&#39;";
+        case '"':
+            return "&quot;";
+        default:
+            return "&amp;";
+        }
+    }
     /** The content of a simple node. */
     public String content;
     /** The element name. */
     public final String name;
     /** The user object to tag along. */
     protected Object userObject;
+    /** The cache of the parsed numbers, null if not enabled. */
+    XValueCache valueCache;
     /**
      * Constructor, sets the element name.
      * @param name the element name
@@ -106,6 +184,70 @@ public abstract class XElementBase {
     public XElementBase(String name) {
         this.name = name;
     }
+    /**
+     * Enables or disables caching the numbers parsed by the int, long and double accessors
+     * of this element, for attributes and child contents alike.
+     * <p>
+     * A cached number is reused as long as the attribute or content still holds the same
+     * string instance, so changes through {@code set}, {@code setValue} or direct
+     * {@code content} writes are always picked up. Subclasses apply the setting
+     * to the whole subtree.
+     * <p>
+     * The cache may be used by concurrent readers of an element that isn't changed
+     * anymore; the parsed numbers are published as immutable snapshots.
+     * @param enabled enable the cache?
+     */
+    public void cacheValues(boolean enabled) {
+        cacheValue(enabled);
+    }
+    /**
+     * Enables or disables the value cache of this element only.
+     * @param enabled enable the cache?
+     */
+    final void cacheValue(boolean enabled) {
+        checkMutable();
+        if (!enabled) {
+            valueCache = null;
+        } else
+        if (valueCache == null) {
+            valueCache = new XValueCache();
+        }
+    }
+    /**
+     * Called by the methods changing the content, the value cache or the structure
+     * of this element before they change anything.
+     * @throws UnsupportedOperationException if this element can't be changed
+     */
+    protected void checkMutable() {
+        // elements are mutable by default
+    }
+    /**
+     * Parses an int, through the value cache if enabled.
+     * @param s the string
+     * @return the value
+     */
+    final int parseInt(String s) {
+        XValueCache c = valueCache;
+        return c != null && s != null ? c.parseInt(s) : Integer.parseInt(s);
+    }
+    /**
+     * Parses a long, through the value cache if enabled.
+     * @param s the string
+     * @return the value
+     */
+    final long parseLong(String s) {
+        XValueCache c = valueCache;
+        return c != null && s != null ? c.parseLong(s) : Long.parseLong(s);
+    }
+    /**
+     * Parses a double, through the value cache if enabled.
+     * @param s the string
+     * @return the value
+     */
+    final double parseDouble(String s) {
+        XValueCache c = valueCache;
+        return c != null && s != null ? c.parseDouble(s) : Double.parseDouble(s);
+    }
     /**
      * Returns an integer value of the supplied child or throws an exception if missing.
      * @param name the child element name
@@ -114,7 +256,7 @@ public abstract class XElementBase {
     public int intValue(String name) {
         String s = childValue(name);
         if (s != null) {
-            return Integer.parseInt(s);
+            return parseInt(s);
         }
         throw new IllegalArgumentException(this + ": content: " + name);
     }
@@ -127,7 +269,7 @@ public abstract class XElementBase {
     public int intValue(String name, int defaultValue) {
         String s = childValue(name);
         if (s != null) {
-            return Integer.parseInt(s);
+            return parseInt(s);
         }
         return defaultValue;
     }
@@ -139,7 +281,7 @@ public abstract class XElementBase {
     public long longValue(String name) {
         String s = childValue(name);
         if (s != null) {
-            return Long.parseLong(s);
+            return parseLong(s);
         }
         throw new IllegalArgumentException(this + ": content: " + name);
     }
@@ -152,7 +294,7 @@ public abstract class XElementBase {
     public long longValue(String name, long defaultValue) {
         String s = childValue(name);
         if (s != null) {
-            return Long.parseLong(s);
+            return parseLong(s);
         }
         return defaultValue;
     }
@@ -164,7 +306,7 @@ public abstract class XElementBase {
     public double doubleValue(String name) {
         String s = childValue(name);
         if (s != null) {
-            return Double.parseDouble(s);
+            return parseDouble(s);
         }
         throw new IllegalArgumentException(this + ": content: " + name);
     }
@@ -177,10 +319,24 @@ public abstract class XElementBase {
     public double doubleValue(String name, double defaultValue) {
         String s = childValue(name);
         if (s != null) {
-            return Double.parseDouble(s);
+            return parseDouble(s);
         }
         return defaultValue;
     }
+    /**
+     * Returns the content of the first child with the given name as a timestamp.
+     * A timestamp without offset is in UTC.
+     * @param name the child name
+     * @return the timestamp or null if no such child or it has no content
+     * @throws java.time.format.DateTimeParseException if the content is not a valid timestamp
+     */
+    public OffsetDateTime childDateTime(String name) {
+        String s = childValue(name);
+        if (s != null) {
+            return XDateTime.parse(s);
+        }
+        return null;
+    }
     /**
      * Returns the content of the first child which has the given name.
      * @param name the child name
@@ -192,6 +348,7 @@ public abstract class XElementBase {
      * @param value the value set or null to clear
      */
     public final void setValue(Object value) {
+        checkMutable();
         if (value instanceof Date) {
             content = formatDateTime((Date)value);
         } else
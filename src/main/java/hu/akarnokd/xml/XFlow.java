@@ -0,0 +1,75 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+/**
+ * The reactive-streams interfaces with the same methods and rules as the ones in
+ * {@code java.util.concurrent.Flow}, which is not available on Java 8.
+ * <p>
+ * Converting between them takes a lambda per direction, for example
+ * {@code s -> publisher.subscribe(new XFlow.Subscriber<T>() { ... })}.
+ */
+public final class XFlow {
+    /** Utility class. */
+    private XFlow() {
+        throw new IllegalStateException("No instances!");
+    }
+    /**
+     * A producer of items, which are received by subscribers on their demand.
+     * @param <T> the item type
+     */
+    public interface Publisher<T> {
+        /**
+         * Adds the subscriber. The subscriber receives {@link Subscriber#onSubscribe(Subscription)}
+         * first, then the items it requested, then {@link Subscriber#onComplete()} or
+         * {@link Subscriber#onError(Throwable)} unless it cancelled.
+         * @param subscriber the subscriber, not null
+         */
+        void subscribe(Subscriber<? super T> subscriber);
+    }
+    /**
+     * A receiver of items. The methods are called serially.
+     * @param <T> the item type
+     */
+    public interface Subscriber<T> {
+        /**
+         * Called before any other method with the subscription to request items with.
+         * @param subscription the subscription
+         */
+        void onSubscribe(Subscription subscription);
+        /**
+         * Called with the next item, at most as many times as requested.
+         * @param item the item
+         */
+        void onNext(T item);
+        /**
+         * Called when the publisher failed; no other method is called afterwards.
+         * @param throwable the error
+         */
+        void onError(Throwable throwable);
+        /** Called when the publisher has no more items; no other method is called afterwards. */
+        void onComplete();
+    }
+    /** Links a publisher and a subscriber. */
+    public interface Subscription {
+        /**
+         * Requests more items. A non-positive {@code n} fails the subscriber
+         * with an IllegalArgumentException.
+         * @param n the number of items, {@code Long.MAX_VALUE} for unbounded
+         */
+        void request(long n);
+        /** Stops the delivery of items and releases the resources of the subscription. */
+        void cancel();
+    }
+}
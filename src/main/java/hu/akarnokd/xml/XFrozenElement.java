@@ -0,0 +1,199 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+import java.util.*;
+
+/**
+ * A read-only XElement storing its attributes in parallel name and value arrays
+ * and its children in an exact-sized array.
+ * <p>
+ * Elements with the same attribute names in the same order share the name array.
+ * The attribute map and the child list are immutable and the mutating methods,
+ * including {@code setValue} and {@code cacheValues}, throw UnsupportedOperationException.
+ */
+final class XFrozenElement extends XElement {
+    /** The attribute map of the elements without attributes. */
+    static final Map<String, String> NO_ATTRIBUTES = new ArrayMap(new String[0], new String[0]);
+    /** The child list of the elements without children. */
+    static final List<XElement> NO_CHILDREN = new ElementArray(new XElement[0]);
+    /**
+     * Constructor, copies the source subtree.
+     * @param source the source element
+     * @param parent the parent of the copy
+     * @param nameCache the shared attribute name arrays
+     */
+    XFrozenElement(XElement source, XElement parent, Map<List<String>, String[]> nameCache) {
+        super(source.name, attributesOf(source.attributes, nameCache), childrenOf(source.children));
+        this.content = source.content;
+        this.userObject = source.userObject;
+        this.parent = parent;
+        if (!source.children.isEmpty()) {
+            XElement[] array = ((ElementArray)children).array;
+            for (int i = 0; i < array.length; i++) {
+                array[i] = new XFrozenElement(source.children.get(i), this, nameCache);
+            }
+        }
+    }
+    @Override
+    protected void checkMutable() {
+        throw new UnsupportedOperationException("Frozen element");
+    }
+    /**
+     * Freezes the given element unless it is already a frozen root.
+     * @param source the source element
+     * @return the frozen element
+     */
+    static XElement freeze(XElement source) {
+        if (source instanceof XFrozenElement && source.parent == null) {
+            return source;
+        }
+        return new XFrozenElement(source, null, new HashMap<>());
+    }
+    /**
+     * Creates the frozen attribute map.
+     * @param attributes the source attributes
+     * @param nameCache the shared attribute name arrays
+     * @return the frozen map
+     */
+    static Map<String, String> attributesOf(Map<String, String> attributes,
+            Map<List<String>, String[]> nameCache) {
+        int n = attributes.size();
+        if (n == 0) {
+            return NO_ATTRIBUTES;
+        }
+        String[] names = new String[n];
+        String[] values = new String[n];
+        int i = 0;
+        for (Map.Entry<String, String> e : attributes.entrySet()) {
+            names[i] = e.getKey();
+            values[i] = e.getValue();
+            i++;
+        }
+        String[] shared = nameCache.putIfAbsent(Arrays.asList(names), names);
+        return new ArrayMap(shared != null ? shared : names, values);
+    }
+    /**
+     * Creates the frozen child list, to be filled in by the constructor.
+     * @param children the source children
+     * @return the frozen list
+     */
+    static List<XElement> childrenOf(List<XElement> children) {
+        int n = children.size();
+        if (n == 0) {
+            return NO_CHILDREN;
+        }
+        return new ElementArray(new XElement[n]);
+    }
+    /** An immutable attribute map over parallel name and value arrays. */
+    static final class ArrayMap extends AbstractMap<String, String> {
+        /** The attribute names. */
+        final String[] names;
+        /** The attribute values. */
+        final String[] values;
+        /**
+         * Constructor, sets the arrays.
+         * @param names the attribute names
+         * @param values the attribute values
+         */
+        ArrayMap(String[] names, String[] values) {
+            this.names = names;
+            this.values = values;
+        }
+        /**
+         * Returns the index of the attribute.
+         * @param key the attribute name
+         * @return the index or -1 if not present
+         */
+        int indexOf(Object key) {
+            String[] a = names;
+            for (int i = 0; i < a.length; i++) {
+                if (a[i] == key) {
+                    return i;
+                }
+            }
+            for (int i = 0; i < a.length; i++) {
+                if (a[i].equals(key)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        @Override
+        public String get(Object key) {
+            int i = indexOf(key);
+            return i >= 0 ? values[i] : null;
+        }
+        @Override
+        public boolean containsKey(Object key) {
+            return indexOf(key) >= 0;
+        }
+        @Override
+        public int size() {
+            return names.length;
+        }
+        @Override
+        public boolean isEmpty() {
+            return names.length == 0;
+        }
+        @Override
+        public Set<Map.Entry<String, String>> entrySet() {
+            return new AbstractSet<Map.Entry<String, String>>() {
+                @Override
+                public Iterator<Map.Entry<String, String>> iterator() {
+                    return new Iterator<Map.Entry<String, String>>() {
+                        int index;
+                        @Override
+                        public boolean hasNext() {
+                            return index < names.length;
+                        }
+                        @Override
+                        public Map.Entry<String, String> next() {
+                            int i = index;
+                            if (i == names.length) {
+                                throw new NoSuchElementException();
+                            }
+                            index = i + 1;
+                            return new SimpleImmutableEntry<>(names[i], values[i]);
+                        }
+                    };
+                }
+                @Override
+                public int size() {
+                    return names.length;
+                }
+            };
+        }
+    }
+    /** An immutable list over an exact-sized array. */
+    static final class ElementArray extends AbstractList<XElement> implements RandomAccess {
+        /** The elements. */
+        final XElement[] array;
+        /**
+         * Constructor, sets the array.
+         * @param array the elements
+         */
+        ElementArray(XElement[] array) {
+            this.array = array;
+        }
+        @Override
+        public XElement get(int index) {
+            return array[index];
+        }
+        @Override
+        public int size() {
+            return array.length;
+        }
+    }
+}
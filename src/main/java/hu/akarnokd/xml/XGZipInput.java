@@ -0,0 +1,434 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+/**
+ * Decompresses gzip files ahead of the reader on a pool.
+ * <p>
+ * Files made of BGZF blocks (bgzip, or any multi-member gzip whose members record their
+ * compressed size in a {@code BC} extra subfield) are inflated block group by block group
+ * in parallel, the results being read back in order. Other files are inflated by a single
+ * background task into a bounded queue of chunks.
+ */
+final class XGZipInput {
+    /** The compressed size inflated by one parallel task. */
+    static final int GROUP_SIZE = 1024 * 1024;
+    /** The size of the chunks produced by the background inflater. */
+    static final int CHUNK_SIZE = 256 * 1024;
+    /** The number of chunks the background inflater may run ahead. */
+    static final int CHUNKS_AHEAD = 4;
+    /** The size of a BGZF block header. */
+    static final int BGZF_HEADER = 18;
+    /** The size of the smallest BGZF block: the header and the CRC32 and ISIZE trailer. */
+    static final int BGZF_MIN_BLOCK = BGZF_HEADER + 8;
+    /** The largest decompressed size of a BGZF block. */
+    static final int BGZF_MAX_ISIZE = 65536;
+    /** Utility class. */
+    private XGZipInput() {
+        throw new IllegalStateException("No instances!");
+    }
+    /**
+     * Opens the gzip file for reading its decompressed content.
+     * @param file the file
+     * @param pool the pool to inflate on
+     * @return the input stream of the decompressed content
+     * @throws IOException on error
+     */
+    static InputStream open(File file, ForkJoinPool pool) throws IOException {
+        FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            ByteBuffer header = ByteBuffer.allocate(BGZF_HEADER);
+            if (blockSize(fc, 0, header) > 0) {
+                return new BlockStream(fc, pool);
+            }
+            fc.close();
+        } catch (IOException | RuntimeException ex) {
+            fc.close();
+            throw ex;
+        }
+        return new ReadAheadStream(new FileInputStream(file), pool);
+    }
+    /**
+     * Returns the total size of the BGZF block at the given offset.
+     * @param fc the file
+     * @param offset the block offset
+     * @param header the buffer to read the header into
+     * @return the block size, 0 at the end of the file, -1 if not a BGZF block
+     * @throws IOException on error
+     */
+    static int blockSize(FileChannel fc, long offset, ByteBuffer header) throws IOException {
+        header.clear();
+        while (header.hasRemaining()) {
+            if (fc.read(header, offset + header.position()) < 0) {
+                break;
+            }
+        }
+        if (header.position() == 0) {
+            return 0;
+        }
+        if (header.position() < BGZF_HEADER) {
+            return -1;
+        }
+        return blockSize(header.array(), 0);
+    }
+    /**
+     * Returns the total size of the BGZF block at the given offset.
+     * @param b the bytes
+     * @param i the block offset, with at least {@link #BGZF_HEADER} bytes available
+     * @return the block size or -1 if not a BGZF block
+     */
+    static int blockSize(byte[] b, int i) {
+        if ((b[i] & 0xFF) != 31 || (b[i + 1] & 0xFF) != 139 || b[i + 2] != 8 || b[i + 3] != 4
+                || (b[i + 10] & 0xFF) != 6 || b[i + 11] != 0
+                || b[i + 12] != 'B' || b[i + 13] != 'C' || b[i + 14] != 2 || b[i + 15] != 0) {
+            return -1;
+        }
+        return ((b[i + 16] & 0xFF) | (b[i + 17] & 0xFF) << 8) + 1;
+    }
+    /**
+     * Reads a little endian int.
+     * @param b the bytes
+     * @param i the offset
+     * @return the value
+     */
+    static int intLE(byte[] b, int i) {
+        return (b[i] & 0xFF) | (b[i + 1] & 0xFF) << 8 | (b[i + 2] & 0xFF) << 16 | (b[i + 3] & 0xFF) << 24;
+    }
+    /**
+     * Inflates the BGZF blocks of the given file range.
+     * @param fc the file
+     * @param start the offset of the first block
+     * @param length the length of the blocks
+     * @return the decompressed bytes
+     * @throws IOException on error
+     */
+    static byte[] inflate(FileChannel fc, long start, int length) throws IOException {
+        ByteBuffer in = ByteBuffer.allocate(length);
+        while (in.hasRemaining()) {
+            if (fc.read(in, start + in.position()) < 0) {
+                throw new EOFException("Truncated BGZF block at offset " + (start + in.position()));
+            }
+        }
+        byte[] b = in.array();
+        // the sizes come from the input, so they are checked before anything is allocated
+        int total = 0;
+        for (int i = 0; i < length;) {
+            int bs = length - i >= BGZF_HEADER ? blockSize(b, i) : -1;
+            if (bs < BGZF_MIN_BLOCK || bs > length - i) {
+                throw new ZipException("Corrupt BGZF block at offset " + (start + i));
+            }
+            int isize = intLE(b, i + bs - 4);
+            if (isize < 0 || isize > BGZF_MAX_ISIZE) {
+                throw new ZipException("Invalid BGZF block size " + (isize & 0xFFFFFFFFL) + " at offset " + (start + i));
+            }
+            total += isize;
+            i += bs;
+        }
+        byte[] out = new byte[total];
+        Inflater inf = new Inflater(true);
+        CRC32 crc = new CRC32();
+        try {
+            int o = 0;
+            for (int i = 0; i < length;) {
+                int bs = blockSize(b, i);
+                int isize = intLE(b, i + bs - 4);
+                inf.reset();
+                inf.setInput(b, i + BGZF_HEADER, bs - BGZF_HEADER - 8);
+                int n = 0;
+                while (n < isize) {
+                    int k = inf.inflate(out, o + n, isize - n);
+                    if (k == 0 && (inf.finished() || inf.needsInput())) {
+                        break;
+                    }
+                    n += k;
+                }
+                crc.reset();
+                crc.update(out, o, n);
+                if (n != isize || (int)crc.getValue() != intLE(b, i + bs - 8)) {
+                    throw new ZipException("Corrupt BGZF block at offset " + (start + i));
+                }
+                o += n;
+                i += bs;
+            }
+        } catch (DataFormatException ex) {
+            throw new ZipException(ex.getMessage());
+        } finally {
+            inf.end();
+        }
+        return out;
+    }
+    /** Reads a BGZF file, inflating groups of blocks in parallel ahead of the reader. */
+    static final class BlockStream extends InputStream {
+        /** The file. */
+        final FileChannel fc;
+        /** The pool. */
+        final ForkJoinPool pool;
+        /** The number of groups inflated ahead. */
+        final int ahead;
+        /** The inflation tasks in file order. */
+        final ArrayDeque<ForkJoinTask<byte[]>> tasks = new ArrayDeque<>();
+        /** The header read buffer. */
+        final ByteBuffer header = ByteBuffer.allocate(BGZF_HEADER);
+        /** The offset of the next block to schedule. */
+        long next;
+        /** Were all blocks scheduled? */
+        boolean scanned;
+        /** The current decompressed group. */
+        byte[] current = new byte[0];
+        /** The read index in the current group. */
+        int index;
+        /**
+         * Constructor, sets the fields.
+         * @param fc the file
+         * @param pool the pool
+         */
+        BlockStream(FileChannel fc, ForkJoinPool pool) {
+            this.fc = fc;
+            this.pool = pool;
+            this.ahead = Math.max(2, pool.getParallelism() * 2);
+        }
+        /**
+         * Schedules groups of blocks until enough are in flight.
+         * @throws IOException on error
+         */
+        void schedule() throws IOException {
+            while (!scanned && tasks.size() < ahead) {
+                long start = next;
+                long end = start;
+                while (end - start < GROUP_SIZE) {
+                    int bs = blockSize(fc, end, header);
+                    if (bs == 0) {
+                        scanned = true;
+                        break;
+                    }
+                    if (bs < 0) {
+                        throw new ZipException("Not a BGZF block at offset " + end);
+                    }
+                    if (bs < BGZF_MIN_BLOCK) {
+                        throw new ZipException("Corrupt BGZF block at offset " + end);
+                    }
+                    end += bs;
+                }
+                next = end;
+                if (end != start) {
+                    int length = (int)(end - start);
+                    tasks.add(pool.submit(() -> inflate(fc, start, length)));
+                }
+            }
+        }
+        /**
+         * Makes the next decompressed group current if the current one has been consumed.
+         * @return false if the end of the content has been reached
+         * @throws IOException on error
+         */
+        boolean advance() throws IOException {
+            while (index == current.length) {
+                schedule();
+                ForkJoinTask<byte[]> t = tasks.poll();
+                if (t == null) {
+                    return false;
+                }
+                try {
+                    current = t.get();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException();
+                } catch (ExecutionException ex) {
+                    Throwable c = ex.getCause();
+                    while (c instanceof RuntimeException && c.getCause() != null) {
+                        c = c.getCause();
+                    }
+                    if (c instanceof IOException) {
+                        throw (IOException)c;
+                    }
+                    if (c instanceof Error) {
+                        throw (Error)c;
+                    }
+                    throw new IOException(c);
+                }
+                index = 0;
+            }
+            return true;
+        }
+        @Override
+        public int read() throws IOException {
+            if (!advance()) {
+                return -1;
+            }
+            return current[index++] & 0xFF;
+        }
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!advance()) {
+                return -1;
+            }
+            int n = Math.min(len, current.length - index);
+            System.arraycopy(current, index, b, off, n);
+            index += n;
+            return n;
+        }
+        @Override
+        public int available() {
+            return current.length - index;
+        }
+        @Override
+        public void close() throws IOException {
+            scanned = true;
+            for (ForkJoinTask<byte[]> t : tasks) {
+                t.cancel(false);
+            }
+            tasks.clear();
+            fc.close();
+        }
+    }
+    /** Reads a gzip file inflated by a background task into a bounded queue of chunks. */
+    static final class ReadAheadStream extends InputStream implements Runnable {
+        /** Marks the end of the content in the queue. */
+        static final Object END = new Object();
+        /** The compressed input. */
+        final InputStream source;
+        /** The decompressed chunks, the end marker, an IOException or the unchecked failure of the inflater. */
+        final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(CHUNKS_AHEAD);
+        /** Was the stream closed? */
+        volatile boolean closed;
+        /** The current chunk. */
+        byte[] current = new byte[0];
+        /** The read index in the current chunk. */
+        int index;
+        /** The end marker or error taken from the queue. */
+        Object terminal;
+        /**
+         * Constructor, starts the background inflation.
+         * @param source the compressed input
+         * @param pool the pool to run the inflation on
+         */
+        ReadAheadStream(InputStream source, ForkJoinPool pool) {
+            this.source = source;
+            pool.execute(this);
+        }
+        @Override
+        public void run() {
+            Object last = END;
+            try (GZIPInputStream in = new GZIPInputStream(source, 64 * 1024)) {
+                while (!closed) {
+                    byte[] chunk = new byte[CHUNK_SIZE];
+                    int n = 0;
+                    while (n < chunk.length) {
+                        int k = in.read(chunk, n, chunk.length - n);
+                        if (k < 0) {
+                            break;
+                        }
+                        n += k;
+                    }
+                    if (n != 0) {
+                        queue.put(n == chunk.length ? chunk : Arrays.copyOf(chunk, n));
+                    }
+                    if (n < chunk.length) {
+                        break;
+                    }
+                }
+            } catch (IOException ex) {
+                last = ex;
+            } catch (InterruptedException ex) {
+                last = new InterruptedIOException();
+            } catch (RuntimeException | Error ex) {
+                // handed to the reader as is, which would wait forever otherwise
+                last = ex;
+            }
+            if (!closed) {
+                try {
+                    queue.put(last);
+                } catch (InterruptedException ex) {
+                    // the reader can't be notified
+                }
+            }
+        }
+        /**
+         * Makes the next chunk current if the current one has been consumed.
+         * @return false if the end of the content has been reached
+         * @throws IOException on error
+         */
+        boolean advance() throws IOException {
+            while (index == current.length) {
+                Object o = terminal;
+                if (o == null) {
+                    try {
+                        o = queue.take();
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                }
+                if (o instanceof byte[]) {
+                    current = (byte[])o;
+                    index = 0;
+                } else {
+                    terminal = o;
+                    if (o instanceof IOException) {
+                        throw new IOException((IOException)o);
+                    }
+                    if (o instanceof Error) {
+                        throw (Error)o;
+                    }
+                    if (o instanceof RuntimeException) {
+                        throw (RuntimeException)o;
+                    }
+                    return false;
+                }
+            }
+            return true;
+        }
+        @Override
+        public int read() throws IOException {
+            if (!advance()) {
+                return -1;
+            }
+            return current[index++] & 0xFF;
+        }
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!advance()) {
+                return -1;
+            }
+            int n = Math.min(len, current.length - index);
+            System.arraycopy(current, index, b, off, n);
+            index += n;
+            return n;
+        }
+        @Override
+        public int available() {
+            return current.length - index;
+        }
+        @Override
+        public void close() {
+            closed = true;
+            // unblock the inflater, which then sees the flag and closes the source
+            queue.clear();
+        }
+    }
+}
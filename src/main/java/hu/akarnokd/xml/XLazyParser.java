@@ -0,0 +1,273 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Builds XNElement trees one level at a time from a retained UTF-8 buffer.
+ * <p>
+ * A scan over an element creates its children with their names and content,
+ * but skips the grandchildren structurally; each child remembers where its start
+ * tag is, so its own attributes and children can be built when first accessed.
+ * <p>
+ * The limits of the context are checked in two steps. Parsing the root counts every
+ * skipped element against the depth and element count limits and checks the input size,
+ * so the whole document's structure is within the limits once the root is returned.
+ * The attribute count and text length of an element are checked when it is built,
+ * before its attributes or content are allocated.
+ */
+final class XLazyParser extends XByteParser {
+    /** The input and the namespaces in scope shared by the lazily built elements of a level. */
+    static final class Scope {
+        /** The input. */
+        final ByteBuffer buf;
+        /** The symbol table, concurrent. */
+        final XSymbolTable symbols;
+        /** Process namespaces? */
+        final boolean namespaceAware;
+        /** The resource limits. */
+        final XParserLimits limits;
+        /** The declared prefixes. */
+        final String[] prefixes;
+        /** The declared namespace URIs. */
+        final String[] uris;
+        /**
+         * Constructor, sets the fields.
+         * @param buf the input
+         * @param symbols the symbol table
+         * @param namespaceAware process namespaces?
+         * @param limits the resource limits
+         * @param prefixes the declared prefixes
+         * @param uris the declared namespace URIs
+         */
+        Scope(ByteBuffer buf, XSymbolTable symbols, boolean namespaceAware, XParserLimits limits,
+                String[] prefixes, String[] uris) {
+            this.buf = buf;
+            this.symbols = symbols;
+            this.namespaceAware = namespaceAware;
+            this.limits = limits;
+            this.prefixes = prefixes;
+            this.uris = uris;
+        }
+    }
+    /** The state of an element whose attributes and children haven't been built yet. */
+    static final class Pending {
+        /** The input and the namespaces in scope at the element's start tag. */
+        final Scope scope;
+        /** The index of the element's start tag. */
+        final int tagStart;
+        /**
+         * Constructor, sets the fields.
+         * @param scope the input and namespaces
+         * @param tagStart the index of the start tag
+         */
+        Pending(Scope scope, int tagStart) {
+            this.scope = scope;
+            this.tagStart = tagStart;
+        }
+    }
+    /** The element whose attributes and children are built, null when scanning for the root. */
+    final XNElement target;
+    /** The depth of the elements to create. */
+    final int level;
+    /** The index of the start tag being parsed. */
+    int tagPos;
+    /** The scope of the created elements, built on first use. */
+    Scope childScope;
+    /** The element currently being created. */
+    XNElement current;
+    /** The content builder of the current element if it has more than one text run. */
+    StringBuilder content;
+    /** Does the current element have attributes or child elements to build later? */
+    boolean deferred;
+    /**
+     * Constructor, sets the target and the limits.
+     * @param symbols the symbol table
+     * @param namespaceAware process namespaces?
+     * @param limits the resource limits
+     * @param target the element whose attributes and children to build, null to build the root
+     */
+    XLazyParser(XSymbolTable symbols, boolean namespaceAware, XParserLimits limits, XNElement target) {
+        super(symbols, namespaceAware);
+        this.limits = limits;
+        this.target = target;
+        this.level = target != null ? 2 : 1;
+    }
+    /**
+     * Parses the root element from the remaining bytes of the buffer.
+     * Doesn't change the buffer's position.
+     * @param buf the UTF-8 encoded document, retained by the tree
+     * @param context the parser context
+     * @return the root element
+     * @throws XMLStreamException on error
+     */
+    static XNElement parseRoot(ByteBuffer buf, XParserContext context) throws XMLStreamException {
+        XParserLimits limits = context.limits;
+        if (buf.remaining() > limits.maxInputBytes) {
+            throw limits.exceeded(XParserLimits.Limit.INPUT_BYTES, limits.maxInputBytes);
+        }
+        XLazyParser p = new XLazyParser(context.concurrentSymbolTable(), context.namespaceAware, limits, null);
+        p.buf = buf;
+        int end = buf.limit();
+        int pos = p.run(skipBom(buf, buf.position(), end), end);
+        if (!p.rootSeen) {
+            throw p.error("No root element", pos);
+        }
+        return p.current;
+    }
+    /**
+     * Builds the attributes and children of the element.
+     * @param n the element
+     * @param pending the state of the element
+     * @throws XMLStreamException on error
+     */
+    static void build(XNElement n, Pending pending) throws XMLStreamException {
+        Scope scope = pending.scope;
+        XLazyParser p = new XLazyParser(scope.symbols, scope.namespaceAware, scope.limits, n);
+        p.buf = scope.buf;
+        int count = scope.prefixes.length;
+        if (count > p.nsPrefixes.length) {
+            p.nsPrefixes = Arrays.copyOf(scope.prefixes, count);
+            p.nsUris = Arrays.copyOf(scope.uris, count);
+        } else {
+            System.arraycopy(scope.prefixes, 0, p.nsPrefixes, 0, count);
+            System.arraycopy(scope.uris, 0, p.nsUris, 0, count);
+        }
+        p.nsCount = count;
+        p.run(pending.tagStart, scope.buf.limit());
+    }
+    /**
+     * Parses the tokens until the outermost element closes or the input ends.
+     * The elements deeper than {@link #level} are skipped without tokenizing them.
+     * @param pos the start index
+     * @param end the end index
+     * @return the index after the last processed token
+     * @throws XMLStreamException on error
+     */
+    int run(int pos, int end) throws XMLStreamException {
+        ByteBuffer buf = this.buf;
+        while (pos < end) {
+            int next;
+            if (buf.get(pos) == '<') {
+                if (pos + 1 >= end) {
+                    next = -1;
+                } else {
+                    byte c = buf.get(pos + 1);
+                    if (c == '/') {
+                        next = endTag(pos, end);
+                    } else
+                    if (c == '?') {
+                        next = processingInstruction(pos, end);
+                    } else
+                    if (c == '!') {
+                        next = declaration(pos, end);
+                    } else
+                    if (depth >= level) {
+                        // the root parse checks the structure of the whole document
+                        next = elementEnd(buf, pos, end,
+                                target == null && limits != XParserLimits.UNLIMITED ? this : null);
+                        deferred = true;
+                    } else {
+                        tagPos = pos;
+                        next = startTag(pos, end);
+                    }
+                }
+            } else
+            if (depth != 0 && depth < level) {
+                // the target's own content has already been set
+                next = indexOf(buf, pos, end, (byte)'<');
+            } else {
+                next = text(pos, end, true);
+            }
+            if (next < 0) {
+                throw error("Unexpected end of input", pos);
+            }
+            pos = next;
+            if (target != null && rootClosed) {
+                return pos;
+            }
+        }
+        if (depth != 0) {
+            throw error("Unclosed element " + openNames[depth - 1].qname, pos);
+        }
+        return pos;
+    }
+    @Override
+    void startElement(Name name, String uri) {
+        if (depth < level) {
+            putAttributes(target);
+            return;
+        }
+        XNElement n = new XNElement(name.local);
+        n.namespace = uri;
+        n.prefix = name.prefix;
+        Scope s = childScope;
+        if (s == null) {
+            int count = nsMarks[depth - 1];
+            s = new Scope(buf, symbols, namespaceAware, limits,
+                    Arrays.copyOf(nsPrefixes, count), Arrays.copyOf(nsUris, count));
+            childScope = s;
+        }
+        n.pending = new Pending(s, tagPos);
+        if (target != null) {
+            n.parent = target;
+            target.children.add(n);
+        }
+        current = n;
+        content = null;
+        deferred = attCount != 0;
+    }
+    @Override
+    void text(String text) throws XLimitExceededException {
+        if (depth == level) {
+            XNElement n = current;
+            String c = n.content;
+            if (c == null) {
+                if (text.length() > limits.maxTextLength) {
+                    throw exceeded(XParserLimits.Limit.TEXT_LENGTH, textPos);
+                }
+                n.content = text;
+            } else {
+                StringBuilder b = content;
+                if ((long)(b != null ? b.length() : c.length()) + text.length() > limits.maxTextLength) {
+                    throw exceeded(XParserLimits.Limit.TEXT_LENGTH, textPos);
+                }
+                if (b == null) {
+                    b = new StringBuilder(c.length() + text.length());
+                    b.append(c);
+                    content = b;
+                }
+                b.append(text);
+            }
+        }
+    }
+    @Override
+    void endElement() {
+        if (depth == level) {
+            XNElement n = current;
+            if (content != null) {
+                n.content = content.toString();
+                content = null;
+            }
+            if (!deferred) {
+                // nothing left to build
+                n.pending = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+import javax.xml.stream.*;
+
+/**
+ * Thrown when the input exceeds one of the {@link XParserLimits}.
+ */
+public class XLimitExceededException extends XMLStreamException {
+    /** */
+    private static final long serialVersionUID = -3907262135416263049L;
+    /** The exceeded limit. */
+    private final XParserLimits.Limit limit;
+    /** The value of the limit. */
+    private final long max;
+    /**
+     * Constructor, sets the fields.
+     * @param limit the exceeded limit
+     * @param max the value of the limit
+     * @param message the message
+     * @param location the location in the input, may be null
+     */
+    public XLimitExceededException(XParserLimits.Limit limit, long max, String message, Location location) {
+        super(message);
+        this.location = location;
+        this.limit = limit;
+        this.max = max;
+    }
+    /** @return the exceeded limit */
+    public XParserLimits.Limit limit() {
+        return limit;
+    }
+    /** @return the value of the exceeded limit */
+    public long max() {
+        return max;
+    }
+}
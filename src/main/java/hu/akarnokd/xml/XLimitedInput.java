@@ -0,0 +1,229 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+import java.io.*;
+
+import javax.xml.stream.*;
+import javax.xml.stream.util.StreamReaderDelegate;
+
+/**
+ * Enforces the input size limit on the inputs of an XMLStreamReader.
+ * <p>
+ * The streams fail with a {@link LimitIOException} before reading past the limit; the
+ * XMLStreamReader wraps it into an XMLStreamException, which {@link LimitedReader} unwraps
+ * so the caller receives the {@link XLimitExceededException} itself.
+ */
+final class XLimitedInput {
+    /** Utility class. */
+    private XLimitedInput() {
+        throw new IllegalStateException("No instances!");
+    }
+    /**
+     * Creates a stream reader over the input stream which fails once the input exceeds the limit.
+     * @param factory the factory
+     * @param in the input stream
+     * @param limits the limits
+     * @return the stream reader
+     * @throws XMLStreamException on error
+     */
+    static XMLStreamReader create(XMLInputFactory factory, InputStream in, XParserLimits limits) throws XMLStreamException {
+        try {
+            return new LimitedReader(factory.createXMLStreamReader(new LimitedStream(in, limits)));
+        } catch (XMLStreamException ex) {
+            throw unwrap(ex);
+        }
+    }
+    /**
+     * Creates a stream reader over the reader which fails once the input exceeds the limit.
+     * @param factory the factory
+     * @param in the reader
+     * @param limits the limits
+     * @return the stream reader
+     * @throws XMLStreamException on error
+     */
+    static XMLStreamReader create(XMLInputFactory factory, Reader in, XParserLimits limits) throws XMLStreamException {
+        try {
+            return new LimitedReader(factory.createXMLStreamReader(new LimitedCharReader(in, limits)));
+        } catch (XMLStreamException ex) {
+            throw unwrap(ex);
+        }
+    }
+    /**
+     * Returns the limit exception if it caused the error or the error itself.
+     * @param ex the error
+     * @return the exception to throw
+     */
+    static XMLStreamException unwrap(XMLStreamException ex) {
+        Throwable t = ex.getNestedException();
+        if (t instanceof LimitIOException) {
+            return ((LimitIOException)t).error;
+        }
+        return ex;
+    }
+    /** Carries the limit exception through the XMLStreamReader. */
+    static final class LimitIOException extends IOException {
+        /** */
+        private static final long serialVersionUID = 4431409893124785766L;
+        /** The limit exception. */
+        final XLimitExceededException error;
+        /**
+         * Constructor, sets the limit exception.
+         * @param error the limit exception
+         */
+        LimitIOException(XLimitExceededException error) {
+            super(error.getMessage(), error);
+            this.error = error;
+        }
+    }
+    /** Counts the bytes read. */
+    static final class LimitedStream extends FilterInputStream {
+        /** The limits. */
+        final XParserLimits limits;
+        /** The number of bytes which can still be read. */
+        long remaining;
+        /**
+         * Constructor, sets the fields.
+         * @param in the input stream
+         * @param limits the limits
+         */
+        LimitedStream(InputStream in, XParserLimits limits) {
+            super(in);
+            this.limits = limits;
+            this.remaining = limits.maxInputBytes;
+        }
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            int n = read(b, 0, 1);
+            return n < 0 ? -1 : b[0] & 0xFF;
+        }
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            long r = remaining;
+            // read one byte beyond the limit to tell apart an input ending right at the limit
+            int n = in.read(b, off, (int)Math.min(len, r + 1));
+            if (n > r) {
+                throw new LimitIOException(limits.exceeded(XParserLimits.Limit.INPUT_BYTES, limits.maxInputBytes));
+            }
+            if (n > 0) {
+                remaining = r - n;
+            }
+            return n;
+        }
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped bytes count as read
+            int k = (int)Math.max(0, Math.min(n, 8192));
+            return k == 0 ? 0 : Math.max(0, read(new byte[k], 0, k));
+        }
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+    /** Counts the characters read. */
+    static final class LimitedCharReader extends FilterReader {
+        /** The limits. */
+        final XParserLimits limits;
+        /** The number of characters which can still be read. */
+        long remaining;
+        /**
+         * Constructor, sets the fields.
+         * @param in the reader
+         * @param limits the limits
+         */
+        LimitedCharReader(Reader in, XParserLimits limits) {
+            super(in);
+            this.limits = limits;
+            this.remaining = limits.maxInputBytes;
+        }
+        @Override
+        public int read() throws IOException {
+            char[] b = new char[1];
+            int n = read(b, 0, 1);
+            return n < 0 ? -1 : b[0];
+        }
+        @Override
+        public int read(char[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            long r = remaining;
+            int n = in.read(b, off, (int)Math.min(len, r + 1));
+            if (n > r) {
+                throw new LimitIOException(limits.exceeded(XParserLimits.Limit.INPUT_BYTES, limits.maxInputBytes));
+            }
+            if (n > 0) {
+                remaining = r - n;
+            }
+            return n;
+        }
+        @Override
+        public long skip(long n) throws IOException {
+            // skipped characters count as read
+            int k = (int)Math.max(0, Math.min(n, 8192));
+            return k == 0 ? 0 : Math.max(0, read(new char[k], 0, k));
+        }
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+    /** Rethrows the limit exceptions of the limited inputs as they are. */
+    static final class LimitedReader extends StreamReaderDelegate {
+        /**
+         * Constructor, sets the reader.
+         * @param reader the reader
+         */
+        LimitedReader(XMLStreamReader reader) {
+            super(reader);
+        }
+        @Override
+        public int next() throws XMLStreamException {
+            try {
+                return super.next();
+            } catch (XMLStreamException ex) {
+                throw unwrap(ex);
+            }
+        }
+        @Override
+        public int nextTag() throws XMLStreamException {
+            try {
+                return super.nextTag();
+            } catch (XMLStreamException ex) {
+                throw unwrap(ex);
+            }
+        }
+        @Override
+        public String getElementText() throws XMLStreamException {
+            try {
+                return super.getElementText();
+            } catch (XMLStreamException ex) {
+                throw unwrap(ex);
+            }
+        }
+        @Override
+        public boolean hasNext() throws XMLStreamException {
+            try {
+                return super.hasNext();
+            } catch (XMLStreamException ex) {
+                throw unwrap(ex);
+            }
+        }
+    }
+}
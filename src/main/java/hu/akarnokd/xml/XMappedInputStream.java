@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a file through memory mapped regions of at most {@link #CHUNK} bytes,
+ * mapping the next region once the previous one has been consumed.
+ * <p>
+ * The mappings are released when the buffers are garbage collected.
+ */
+final class XMappedInputStream extends InputStream {
+    /** The maximum size of one mapped region. */
+    static final long CHUNK = 1L << 30;
+    /** The file channel. */
+    final FileChannel channel;
+    /** The file size. */
+    final long size;
+    /** The file offset of the next region. */
+    long next;
+    /** The current region. */
+    ByteBuffer current;
+    /**
+     * Opens the file.
+     * @param file the file
+     * @throws IOException on error
+     */
+    XMappedInputStream(File file) throws IOException {
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        this.size = channel.size();
+    }
+    /**
+     * Maps the whole file into memory.
+     * @param file the file, not larger than {@link Integer#MAX_VALUE} bytes
+     * @return the mapped buffer
+     * @throws IOException on error
+     */
+    static MappedByteBuffer map(File file) throws IOException {
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+        }
+    }
+    /**
+     * Returns the current region with remaining bytes, mapping the next region if necessary.
+     * @return the region or null if the end of the file has been reached
+     * @throws IOException on error
+     */
+    ByteBuffer region() throws IOException {
+        ByteBuffer b = current;
+        if (b == null || !b.hasRemaining()) {
+            if (next >= size) {
+                return null;
+            }
+            long len = Math.min(CHUNK, size - next);
+            b = channel.map(FileChannel.MapMode.READ_ONLY, next, len);
+            next += len;
+            current = b;
+        }
+        return b;
+    }
+    @Override
+    public int read() throws IOException {
+        ByteBuffer b = region();
+        if (b == null) {
+            return -1;
+        }
+        return b.get() & 0xFF;
+    }
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        ByteBuffer r = region();
+        if (r == null) {
+            return -1;
+        }
+        int n = Math.min(len, r.remaining());
+        r.get(b, off, n);
+        return n;
+    }
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (n > 0) {
+            ByteBuffer r = region();
+            if (r == null) {
+                break;
+            }
+            int k = (int)Math.min(n, r.remaining());
+            r.position(r.position() + k);
+            n -= k;
+            skipped += k;
+        }
+        return skipped;
+    }
+    @Override
+    public int available() throws IOException {
+        ByteBuffer b = current;
+        long rem = (b != null ? b.remaining() : 0) + (size - next);
+        return (int)Math.min(rem, Integer.MAX_VALUE);
+    }
+    @Override
+    public void close() throws IOException {
+        current = null;
+        channel.close();
+    }
+}
@@ -18,6 +18,13 @@ package hu.akarnokd.xml;
 public interface XNAppender extends XAppender {
     @Override
     XNAppender append(Object o);
+    @Override
+    default XNAppender append(String s, int start, int end) {
+        if (start < end) {
+            append(s.substring(start, end));
+        }
+        return this;
+    }
     /** @return The number of characters appended. */
     int length();
 }
@@ -15,10 +15,15 @@ package hu.akarnokd.xml;
 
 import java.io.*;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
 import java.sql.*;
+import java.time.OffsetDateTime;
 import java.util.*;
 import java.util.Date;
+import java.util.concurrent.*;
 import java.util.function.Consumer;
+import java.util.stream.Stream;
 import java.util.zip.GZIPInputStream;
 
 import javax.xml.stream.*;
@@ -114,7 +119,88 @@ public class XNElement extends XElementBase {
      * @throws XMLStreamException on error
      */
     public static XNElement parseXML(byte[] data) throws XMLStreamException {
-        return parseXML(new ByteArrayInputStream(data));
+        return parseXML(data, XParserContext.DEFAULT);
+    }
+    /**
+     * Parse an XML from the binary data.
+     * @param data the XML data
+     * @param context the parser context
+     * @return the parsed xml
+     * @throws XMLStreamException on error
+     */
+    public static XNElement parseXML(byte[] data, XParserContext context) throws XMLStreamException {
+        if (context.engine == XParserContext.Engine.UTF8) {
+            ByteBuffer buf = ByteBuffer.wrap(data);
+            if (XByteParser.isUtf8(buf, 0, data.length)) {
+                return XByteParser.parseNElement(buf, context);
+            }
+        }
+        return parseXML(new ByteArrayInputStream(data), context);
+    }
+    /**
+     * Parse an XML from the remaining bytes of the buffer, heap or direct.
+     * Does not change the buffer's position.
+     * @param buf the buffer
+     * @return the parsed xml
+     * @throws XMLStreamException on error
+     */
+    public static XNElement parseXML(ByteBuffer buf) throws XMLStreamException {
+        return parseXML(buf, XParserContext.DEFAULT);
+    }
+    /**
+     * Parse an XML from the remaining bytes of the buffer, heap or direct.
+     * Does not change the buffer's position.
+     * <p>
+     * The UTF8 engine parses the buffer in place; the STAX engine reads it through a stream view.
+     * @param buf the buffer
+     * @param context the parser context
+     * @return the parsed xml
+     * @throws XMLStreamException on error
+     */
+    public static XNElement parseXML(ByteBuffer buf, XParserContext context) throws XMLStreamException {
+        if (context.engine == XParserContext.Engine.UTF8 
+                && XByteParser.isUtf8(buf, buf.position(), buf.limit())) {
+            return XByteParser.parseNElement(buf, context);
+        }
+        return parseXML(new XBufferInputStream(buf), context);
+    }
+    /**
+     * Parse an XML from the channel, which has to be in blocking mode.
+     * Does not close the channel.
+     * @param ch the channel
+     * @return the parsed xml
+     * @throws XMLStreamException on error
+     */
+    public static XNElement parseXML(ReadableByteChannel ch) throws XMLStreamException {
+        return parseXML(ch, XParserContext.DEFAULT);
+    }
+    /**
+     * Parse an XML from the channel, which has to be in blocking mode.
+     * Does not close the channel.
+     * <p>
+     * The UTF8 engine reads the channel into a direct buffer and parses each chunk in place,
+     * keeping only an incomplete last token for the next chunk. The STAX engine reads the
+     * channel through a stream.
+     * @param ch the channel
+     * @param context the parser context
+     * @return the parsed xml
+     * @throws XMLStreamException on error
+     */
+    public static XNElement parseXML(ReadableByteChannel ch, XParserContext context) throws XMLStreamException {
+        try {
+            if (context.engine == XParserContext.Engine.UTF8) {
+                ByteBuffer buf = XByteParser.readStart(ch);
+                if (XByteParser.isUtf8(buf, 0, buf.limit())) {
+                    return XByteParser.parseChannel(
+                            new XByteParser.NElementBuilder(context.symbolTable(), context), ch, buf);
+                }
+                return parseXML(new SequenceInputStream(new XBufferInputStream(buf), 
+                        Channels.newInputStream(ch)), context);
+            }
+            return parseXML(Channels.newInputStream(ch), context);
+        } catch (IOException ex) {
+            throw new XMLStreamException(ex);
+        }
     }
     /**
      * Parse an XML from the given file.
@@ -124,8 +210,132 @@ public class XNElement extends XElementBase {
      * @throws IOException if the file could not be found or other I/O error occurs
      */
     public static XNElement parseXML(File file) throws IOException, XMLStreamException {
-        try (InputStream in = new FileInputStream(file)) {
-            return parseXML(in);
+        return parseXML(file, XParserContext.DEFAULT);
+    }
+    /**
+     * Parse an XML from the given file.
+     * @param file the file
+     * @param context the parser context
+     * @return the parsed XElement tree
+     * @throws XMLStreamException if an error occurs
+     * @throws IOException if the file could not be found or other I/O error occurs
+     */
+    public static XNElement parseXML(File file, XParserContext context) throws IOException, XMLStreamException {
+        if (context.engine == XParserContext.Engine.UTF8 && file.length() <= XByteParser.MAX_SIZE) {
+            ByteBuffer buf = context.readFile(file);
+            if (XByteParser.isUtf8(buf, buf.position(), buf.limit())) {
+                return XByteParser.parseNElement(buf, context);
+            }
+        }
+        try (InputStream in = context.openFile(file)) {
+            return parseXML(in, context);
+        }
+    }
+    /**
+     * Parse an XML from the given file, building the children of the root
+     * element on multiple threads.
+     * @param file the file
+     * @param pool the pool to parse on
+     * @return the parsed XElement tree
+     * @throws XMLStreamException if an error occurs
+     * @throws IOException if the file could not be found or other I/O error occurs
+     */
+    public static XNElement parseXMLParallel(File file, ForkJoinPool pool) throws IOException, XMLStreamException {
+        return parseXMLParallel(file, pool, XParserContext.DEFAULT);
+    }
+    /**
+     * Parse an XML from the given file, building the children of the root
+     * element on multiple threads.
+     * <p>
+     * Files which are not UTF-8 encoded or are larger than 2 GB are parsed sequentially.
+     * The namespaces declared on the root element are visible to all parsing threads.
+     * @param file the file
+     * @param pool the pool to parse on
+     * @param context the parser context, its shared symbol table, if any, has to be concurrent
+     * @return the parsed XElement tree
+     * @throws XMLStreamException if an error occurs
+     * @throws IOException if the file could not be found or other I/O error occurs
+     */
+    public static XNElement parseXMLParallel(File file, ForkJoinPool pool, XParserContext context) 
+            throws IOException, XMLStreamException {
+        if (file.length() <= XByteParser.MAX_SIZE) {
+            ByteBuffer buf = context.readFile(file);
+            if (XByteParser.isUtf8(buf, buf.position(), buf.limit())) {
+                XSymbolTable symbols = context.concurrentSymbolTable();
+                return XParallelParser.parse(buf, pool, 
+                        () -> new XByteParser.NElementBuilder(symbols, context));
+            }
+        }
+        try (InputStream in = context.openFile(file)) {
+            return parseXML(in, context);
+        }
+    }
+    /**
+     * Parse an XML from the given data lazily: the attributes and children of an element
+     * are built from the retained data when first accessed.
+     * @param data the byte array
+     * @return the parsed XElement tree
+     * @throws XMLStreamException if an error occurs
+     */
+    public static XNElement parseXMLLazy(byte[] data) throws XMLStreamException {
+        return parseXMLLazy(data, XParserContext.DEFAULT);
+    }
+    /**
+     * Parse an XML from the given data lazily: the attributes and children of an element
+     * are built from the retained data when first accessed.
+     * <p>
+     * The content of an element is set when the element itself is built. The parts of
+     * the document which were skipped are checked only when built, reporting
+     * errors with an IllegalStateException from the accessors.
+     * Data which is not UTF-8 encoded is parsed eagerly.
+     * <p>
+     * The input size, depth and element count limits of the context are checked for the
+     * whole document before this method returns. The attribute count and text length
+     * limits are checked when an element is built; exceeding them there throws an
+     * IllegalStateException with the {@link XLimitExceededException} as its cause.
+     * @param data the byte array, should not be modified afterwards
+     * @param context the parser context, its shared symbol table, if any, has to be concurrent
+     * @return the parsed XElement tree
+     * @throws XMLStreamException if an error occurs
+     */
+    public static XNElement parseXMLLazy(byte[] data, XParserContext context) throws XMLStreamException {
+        if (XByteParser.isUtf8(ByteBuffer.wrap(data), 0, data.length)) {
+            return XLazyParser.parseRoot(ByteBuffer.wrap(data), context);
+        }
+        return parseXML(data, context);
+    }
+    /**
+     * Parse an XML from the given file lazily: the attributes and children of an element
+     * are built from the retained file data when first accessed.
+     * @param file the file
+     * @return the parsed XElement tree
+     * @throws XMLStreamException if an error occurs
+     * @throws IOException if the file could not be found or other I/O error occurs
+     */
+    public static XNElement parseXMLLazy(File file) throws IOException, XMLStreamException {
+        return parseXMLLazy(file, XParserContext.DEFAULT);
+    }
+    /**
+     * Parse an XML from the given file lazily: the attributes and children of an element
+     * are built from the retained file data when first accessed.
+     * <p>
+     * Files which are not UTF-8 encoded or are larger than 2 GB are parsed eagerly.
+     * @param file the file, should not be modified while the tree is in use
+     * @param context the parser context, its shared symbol table, if any, has to be concurrent
+     * @return the parsed XElement tree
+     * @throws XMLStreamException if an error occurs
+     * @throws IOException if the file could not be found or other I/O error occurs
+     * @see #parseXMLLazy(byte[], XParserContext)
+     */
+    public static XNElement parseXMLLazy(File file, XParserContext context) throws IOException, XMLStreamException {
+        if (file.length() <= XByteParser.MAX_SIZE) {
+            ByteBuffer buf = context.readFile(file);
+            if (XByteParser.isUtf8(buf, buf.position(), buf.limit())) {
+                return XLazyParser.parseRoot(buf, context);
+            }
+        }
+        try (InputStream in = context.openFile(file)) {
+            return parseXML(in, context);
         }
     }
     /**
@@ -135,9 +345,71 @@ public class XNElement extends XElementBase {
      * @throws XMLStreamException if an error occurs
      */
     public static XNElement parseXML(InputStream in) throws XMLStreamException {
-        XMLInputFactory inf = XMLInputFactory.newInstance();
-        XMLStreamReader ir = inf.createXMLStreamReader(in);
-        return parseXML(ir);
+        return parseXML(in, XParserContext.DEFAULT);
+    }
+    /**
+     * Parse XML from the input stream. Does not close the stream.
+     * @param in the InputStream object
+     * @param context the parser context
+     * @return the parsed XElement tree
+     * @throws XMLStreamException if an error occurs
+     */
+    public static XNElement parseXML(InputStream in, XParserContext context) throws XMLStreamException {
+        XMLStreamReader ir = context.createXMLStreamReader(in);
+        return parseXML(ir, context.symbolTable(), context.limits);
+    }
+    /**
+     * Parse the parts of an XML document selected by the projection from the given input stream.
+     * Does not close the stream.
+     * @param in the input stream
+     * @param projection the paths to keep
+     * @return the root element
+     * @throws XMLStreamException on error
+     */
+    public static XNElement parseXML(InputStream in, XProjection projection) throws XMLStreamException {
+        return parseXML(in, projection, XParserContext.DEFAULT);
+    }
+    /**
+     * Parse the parts of an XML document selected by the projection from the given input stream.
+     * Does not close the stream.
+     * @param in the input stream
+     * @param projection the paths to keep
+     * @param context the parser context
+     * @return the root element
+     * @throws XMLStreamException on error
+     */
+    public static XNElement parseXML(InputStream in, XProjection projection, XParserContext context) throws XMLStreamException {
+        XMLStreamReader ir = context.createXMLStreamReader(in);
+        try {
+            return projection.parse(ir, new XProjection.NElementBuilder(context.symbolTable(), context.limits));
+        } finally {
+            ir.close();
+        }
+    }
+    /**
+     * Parse the parts of an XML document selected by the projection from the given file.
+     * @param file the file
+     * @param projection the paths to keep
+     * @return the root element
+     * @throws XMLStreamException on error
+     */
+    public static XNElement parseXML(File file, XProjection projection) throws XMLStreamException {
+        return parseXML(file, projection, XParserContext.DEFAULT);
+    }
+    /**
+     * Parse the parts of an XML document selected by the projection from the given file.
+     * @param file the file
+     * @param projection the paths to keep
+     * @param context the parser context
+     * @return the root element
+     * @throws XMLStreamException on error
+     */
+    public static XNElement parseXML(File file, XProjection projection, XParserContext context) throws XMLStreamException {
+        try (InputStream in = context.openFile(file)) {
+            return parseXML(in, projection, context);
+        } catch (IOException ex) {
+            throw new XMLStreamException(ex);
+        }
     }
     /**
      * Parse an XML from the given Reader.
@@ -146,9 +418,18 @@ public class XNElement extends XElementBase {
      * @throws XMLStreamException if an error occurs
      */
     public static XNElement parseXML(Reader in) throws XMLStreamException {
-        XMLInputFactory inf = XMLInputFactory.newInstance();
-        XMLStreamReader ir = inf.createXMLStreamReader(in);
-        return parseXML(ir);
+        return parseXML(in, XParserContext.DEFAULT);
+    }
+    /**
+     * Parse an XML from the given Reader.
+     * @param in the Reader
+     * @param context the parser context
+     * @return the parsed XElement tree
+     * @throws XMLStreamException if an error occurs
+     */
+    public static XNElement parseXML(Reader in, XParserContext context) throws XMLStreamException {
+        XMLStreamReader ir = context.createXMLStreamReader(in);
+        return parseXML(ir, context.symbolTable(), context.limits);
     }
     /**
      * Reads the contents of a indexed column as an XML.
@@ -161,9 +442,23 @@ public class XNElement extends XElementBase {
      */
     public static XNElement parseXML(ResultSet rs, int index) 
             throws SQLException, IOException, XMLStreamException {
+        return parseXML(rs, index, XParserContext.DEFAULT);
+    }
+    /**
+     * Reads the contents of a indexed column as an XML.
+     * @param rs the result set to read from
+     * @param index the column index
+     * @param context the parser context
+     * @return the parsed XNElement or null if the column contained null
+     * @throws SQLException on SQL error
+     * @throws IOException on IO error
+     * @throws XMLStreamException on parsing error
+     */
+    public static XNElement parseXML(ResultSet rs, int index, XParserContext context) 
+            throws SQLException, IOException, XMLStreamException {
         try (InputStream is = rs.getBinaryStream(index)) {
             if (is != null) {
-                return parseXML(is);
+                return parseXML(is, context);
             }
             return null;
         }
@@ -179,9 +474,23 @@ public class XNElement extends XElementBase {
      */
     public static XNElement parseXML(ResultSet rs, String column) 
             throws SQLException, IOException, XMLStreamException {
+        return parseXML(rs, column, XParserContext.DEFAULT);
+    }
+    /**
+     * Reads the contents of a named column as an XML.
+     * @param rs the result set to read from
+     * @param column the column name
+     * @param context the parser context
+     * @return the parsed XNElement or null if the column contained null
+     * @throws SQLException on SQL error
+     * @throws IOException on IO error
+     * @throws XMLStreamException on parsing error
+     */
+    public static XNElement parseXML(ResultSet rs, String column, XParserContext context) 
+            throws SQLException, IOException, XMLStreamException {
         try (InputStream is = rs.getBinaryStream(column)) {
             if (is != null) {
-                return parseXML(is);
+                return parseXML(is, context);
             }
             return null;
         }
@@ -194,9 +503,18 @@ public class XNElement extends XElementBase {
      * @throws IOException if the file could not be found or other I/O error occurs
      */
     public static XNElement parseXML(String fileName) throws IOException, XMLStreamException {
-        try (InputStream in = new FileInputStream(fileName)) {
-            return parseXML(in);
-        }
+        return parseXML(fileName, XParserContext.DEFAULT);
+    }
+    /**
+     * Parse an XML from the given file.
+     * @param fileName the file name
+     * @param context the parser context
+     * @return the parsed XElement tree
+     * @throws XMLStreamException if an error occurs
+     * @throws IOException if the file could not be found or other I/O error occurs
+     */
+    public static XNElement parseXML(String fileName, XParserContext context) throws IOException, XMLStreamException {
+        return parseXML(new File(fileName), context);
     }
     /**
      * Parse an XML from the supplied URL.
@@ -206,8 +524,19 @@ public class XNElement extends XElementBase {
      * @throws XMLStreamException if a parser error occurs
      */
     public static XNElement parseXML(URL url) throws IOException, XMLStreamException {
+        return parseXML(url, XParserContext.DEFAULT);
+    }
+    /**
+     * Parse an XML from the supplied URL.
+     * @param url the target URL
+     * @param context the parser context
+     * @return the parsed XML
+     * @throws IOException if an I/O error occurs
+     * @throws XMLStreamException if a parser error occurs
+     */
+    public static XNElement parseXML(URL url, XParserContext context) throws IOException, XMLStreamException {
         try (InputStream in = new BufferedInputStream(url.openStream())) {
-            return parseXML(in);
+            return parseXML(in, context);
         }
     }
     /**
@@ -218,7 +547,30 @@ public class XNElement extends XElementBase {
      * @throws XMLStreamException if an error occurs
      */
     public static XNElement parseXML(XMLStreamReader in) throws XMLStreamException {
-        XNElement root = parseXMLFragment(in);
+        return parseXML(in, new XSymbolTable());
+    }
+    /**
+     * Parse an XML from the given XML Stream reader.
+     * Closes the {@code in} stream.
+     * @param in the XMLStreamReader
+     * @param symbols the symbol table to intern the names with
+     * @return the parsed XElement tree
+     * @throws XMLStreamException if an error occurs
+     */
+    public static XNElement parseXML(XMLStreamReader in, XSymbolTable symbols) throws XMLStreamException {
+        return parseXML(in, symbols, XParserLimits.UNLIMITED);
+    }
+    /**
+     * Parse an XML from the given XML Stream reader.
+     * Closes the {@code in} stream.
+     * @param in the XMLStreamReader
+     * @param symbols the symbol table to intern the names with
+     * @param limits the resource limits
+     * @return the parsed XElement tree
+     * @throws XMLStreamException if an error occurs
+     */
+    public static XNElement parseXML(XMLStreamReader in, XSymbolTable symbols, XParserLimits limits) throws XMLStreamException {
+        XNElement root = parseXMLFragment(in, symbols, limits);
         in.close();
         return root;
     }
@@ -232,33 +584,111 @@ public class XNElement extends XElementBase {
      */
     public static XNElement parseXMLFragment(XMLStreamReader in)
             throws XMLStreamException {
+        return parseXMLFragment(in, new XSymbolTable());
+    }
+    /**
+     * Parses the stream until the end element of the start element is reached, then
+     * returns. The method can be used to parse streamed fragment XML on a per node basis.
+     * It does not close the {@code in} reader.
+     * @param in the input reader
+     * @param symbols the symbol table to intern the names with
+     * @return the parsed XElement tree
+     * @throws XMLStreamException if an error occurs
+     */
+    public static XNElement parseXMLFragment(XMLStreamReader in, XSymbolTable symbols)
+            throws XMLStreamException {
+        return parseXMLFragment(in, symbols, XParserLimits.UNLIMITED);
+    }
+    /**
+     * Parses the stream until the end element of the start element is reached, then
+     * returns. The method can be used to parse streamed fragment XML on a per node basis.
+     * It does not close the {@code in} reader.
+     * @param in the input reader
+     * @param symbols the symbol table to intern the names with
+     * @param limits the resource limits, checked as the fragment is parsed
+     * @return the parsed XElement tree
+     * @throws XMLStreamException if an error occurs
+     */
+    public static XNElement parseXMLFragment(XMLStreamReader in, XSymbolTable symbols, XParserLimits limits)
+            throws XMLStreamException {
+        if (in.hasNext()) {
+            in.next();
+            return parseXMLActiveFragment(in, symbols, limits);
+        }
+        return null;
+    }
+    /**
+     * Parses the stream as a fragment from the current element and returns an XNElement.
+     * It does not close the {@code in} reader.
+     * @param in the XML stream reader
+     * @return the parsed XNElement instance
+     * @throws XMLStreamException in case there is a parsing error
+     */
+    public static XNElement parseXMLActiveFragment(XMLStreamReader in)
+            throws XMLStreamException {
+        return parseXMLActiveFragment(in, new XSymbolTable());
+    }
+    /**
+     * Parses the stream as a fragment from the current element and returns an XNElement.
+     * It does not close the {@code in} reader.
+     * @param in the XML stream reader
+     * @param symbols the symbol table to intern the names, namespaces and prefixes with
+     * @return the parsed XNElement instance
+     * @throws XMLStreamException in case there is a parsing error
+     */
+    public static XNElement parseXMLActiveFragment(XMLStreamReader in, XSymbolTable symbols)
+            throws XMLStreamException {
+        return parseXMLActiveFragment(in, symbols, XParserLimits.UNLIMITED);
+    }
+    /**
+     * Parses the stream as a fragment from the current element and returns an XNElement.
+     * It does not close the {@code in} reader.
+     * @param in the XML stream reader
+     * @param symbols the symbol table to intern the names, namespaces and prefixes with
+     * @param limits the resource limits, checked before the elements and texts exceeding them are created
+     * @return the parsed XNElement instance
+     * @throws XMLStreamException in case there is a parsing error or a limit is exceeded
+     */
+    public static XNElement parseXMLActiveFragment(XMLStreamReader in, XSymbolTable symbols, XParserLimits limits)
+            throws XMLStreamException {
         XNElement node = null;
         XNElement root = null;
         final StringBuilder emptyBuilder = new StringBuilder();
         StringBuilder b = null;
         Deque<StringBuilder> stack = new LinkedList<>();
+        long elements = 0;
         
-        while (in.hasNext()) {
-            int type = in.next();
+        int type = in.getEventType();
+        
+        for (;;) {
             switch(type) {
             case XMLStreamConstants.START_ELEMENT:
+                if (stack.size() >= limits.maxDepth) {
+                    throw limits.exceeded(XParserLimits.Limit.DEPTH, in.getLocation());
+                }
+                if (++elements > limits.maxElements) {
+                    throw limits.exceeded(XParserLimits.Limit.ELEMENTS, in.getLocation());
+                }
                 if (b != null) {
                     stack.push(b);
                     b = null;
                 } else {
                     stack.push(emptyBuilder);
                 }
-                XNElement n = new XNElement(in.getName().getLocalPart());
-                n.namespace = in.getNamespaceURI();
-                n.prefix = in.getPrefix();
+                XNElement n = new XNElement(symbols.intern(in.getLocalName()));
+                n.namespace = symbols.intern(in.getNamespaceURI());
+                n.prefix = symbols.intern(in.getPrefix());
                 n.parent = node;
                 int attCount = in.getAttributeCount();
+                if (attCount > limits.maxAttributes) {
+                    throw limits.exceeded(XParserLimits.Limit.ATTRIBUTES, in.getLocation());
+                }
                 if (attCount > 0) {
                     for (int i = 0; i < attCount; i++) {
-                        n.attributes.put(new XAttributeName(
-                                in.getAttributeLocalName(i), 
-                                in.getAttributeNamespace(i),
-                                in.getAttributePrefix(i)
+                        n.attributes.put(symbols.attributeName(
+                                symbols.intern(in.getAttributeLocalName(i)), 
+                                symbols.intern(in.getAttributeNamespace(i)),
+                                symbols.intern(in.getAttributePrefix(i))
                         ), in.getAttributeValue(i));
                     }
                 }
@@ -273,10 +703,24 @@ public class XNElement extends XElementBase {
             case XMLStreamConstants.CDATA:
             case XMLStreamConstants.CHARACTERS:
                 if (node != null && !in.isWhiteSpace()) {
-                    if (b == null) {
-                        b = new StringBuilder();
+                    String c = node.content;
+                    int len = in.getTextLength();
+                    if (c == null) {
+                        if (len > limits.maxTextLength) {
+                            throw limits.exceeded(XParserLimits.Limit.TEXT_LENGTH, in.getLocation());
+                        }
+                        // a single text run is kept as is
+                        node.content = in.getText();
+                    } else {
+                        if ((long)(b != null ? b.length() : c.length()) + len > limits.maxTextLength) {
+                            throw limits.exceeded(XParserLimits.Limit.TEXT_LENGTH, in.getLocation());
+                        }
+                        if (b == null) {
+                            b = new StringBuilder(c.length() + len);
+                            b.append(c);
+                        }
+                        b.append(in.getTextCharacters(), in.getTextStart(), in.getTextLength());
                     }
-                    b.append(in.getText());
                 }
                 break;
             case XMLStreamConstants.END_ELEMENT:
@@ -300,6 +744,12 @@ public class XNElement extends XElementBase {
             default:
                 // ignore others.
             }
+            
+            if (in.hasNext()) {
+                type = in.next();
+            } else {
+                break;
+            }
         }
         return root;
     }
@@ -310,8 +760,49 @@ public class XNElement extends XElementBase {
      * @throws XMLStreamException on error
      */
     public static XNElement parseXMLGZ(File file) throws XMLStreamException {
-        try (GZIPInputStream gin = new GZIPInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024))) {
-            return parseXML(gin);
+        return parseXMLGZ(file, XParserContext.DEFAULT);
+    }
+    /**
+     * Parse an XML file compressed by GZIP.
+     * @param file the file
+     * @param context the parser context
+     * @return the parsed XML
+     * @throws XMLStreamException on error
+     */
+    public static XNElement parseXMLGZ(File file, XParserContext context) throws XMLStreamException {
+        try (GZIPInputStream gin = new GZIPInputStream(context.openFile(file), 64 * 1024)) {
+            return parseXML(gin, context);
+        } catch (IOException ex) {
+            throw new XMLStreamException(ex);
+        }
+    }
+    /**
+     * Parse an XML file compressed by GZIP, decompressing ahead of the parser on the pool.
+     * <p>
+     * Files consisting of BGZF blocks, as written by bgzip, are inflated on multiple threads;
+     * other gzip files are inflated on one pool thread while the caller parses.
+     * @param file the file
+     * @param pool the pool to decompress on
+     * @return the parsed XML
+     * @throws XMLStreamException on error
+     */
+    public static XNElement parseXMLGZ(File file, ForkJoinPool pool) throws XMLStreamException {
+        return parseXMLGZ(file, pool, XParserContext.DEFAULT);
+    }
+    /**
+     * Parse an XML file compressed by GZIP, decompressing ahead of the parser on the pool.
+     * <p>
+     * Files consisting of BGZF blocks, as written by bgzip, are inflated on multiple threads;
+     * other gzip files are inflated on one pool thread while the caller parses.
+     * @param file the file
+     * @param pool the pool to decompress on
+     * @param context the parser context
+     * @return the parsed XML
+     * @throws XMLStreamException on error
+     */
+    public static XNElement parseXMLGZ(File file, ForkJoinPool pool, XParserContext context) throws XMLStreamException {
+        try (InputStream in = XGZipInput.open(file, pool)) {
+            return parseXML(in, context);
         } catch (IOException ex) {
             throw new XMLStreamException(ex);
         }
@@ -325,10 +816,105 @@ public class XNElement extends XElementBase {
     public static XNElement parseXMLGZ(String fileName) throws XMLStreamException {
         return parseXMLGZ(new File(fileName));
     }
-    /** The attribute map. */
-    protected final Map<XAttributeName, String> attributes = new LinkedHashMap<>();
-    /** The child elements. */
-    protected final List<XNElement> children = new ArrayList<>();
+    /**
+     * Parse an XML file compressed by GZIP.
+     * @param fileName the filename
+     * @param context the parser context
+     * @return the parsed XML
+     * @throws XMLStreamException on error
+     */
+    public static XNElement parseXMLGZ(String fileName, XParserContext context) throws XMLStreamException {
+        return parseXMLGZ(new File(fileName), context);
+    }
+    /**
+     * Parses the records with the given element name and namespace one by one from the input stream.
+     * <p>
+     * A record is the outermost element with the given name, at any depth; the stream
+     * returns each fully built record subtree and doesn't retain it afterwards, allowing
+     * arbitrarily large documents to be processed. Parse errors are thrown as
+     * IllegalStateExceptions wrapping the XMLStreamException.
+     * Closing the returned stream closes the XMLStreamReader but not the input stream.
+     * @param in the input stream
+     * @param name the record element local name
+     * @param namespace the record element namespace URI, null for no namespace
+     * @return the stream of records
+     * @throws XMLStreamException on error
+     */
+    public static Stream<XNElement> streamChildren(InputStream in, String name, String namespace) throws XMLStreamException {
+        return streamChildren(in, name, namespace, XParserContext.DEFAULT);
+    }
+    /**
+     * Parses the records with the given element name and namespace one by one from the input stream.
+     * <p>
+     * A record is the outermost element with the given name, at any depth; the stream
+     * returns each fully built record subtree and doesn't retain it afterwards, allowing
+     * arbitrarily large documents to be processed. Parse errors are thrown as
+     * IllegalStateExceptions wrapping the XMLStreamException.
+     * Closing the returned stream closes the XMLStreamReader but not the input stream.
+     * @param in the input stream
+     * @param name the record element local name
+     * @param namespace the record element namespace URI, null for no namespace
+     * @param context the parser context
+     * @return the stream of records
+     * @throws XMLStreamException on error
+     */
+    public static Stream<XNElement> streamChildren(InputStream in, String name, String namespace, 
+            XParserContext context) throws XMLStreamException {
+        XMLStreamReader ir = context.createXMLStreamReader(in);
+        XSymbolTable symbols = context.symbolTable();
+        return new XRecordIterator<>(ir, 
+                r -> name.equals(r.getLocalName()) && Objects.equals(namespace, r.getNamespaceURI()), 
+                r -> parseXMLActiveFragment(r, symbols, context.limits)).stream();
+    }
+    /**
+     * Publishes the records with the given element name and namespace of the input stream,
+     * parsing them on the executor as the subscriber requests them.
+     * <p>
+     * A record is the outermost element with the given name, at any depth. Nothing is read
+     * until the first request and at most the requested number of records are parsed, so a slow
+     * subscriber throttles the reading. The publisher accepts one subscriber; parse errors are
+     * signalled as XMLStreamExceptions. The XMLStreamReader and the input stream are closed after
+     * the last record, on error and on cancellation.
+     * @param in the input stream
+     * @param name the record element local name
+     * @param namespace the record element namespace URI, null for no namespace
+     * @param executor the executor to read and parse on
+     * @return the publisher of records
+     */
+    public static XFlow.Publisher<XNElement> publishChildren(InputStream in, String name, String namespace, Executor executor) {
+        return publishChildren(in, name, namespace, executor, XParserContext.DEFAULT);
+    }
+    /**
+     * Publishes the records with the given element name and namespace of the input stream,
+     * parsing them on the executor as the subscriber requests them.
+     * <p>
+     * A record is the outermost element with the given name, at any depth. Nothing is read
+     * until the first request and at most the requested number of records are parsed, so a slow
+     * subscriber throttles the reading. The publisher accepts one subscriber; parse errors are
+     * signalled as XMLStreamExceptions. The XMLStreamReader and the input stream are closed after
+     * the last record, on error and on cancellation.
+     * @param in the input stream
+     * @param name the record element local name
+     * @param namespace the record element namespace URI, null for no namespace
+     * @param executor the executor to read and parse on
+     * @param context the parser context
+     * @return the publisher of records
+     */
+    public static XFlow.Publisher<XNElement> publishChildren(InputStream in, String name, String namespace, Executor executor,
+            XParserContext context) {
+        return new XRecordPublisher<>(in, () -> {
+            XSymbolTable symbols = context.symbolTable();
+            return new XRecordIterator<>(context.createXMLStreamReader(in),
+                    r -> name.equals(r.getLocalName()) && Objects.equals(namespace, r.getNamespaceURI()),
+                    r -> parseXMLActiveFragment(r, symbols, context.limits));
+        }, executor);
+    }
+    /** The attribute map. Subclasses should call {@link #materialize()} before accessing it directly. */
+    protected final Map<XAttributeName, String> attributes = new XAttributeMap.Namespaced();
+    /** The child elements. Subclasses should call {@link #materialize()} before accessing it directly. */
+    protected final List<XNElement> children = new XChildList<>();
+    /** The state of a lazily parsed element whose attributes and children haven't been built yet. */
+    volatile XLazyParser.Pending pending;
     /** The optional associated namespace uri. */
     public String namespace;
     /** The parent element. */
@@ -370,12 +956,33 @@ public class XNElement extends XElementBase {
         this(name, namespace);
         setValue(value);
     }
+    /**
+     * Builds the attributes and children of a lazily parsed element
+     * if they haven't been built yet.
+     * @throws IllegalStateException if the element's part of the document is malformed
+     */
+    protected final void materialize() {
+        if (pending != null) {
+            synchronized (this) {
+                XLazyParser.Pending p = pending;
+                if (p != null) {
+                    try {
+                        XLazyParser.build(this, p);
+                    } catch (XMLStreamException ex) {
+                        throw new IllegalStateException(ex);
+                    }
+                    pending = null;
+                }
+            }
+        }
+    }
     /**
      * Add a new XElement with the given local name and no namespace.
      * @param name the name of the new element
      * @return the created XElement child
      */
     public XNElement add(String name) {
+        materialize();
         XNElement e = new XNElement(name);
         e.parent = this;
         children.add(e);
@@ -388,6 +995,7 @@ public class XNElement extends XElementBase {
      * @return the created XElement child
      */
     public XNElement add(String name, String namespace) {
+        materialize();
         XNElement e = new XNElement(name);
         e.namespace = namespace;
         e.parent = this;
@@ -400,6 +1008,7 @@ public class XNElement extends XElementBase {
      * @return the child element
      */
     public XNElement add(XNElement child) {
+        materialize();
         child.parent = this;
         children.add(child);
         return child;
@@ -408,20 +1017,34 @@ public class XNElement extends XElementBase {
      * @return the attribute map
      */
     public Map<XAttributeName, String> attributes() {
+        materialize();
         return attributes;
     }
+    /**
+     * Enables or disables caching the parsed numbers on this element and all of its descendants.
+     * @param enabled enable the cache?
+     * @see XElementBase#cacheValues(boolean)
+     */
+    @Override
+    public void cacheValues(boolean enabled) {
+        Deque<XNElement> queue = new ArrayDeque<>();
+        queue.push(this);
+        while (!queue.isEmpty()) {
+            XNElement e = queue.pop();
+            e.cacheValue(enabled);
+            for (XNElement c : e.children()) {
+                queue.push(c);
+            }
+        }
+    }
     /**
      * Returns the first child element with the given name.
      * @param name the child name
      * @return the XElement or null if not present
      */
     public XNElement childElement(String name) {
-        for (XNElement e : children) {
-            if (e.name.equals(name)) {
-                return e;
-            }
-        }
-        return null;
+        materialize();
+        return XChildList.first(children, name);
     }
     /**
      * Returns the first child element with the given name.
@@ -430,7 +1053,8 @@ public class XNElement extends XElementBase {
      * @return the XElement or null if not present
      */
     public XNElement childElement(String name, String namespace) {
-        for (XNElement e : children) {
+        materialize();
+        for (XNElement e : XChildList.candidates(children, name)) {
             if (Objects.equals(e.name, name) && Objects.equals(e.namespace, namespace)) {
                 return e;
             }
@@ -440,6 +1064,7 @@ public class XNElement extends XElementBase {
     /** @return the iterable for all children. */
     
     public List<XNElement> children() {
+        materialize();
         return children;
     }
     /*
@@ -450,41 +1075,30 @@ public class XNElement extends XElementBase {
     */
     /**
      * Returns an iterator which enumerates all children with the given name.
+     * The returned list is unmodifiable and doesn't reflect later changes.
      * @param name the name of the children to select
      * @return the iterator
      */
     public List<XNElement> childrenWithName(final String name) {
-        List<XNElement> result = new ArrayList<>();
-        for (XNElement c : children) {
-            if (Objects.equals(c.name, name)) {
-                result.add(c);
-            }
-        }
-        return result;
+        materialize();
+        return XChildList.withName(children, name);
     }
     /**
      * Returns an iterator which enumerates all children with the given name.
+     * The returned list is unmodifiable and doesn't reflect later changes.
      * @param name the name of the children to select
      * @param namespace the namespace URI
      * @return the iterator
      */
     public List<XNElement> childrenWithName(final String name, final String namespace) {
-        List<XNElement> result = new ArrayList<>();
-        for (XNElement c : children) {
-            if (Objects.equals(c.name, name) && Objects.equals(c.namespace, namespace)) {
-                result.add(c);
-            }
-        }
-        return result;
+        materialize();
+        return XChildList.withName(children, name, namespace);
     }
     @Override
     public String childValue(String name) {
-        for (XNElement e : children) {
-            if (e.name.equals(name)) {
-                return e.content;
-            }
-        }
-        return null;
+        materialize();
+        XNElement e = XChildList.first(children, name);
+        return e != null ? e.content : null;
     }
     /**
      * Returns the content of the first child which has the given name.
@@ -493,7 +1107,8 @@ public class XNElement extends XElementBase {
      * @return the content or null if no such child
      */
     public String childValue(String name, String namespace) {
-        for (XNElement e : children) {
+        materialize();
+        for (XNElement e : XChildList.candidates(children, name)) {
             if (Objects.equals(e.name, name) && Objects.equals(e.namespace, namespace)) {
                 return e.content;
             }
@@ -515,6 +1130,8 @@ public class XNElement extends XElementBase {
      * @param other the other element
      */
     public void copyFrom(XNElement other) {
+        materialize();
+        other.materialize();
         content = other.content;
         userObject = other.userObject;
         for (Map.Entry<XAttributeName, String> me : other.attributes.entrySet()) {
@@ -615,7 +1232,7 @@ public class XNElement extends XElementBase {
     public double doubleValue(String name, String namespace) {
         String s = childValue(name, namespace);
         if (s != null) {
-            return Double.parseDouble(s);
+            return parseDouble(s);
         }
         throw new IllegalArgumentException(this + ": content: " + name);
     }
@@ -629,7 +1246,7 @@ public class XNElement extends XElementBase {
     public double doubleValue(String name, String namespace, double defaultValue) {
         String s = childValue(name, namespace);
         if (s != null) {
-            return Double.parseDouble(s);
+            return parseDouble(s);
         }
         return defaultValue;
     }
@@ -642,6 +1259,8 @@ public class XNElement extends XElementBase {
         if (!Objects.equals(this.content, other.content)) {
             return false;
         }
+        materialize();
+        other.materialize();
         if (!this.attributes.equals(other.attributes)) {
             return false;
         }
@@ -665,17 +1284,9 @@ public class XNElement extends XElementBase {
      * @return the attribute value or null if no such attribute
      */
     public String get(String attributeName) {
-        // check first for a namespace-less attribute
-        String attr = attributes.get(new XAttributeName(attributeName, null, null));
-        if (attr == null) {
-            // find any attribute ignoring namespace
-            for (XAttributeName n : attributes.keySet()) {
-                if (Objects.equals(n.name, attributeName)) {
-                    return attributes.get(n);
-                }
-            }
-        }
-        return attr;
+        materialize();
+        // check first for a namespace-less attribute, then any attribute ignoring namespace
+        return ((XAttributeMap.Namespaced)attributes).getAny(attributeName);
     }
     /**
      * Retrieve the specific attribute.
@@ -684,13 +1295,15 @@ public class XNElement extends XElementBase {
      * @return the attribute value or null if not present
      */
     public String get(String attributeName, String attributeNamespace) {
-        return attributes.get(new XAttributeName(attributeName, attributeNamespace, null));
+        materialize();
+        return ((XAttributeMap.Namespaced)attributes).get(attributeName, attributeNamespace);
     }
     /**
      * Retrieve the attribute names.
      * @return the list of attribute names
      */
     public List<XAttributeName> getAttributeNames() {
+        materialize();
         return new ArrayList<>(attributes.keySet());
     }
     /**
@@ -760,13 +1373,34 @@ public class XNElement extends XElementBase {
         }
         return defaultValue;
     }
+    /**
+     * Returns the attribute as a timestamp; a timestamp without offset is in UTC.
+     * @param name the attribute name
+     * @return the timestamp or null if the attribute is missing
+     * @throws java.time.format.DateTimeParseException if the value is not a valid timestamp
+     */
+    public OffsetDateTime getDateTime(String name) {
+        String v = get(name);
+        return v != null ? XDateTime.parse(v) : null;
+    }
+    /**
+     * Returns the attribute as a timestamp; a timestamp without offset is in UTC.
+     * @param name the attribute name
+     * @param namespace the attribute namespace
+     * @return the timestamp or null if the attribute is missing
+     * @throws java.time.format.DateTimeParseException if the value is not a valid timestamp
+     */
+    public OffsetDateTime getDateTime(String name, String namespace) {
+        String v = get(name, namespace);
+        return v != null ? XDateTime.parse(v) : null;
+    }
     /**
      * Returns the attribute as a double value.
      * @param name the attribute name
      * @return the value
      */
     public double getDouble(String name) {
-        return Double.parseDouble(get(name));
+        return parseDouble(get(name));
     }
     /**
      * Returns the attribute as a double value or the default.
@@ -776,7 +1410,7 @@ public class XNElement extends XElementBase {
      */
     public double getDouble(String name, double defaultValue) {
         String v = get(name);
-        return v != null ? Double.parseDouble(v) : defaultValue;
+        return v != null ? parseDouble(v) : defaultValue;
     }
     /**
      * Returns the attribute as a double value.
@@ -785,7 +1419,7 @@ public class XNElement extends XElementBase {
      * @return the value
      */
     public double getDouble(String name, String namespace) {
-        return Double.parseDouble(get(name, namespace));
+        return parseDouble(get(name, namespace));
     }
     /**
      * Returns the attribute as a double value or the default.
@@ -796,7 +1430,7 @@ public class XNElement extends XElementBase {
      */
     public double getDouble(String name, String namespace, double defaultValue) {
         String v = get(name, namespace);
-        return v != null ? Double.parseDouble(v) : defaultValue;
+        return v != null ? parseDouble(v) : defaultValue;
     }
     /**
      * Retrieve an integer attribute. Throws exception if the attribute is missing.
@@ -804,7 +1438,7 @@ public class XNElement extends XElementBase {
      * @return the value
      */
     public int getInt(String attribute) {
-        return Integer.parseInt(get(attribute));
+        return parseInt(get(attribute));
     }
     /**
      * Retrieve an integer attribute or the default value if not exists.
@@ -817,7 +1451,7 @@ public class XNElement extends XElementBase {
         if (value == null) {
             return defaultValue;
         }
-        return Integer.parseInt(value);
+        return parseInt(value);
     }
     /**
      * Retrieve an integer attribute or the default value if not exists.
@@ -826,7 +1460,7 @@ public class XNElement extends XElementBase {
      * @return the value
      */
     public int getInt(String attribute, String namespace) {
-        return Integer.parseInt(get(attribute, namespace));
+        return parseInt(get(attribute, namespace));
     }
     /**
      * Retrieve an integer attribute or the default value if not exists.
@@ -840,7 +1474,7 @@ public class XNElement extends XElementBase {
         if (value == null) {
             return defaultValue;
         }
-        return Integer.parseInt(value);
+        return parseInt(value);
     }
     /**
      * Retrieve an long attribute or throw an exception if not exists.
@@ -848,7 +1482,7 @@ public class XNElement extends XElementBase {
      * @return the value
      */
     public long getLong(String attribute) {
-        return Long.parseLong(get(attribute));
+        return parseLong(get(attribute));
     }
     /**
      * Retrieve an long attribute or the default value if not exists.
@@ -861,7 +1495,7 @@ public class XNElement extends XElementBase {
         if (value == null) {
             return defaultValue;
         }
-        return Long.parseLong(value);
+        return parseLong(value);
     }
     /**
      * Retrieve an integer attribute or throw an exception if not exists.
@@ -870,7 +1504,7 @@ public class XNElement extends XElementBase {
      * @return the value
      */
     public long getLong(String attribute, String namespace) {
-        return Long.parseLong(get(attribute, namespace));
+        return parseLong(get(attribute, namespace));
     }
     /**
      * Retrieve an integer attribute or the default value if not exists.
@@ -884,7 +1518,7 @@ public class XNElement extends XElementBase {
         if (value == null) {
             return defaultValue;
         }
-        return Long.parseLong(value);
+        return parseLong(value);
     }
     /**
      * @return Construct the XPath expression to locate this element. 
@@ -948,14 +1582,17 @@ public class XNElement extends XElementBase {
     }
     /** @return if this node has attributes or not. */
     public boolean hasAttributes() {
+        materialize();
         return !attributes.isEmpty();
     }
     /** @return if this node has children or not. */
     public boolean hasChildren() {
+        materialize();
         return !children.isEmpty();
     }
     @Override
     public int hashCode() {
+        materialize();
         return Objects.hash(attributes, content, children);
     }
     /**
@@ -975,6 +1612,21 @@ public class XNElement extends XElementBase {
     public boolean hasName(String name, String namespace) {
         return hasName(name) && Objects.equals(this.namespace, namespace);
     }
+    /**
+     * Returns the content of the first child with the given name and namespace as a timestamp.
+     * A timestamp without offset is in UTC.
+     * @param name the child element name
+     * @param namespace the element namespace
+     * @return the timestamp or null if no such child or it has no content
+     * @throws java.time.format.DateTimeParseException if the content is not a valid timestamp
+     */
+    public OffsetDateTime childDateTime(String name, String namespace) {
+        String s = childValue(name, namespace);
+        if (s != null) {
+            return XDateTime.parse(s);
+        }
+        return null;
+    }
     /**
      * Returns an integer value of the supplied child or throws an exception if missing.
      * @param name the child element name
@@ -984,7 +1636,7 @@ public class XNElement extends XElementBase {
     public int intValue(String name, String namespace) {
         String s = childValue(name, namespace);
         if (s != null) {
-            return Integer.parseInt(s);
+            return parseInt(s);
         }
         throw new IllegalArgumentException(this + ": content: " + name);
     }
@@ -998,7 +1650,7 @@ public class XNElement extends XElementBase {
     public int intValue(String name, String namespace, int defaultValue) {
         String s = childValue(name, namespace);
         if (s != null) {
-            return Integer.parseInt(s);
+            return parseInt(s);
         }
         return defaultValue;
     }
@@ -1011,7 +1663,7 @@ public class XNElement extends XElementBase {
     public long longValue(String name, String namespace) {
         String s = childValue(name, namespace);
         if (s != null) {
-            return Long.parseLong(s);
+            return parseLong(s);
         }
         throw new IllegalArgumentException(this + ": content: " + name);
     }
@@ -1025,7 +1677,7 @@ public class XNElement extends XElementBase {
     public long longValue(String name, String namespace, long defaultValue) {
         String s = childValue(name, namespace);
         if (s != null) {
-            return Long.parseLong(s);
+            return parseLong(s);
         }
         return defaultValue;
     }
@@ -1063,23 +1715,7 @@ public class XNElement extends XElementBase {
      * @throws IOException on error
      */
     public void save(Writer stream) throws IOException {
-        final PrintWriter out = new PrintWriter(new BufferedWriter(stream));
-        try {
-            out.println("<?xml version='1.0' encoding='UTF-8'?>");
-            toStringRep("", new HashMap<String, String>(), new XNAppender() {
-                @Override
-                public XNAppender append(Object o) {
-                    out.print(o);
-                    return this;
-                }
-                @Override
-                public int length() {
-                    return 0; // Not used here
-                }
-            }, null);
-        } finally {
-            out.flush();
-        }
+        XWriter.pretty(stream).header().write(this).flush();
     }
     /**
      * Save the tree into the given XML stream writer.
@@ -1104,6 +1740,7 @@ public class XNElement extends XElementBase {
         } else {
             stream.writeStartElement(name);
         }
+        materialize();
         for (Map.Entry<XAttributeName, String> a : attributes.entrySet()) {
             XAttributeName an = a.getKey();
             if (an.namespace != null) {
@@ -1149,6 +1786,7 @@ public class XNElement extends XElementBase {
      * @param value the value, if null, the attribute will be removed
      */
     public void set(String name, String namespace, Object value) {
+        materialize();
         if (value != null) {
             if (value instanceof Date) {
                 attributes.put(new XAttributeName(name, namespace, null), formatDateTime((Date)value));
@@ -1173,18 +1811,13 @@ public class XNElement extends XElementBase {
     }
     @Override
     public String toString() {
-        final StringBuilder b = new StringBuilder();
-        toStringRep("", new HashMap<String, String>(), new XNAppender() {
-            @Override
-            public XNAppender append(Object o) {
-                b.append(o);
-                return this;
-            }
-            @Override
-            public int length() {
-                return b.length();
-            }
-        }, null);
+        StringBuilder b = new StringBuilder();
+        try {
+            new XWriter(b, true, 1024).write(this);
+        } catch (IOException ex) {
+            // StringBuilder doesn't throw
+            throw new UncheckedIOException(ex);
+        }
         return b.toString();
     }
     /**
@@ -1219,6 +1852,7 @@ public class XNElement extends XElementBase {
             out.append(pf.second);
         }
         
+        materialize();
         if (attributes.size() > 0) {
             for (XAttributeName an : attributes.keySet()) {
                 Pair<String, String> pfa = createPrefix(nss0, an.namespace, an.prefix);
@@ -1226,7 +1860,9 @@ public class XNElement extends XElementBase {
                 if (pfa.first != null && pfa.first.length() > 0) {
                     out.append(pfa.first).append(":");
                 }
-                out.append(an.name).append("='").append(sanitize(attributes.get(an))).append("'");
+                out.append(an.name).append("='");
+                appendSanitized(attributes.get(an), out);
+                out.append("'");
                 
                 if (pfa.second != null) {
                     out.append(pfa.second);
@@ -1243,12 +1879,11 @@ public class XNElement extends XElementBase {
                 if (callback != null) {
                     callback.accept(new XRepresentationRecord(XRepresentationState.START_TEXT, this, out.length()));
                 }
-                String s = sanitize(content);
-                out.append(s);
+                appendSanitized(content, out);
                 if (callback != null) {
                     callback.accept(new XRepresentationRecord(XRepresentationState.END_TEXT, this, out.length()));
                 }
-                if (s.endsWith("\n")) {
+                if (content.endsWith("\n")) {
                     out.append(indent);
                 }
                 out.append("</");
@@ -1260,18 +1895,18 @@ public class XNElement extends XElementBase {
             }
         } else {
             if (content == null || content.isEmpty()) {
-                out.append(String.format(">%n"));
+                out.append(">").append(XWriter.NEWLINE);
             } else {
                 out.append(">");
                 if (callback != null) {
                     callback.accept(new XRepresentationRecord(XRepresentationState.START_TEXT, this, out.length()));
                 }
-                out.append(sanitize(content));
+                appendSanitized(content, out);
                 if (callback != null) {
                     callback.accept(new XRepresentationRecord(XRepresentationState.END_TEXT, this, out.length()));
                 }
 
-                out.append(String.format("%n"));
+                out.append(XWriter.NEWLINE);
             }
             for (XNElement e : children) {
                 e.toStringRep(indent + "  ", nss0, out, callback);
@@ -1286,6 +1921,6 @@ public class XNElement extends XElementBase {
         if (callback != null) {
             callback.accept(new XRepresentationRecord(XRepresentationState.END_ELEMENT, this, out.length()));
         }
-        out.append(String.format("%n"));
+        out.append(XWriter.NEWLINE);
     }
 }
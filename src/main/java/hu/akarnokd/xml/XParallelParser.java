@@ -0,0 +1,180 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Parses a UTF-8 document on multiple threads by splitting the root's content
+ * at the boundaries of its direct children.
+ * <p>
+ * The prolog and the root start tag are parsed first, then a structural scan finds
+ * where the root's children start. Consecutive children are grouped into ranges of
+ * similar size, the ranges are parsed concurrently with the root's namespace
+ * declarations in scope, and the results are attached to the root in document order.
+ */
+final class XParallelParser {
+    /** The minimum size of a range parsed by one task. */
+    static final int MIN_RANGE = 64 * 1024;
+    /** Utility class. */
+    private XParallelParser() {
+        throw new IllegalStateException("No instances!");
+    }
+    /**
+     * Parses the remaining bytes of the buffer.
+     * @param <E> the element type
+     * @param buf the UTF-8 encoded document
+     * @param pool the pool to parse the ranges on
+     * @param builders creates the tree builders, which have to share a concurrent symbol table
+     * @return the root element
+     * @throws XMLStreamException on error
+     */
+    static <E extends XElementBase> E parse(ByteBuffer buf, ForkJoinPool pool,
+            Supplier<? extends XByteParser.TreeBuilder<E>> builders) throws XMLStreamException {
+        int end = buf.limit();
+        int start = XByteParser.skipBom(buf, buf.position(), end);
+        XByteParser.TreeBuilder<E> outer = builders.get();
+        outer.buf = buf;
+
+        // find the root start tag
+        int i = start;
+        for (;;) {
+            i = XByteParser.indexOf(buf, i, end, (byte)'<');
+            if (i < 0 || i + 1 >= end) {
+                throw outer.error("No root element", end);
+            }
+            byte c = buf.get(i + 1);
+            if (c == '?') {
+                i = XByteParser.indexOf(buf, i + 2, end, "?>");
+            } else
+            if (c == '!') {
+                i = outer.declaration(i, end);
+            } else {
+                break;
+            }
+            if (i < 0) {
+                throw outer.error("Unexpected end of input", end);
+            }
+        }
+        int gt = XByteParser.tagEnd(buf, i, end);
+        if (gt < 0) {
+            throw outer.error("Unexpected end of input", i);
+        }
+        outer.parse(buf, start, gt + 1, false);
+        if (outer.depth == 0) {
+            // empty root element
+            outer.parse(buf, gt + 1, end, true);
+            return outer.root;
+        }
+
+        // find the ranges of the root's children
+        int target = Math.max(MIN_RANGE, (end - gt) / (pool.getParallelism() * 4));
+        List<Integer> bounds = new ArrayList<>();
+        int rangeStart = gt + 1;
+        bounds.add(rangeStart);
+        i = rangeStart;
+        int contentEnd;
+        for (;;) {
+            int lt = XByteParser.indexOf(buf, i, end, (byte)'<');
+            if (lt < 0 || lt + 1 >= end) {
+                throw outer.error("Unexpected end of input", end);
+            }
+            byte c = buf.get(lt + 1);
+            if (c == '/') {
+                contentEnd = lt;
+                break;
+            }
+            if (c == '?') {
+                i = XByteParser.indexOf(buf, lt + 2, end, "?>");
+            } else
+            if (c == '!') {
+                if (XByteParser.startsWith(buf, lt, end, "<!--")) {
+                    i = XByteParser.indexOf(buf, lt + 4, end, "-->");
+                } else {
+                    i = XByteParser.indexOf(buf, lt + 2, end, "]]>");
+                }
+            } else {
+                if (lt - rangeStart >= target) {
+                    rangeStart = lt;
+                    bounds.add(rangeStart);
+                }
+                i = XByteParser.elementEnd(buf, lt, end, null);
+            }
+            if (i < 0) {
+                throw outer.error("Unexpected end of input", lt);
+            }
+        }
+        bounds.add(contentEnd);
+
+        // parse the ranges
+        List<Future<E>> tasks = new ArrayList<>(bounds.size() - 1);
+        for (int j = 0; j < bounds.size() - 1; j++) {
+            int s = bounds.get(j);
+            int e = bounds.get(j + 1);
+            tasks.add(pool.submit(() -> builders.get().parseContent(outer, buf, s, e)));
+        }
+        E root = outer.root;
+        StringBuilder content = null;
+        String firstContent = null;
+        try {
+            for (Future<E> f : tasks) {
+                E container = f.get();
+                outer.moveChildren(container, root);
+                String text = container.content;
+                if (text != null) {
+                    if (firstContent == null) {
+                        firstContent = text;
+                    } else {
+                        if (content == null) {
+                            content = new StringBuilder(firstContent);
+                        }
+                        content.append(text);
+                    }
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new XMLStreamException(ex);
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            // ForkJoinPool wraps the checked exceptions of callables, possibly more than once
+            for (Throwable t = cause; t != null; t = t.getCause()) {
+                if (t instanceof XMLStreamException) {
+                    throw (XMLStreamException)t;
+                }
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new XMLStreamException(ex);
+        } finally {
+            for (Future<E> f : tasks) {
+                f.cancel(false);
+            }
+        }
+
+        // the root end tag and the epilog
+        outer.parse(buf, contentEnd, end, true);
+        root.content = content != null ? content.toString() : firstContent;
+        return root;
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import javax.xml.stream.*;
+
+/**
+ * Reusable parse state for parsing many short documents one after the other,
+ * such as a message per request.
+ * <p>
+ * The arena keeps a symbol table, the scratch state of the parsers, and a pool
+ * of attribute maps and child lists. The trees it builds take their collections
+ * from the pool; {@link #release(XElement)} returns the collections of a tree
+ * no longer needed. With the {@link XParserContext.Engine#UTF8 UTF8} engine, a parse
+ * allocates only the elements themselves, their text and attribute values in the
+ * steady state. Unless the context has a shared symbol table, the arena's table is
+ * replaced after a parse once it holds more than {@link #MAX_RETAINED_SYMBOLS} names,
+ * so documents with ever new names don't grow it without bound.
+ * <p>
+ * An arena is not thread-safe; use one per thread. A released tree must not be
+ * used afterwards, as its collections are handed to the elements of later parses.
+ */
+public final class XParseArena {
+    /** The maximum number of pooled maps and lists of each kind. */
+    static final int MAX_POOLED = 4096;
+    /** The maximum number of entries of a map or list returned to the pool. */
+    static final int MAX_RETAINED_SIZE = 256;
+    /** The maximum capacity of a text builder returned to the pool. */
+    static final int MAX_RETAINED_TEXT = 64 * 1024;
+    /** The parser context. */
+    final XParserContext context;
+    /** The maximum number of symbols kept in the arena's own symbol table between parses. */
+    static final int MAX_RETAINED_SYMBOLS = 16 * 1024;
+    /** The symbol table used by the parses, replaced when it grows too large. */
+    XSymbolTable symbols;
+    /** The pooled attribute maps. */
+    final ArrayDeque<XAttributeMap<String>> maps = new ArrayDeque<>();
+    /** The pooled child lists. */
+    final ArrayDeque<XChildList<XElement>> lists = new ArrayDeque<>();
+    /** The pooled text builders. */
+    final ArrayDeque<StringBuilder> texts = new ArrayDeque<>();
+    /** The text builders of the open elements with more than one text run, by depth. */
+    StringBuilder[] stack = new StringBuilder[16];
+    /** The elements still to release. */
+    final ArrayDeque<XElement> releasing = new ArrayDeque<>();
+    /** The reused byte parser, created on first use. */
+    XByteParser.ElementBuilder byteParser;
+    /** Creates an arena with the default context. */
+    public XParseArena() {
+        this(XParserContext.DEFAULT);
+    }
+    /**
+     * Creates an arena with the given context.
+     * @param context the parser context
+     */
+    public XParseArena(XParserContext context) {
+        this.context = Objects.requireNonNull(context);
+        this.symbols = context.symbolTable();
+    }
+    /**
+     * Parse an XML from the binary data.
+     * @param data the XML data
+     * @return the parsed xml
+     * @throws XMLStreamException on error
+     */
+    public XElement parseXML(byte[] data) throws XMLStreamException {
+        return parseXML(ByteBuffer.wrap(data));
+    }
+    /**
+     * Parse an XML from the remaining bytes of the buffer.
+     * Does not change the buffer's position.
+     * @param buf the buffer
+     * @return the parsed xml
+     * @throws XMLStreamException on error
+     */
+    public XElement parseXML(ByteBuffer buf) throws XMLStreamException {
+        if (context.engine == XParserContext.Engine.UTF8
+                && XByteParser.isUtf8(buf, buf.position(), buf.limit())) {
+            XByteParser.ElementBuilder b = byteParser;
+            if (b == null) {
+                b = new XByteParser.ElementBuilder(symbols, context);
+                b.arena = this;
+                byteParser = b;
+            }
+            try {
+                b.parseAll(buf, buf.position(), buf.limit());
+                return b.root;
+            } finally {
+                b.reset();
+                trimSymbols();
+            }
+        }
+        return parseXML(new XBufferInputStream(buf));
+    }
+    /**
+     * Parse an XML document from the given input stream with STAX.
+     * Does not close the stream.
+     * @param in the input stream
+     * @return the parsed xml
+     * @throws XMLStreamException on error
+     */
+    public XElement parseXML(InputStream in) throws XMLStreamException {
+        XMLStreamReader ir = context.createXMLStreamReader(in);
+        try {
+            if (ir.hasNext()) {
+                ir.next();
+                return parseXMLActiveFragment(ir);
+            }
+            return null;
+        } finally {
+            ir.close();
+        }
+    }
+    /**
+     * Parses the stream as a fragment from the current element, like
+     * {@link XElement#parseXMLActiveFragment(XMLStreamReader, XSymbolTable, XParserLimits)}
+     * with the arena's symbol table and the limits of its context.
+     * @param in the XML stream reader
+     * @return the parsed XElement instance
+     * @throws XMLStreamException in case there is a parsing error or a limit is exceeded
+     */
+    public XElement parseXMLActiveFragment(XMLStreamReader in) throws XMLStreamException {
+        XParserLimits limits = context.limits;
+        XSymbolTable symbols = this.symbols;
+        StringBuilder[] stack = this.stack;
+        XElement node = null;
+        XElement root = null;
+        int depth = 0;
+        long elements = 0;
+        int type = in.getEventType();
+        try {
+            for (;;) {
+                switch (type) {
+                case XMLStreamConstants.START_ELEMENT:
+                    if (depth >= limits.maxDepth) {
+                        throw limits.exceeded(XParserLimits.Limit.DEPTH, in.getLocation());
+                    }
+                    if (++elements > limits.maxElements) {
+                        throw limits.exceeded(XParserLimits.Limit.ELEMENTS, in.getLocation());
+                    }
+                    int attCount = in.getAttributeCount();
+                    if (attCount > limits.maxAttributes) {
+                        throw limits.exceeded(XParserLimits.Limit.ATTRIBUTES, in.getLocation());
+                    }
+                    XElement n = newElement(symbols.intern(in.getLocalName()));
+                    for (int i = 0; i < attCount; i++) {
+                        n.attributes.put(symbols.intern(in.getAttributeLocalName(i)), in.getAttributeValue(i));
+                    }
+                    n.parent = node;
+                    if (node != null) {
+                        node.children.add(n);
+                    } else {
+                        root = n;
+                    }
+                    node = n;
+                    if (depth == stack.length) {
+                        stack = Arrays.copyOf(stack, depth * 2);
+                        this.stack = stack;
+                    }
+                    depth++;
+                    break;
+                case XMLStreamConstants.CDATA:
+                case XMLStreamConstants.CHARACTERS:
+                    if (node != null && !in.isWhiteSpace()) {
+                        String c = node.content;
+                        int len = in.getTextLength();
+                        if (c == null) {
+                            if (len > limits.maxTextLength) {
+                                throw limits.exceeded(XParserLimits.Limit.TEXT_LENGTH, in.getLocation());
+                            }
+                            // a single text run is kept as is
+                            node.content = in.getText();
+                        } else {
+                            StringBuilder b = stack[depth - 1];
+                            if ((long)(b != null ? b.length() : c.length()) + len > limits.maxTextLength) {
+                                throw limits.exceeded(XParserLimits.Limit.TEXT_LENGTH, in.getLocation());
+                            }
+                            if (b == null) {
+                                b = texts.poll();
+                                if (b == null) {
+                                    b = new StringBuilder(c.length() + len);
+                                }
+                                b.append(c);
+                                stack[depth - 1] = b;
+                            }
+                            b.append(in.getTextCharacters(), in.getTextStart(), len);
+                        }
+                    }
+                    break;
+                case XMLStreamConstants.END_ELEMENT:
+                    if (node != null) {
+                        depth--;
+                        StringBuilder b = stack[depth];
+                        if (b != null) {
+                            node.content = b.toString();
+                            stack[depth] = null;
+                            recycle(b);
+                        }
+                        node = node.parent;
+                        if (depth == 0) {
+                            return root;
+                        }
+                    }
+                    break;
+                default:
+                    // ignore others.
+                }
+                if (in.hasNext()) {
+                    type = in.next();
+                } else {
+                    break;
+                }
+            }
+        } finally {
+            Arrays.fill(stack, 0, depth, null);
+            trimSymbols();
+        }
+        return root;
+    }
+    /**
+     * Returns the collections of the tree to the pool. The tree must not be used afterwards.
+     * Elements of other types than XElement, such as frozen elements, are left alone
+     * along with their subtrees.
+     * @param root the root of the tree, not null
+     */
+    public void release(XElement root) {
+        ArrayDeque<XElement> q = releasing;
+        q.push(root);
+        while (!q.isEmpty()) {
+            XElement e = q.pop();
+            if (e.getClass() != XElement.class) {
+                continue;
+            }
+            List<XElement> children = e.children;
+            for (int i = children.size() - 1; i >= 0; i--) {
+                q.push(children.get(i));
+            }
+            e.parent = null;
+            e.content = null;
+            if (children instanceof XChildList && lists.size() < MAX_POOLED
+                    && children.size() <= MAX_RETAINED_SIZE) {
+                XChildList<XElement> list = (XChildList<XElement>)children;
+                list.recycle();
+                lists.offer(list);
+            }
+            Map<String, String> attributes = e.attributes;
+            if (attributes instanceof XAttributeMap && maps.size() < MAX_POOLED
+                    && attributes.size() <= MAX_RETAINED_SIZE) {
+                XAttributeMap<String> map = (XAttributeMap<String>)attributes;
+                map.clear();
+                maps.offer(map);
+            }
+        }
+    }
+    /**
+     * Replaces the arena's own symbol table and the byte parser using it
+     * once the table holds more than {@link #MAX_RETAINED_SYMBOLS} names.
+     */
+    void trimSymbols() {
+        if (context.symbolTable == null && symbols.size() > MAX_RETAINED_SYMBOLS) {
+            symbols = context.symbolTable();
+            byteParser = null;
+        }
+    }
+    /**
+     * Creates an element with pooled collections if available.
+     * @param name the element name
+     * @return the new element
+     */
+    XElement newElement(String name) {
+        XAttributeMap<String> map = maps.poll();
+        if (map == null) {
+            map = new XAttributeMap<>();
+        }
+        XChildList<XElement> list = lists.poll();
+        if (list == null) {
+            list = new XChildList<>();
+        }
+        return new XElement(name, map, list);
+    }
+    /**
+     * Returns a text builder to the pool unless it grew too large.
+     * @param b the builder
+     */
+    void recycle(StringBuilder b) {
+        if (b.capacity() <= MAX_RETAINED_TEXT) {
+            b.setLength(0);
+            texts.offer(b);
+        }
+    }
+}
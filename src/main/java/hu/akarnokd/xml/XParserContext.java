@@ -0,0 +1,273 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Objects;
+
+import javax.xml.stream.*;
+
+/**
+ * Holds a pre-configured XMLInputFactory so the parse methods don't have to
+ * look up and set up a new factory for each document.
+ * <p>
+ * The instances are immutable and can be shared between threads: each thread
+ * gets its own factory instance, configured once on first use.
+ */
+public final class XParserContext {
+    /** The parsing engines. */
+    public enum Engine {
+        /** The JDK's XMLStreamReader. */
+        STAX,
+        /**
+         * The built-in tokenizer working directly on UTF-8 bytes.
+         * Inputs in other encodings are parsed with STAX instead.
+         */
+        UTF8
+    }
+    /** The default context: namespace aware, non-coalescing, with the JDK's defaults for DTDs and entities. */
+    public static final XParserContext DEFAULT = new XParserContext(true, false);
+    /**
+     * The default context with DTD processing and external entities disabled,
+     * for documents from untrusted sources.
+     */
+    public static final XParserContext SECURE = DEFAULT.withSecureProcessing(true);
+    /** Is the parser namespace aware? */
+    final boolean namespaceAware;
+    /** Should the parser coalesce adjacent text? */
+    final boolean coalescing;
+    /** Are DTD processing and external entities disabled? */
+    final boolean secureProcessing;
+    /** The per-thread configured factories. */
+    final ThreadLocal<XMLInputFactory> factories;
+    /** The symbol table shared by all parses, null if each parse uses its own. */
+    final XSymbolTable symbolTable;
+    /** The parsing engine for byte inputs. */
+    final Engine engine;
+    /** Read files through memory mapping? */
+    final boolean memoryMapped;
+    /** The resource limits. */
+    final XParserLimits limits;
+    /**
+     * Constructor, sets the parser options.
+     * DTDs and entities are handled according to the JDK's defaults,
+     * see {@link #withSecureProcessing(boolean)}.
+     * @param namespaceAware should the parser be namespace aware?
+     * @param coalescing should the parser coalesce adjacent text?
+     */
+    public XParserContext(boolean namespaceAware, boolean coalescing) {
+        this(namespaceAware, coalescing, false);
+    }
+    /**
+     * Constructor, sets the parser options.
+     * @param namespaceAware should the parser be namespace aware?
+     * @param coalescing should the parser coalesce adjacent text?
+     * @param secureProcessing disable DTD processing and external entities?
+     */
+    private XParserContext(boolean namespaceAware, boolean coalescing, boolean secureProcessing) {
+        this.namespaceAware = namespaceAware;
+        this.coalescing = coalescing;
+        this.secureProcessing = secureProcessing;
+        this.factories = ThreadLocal.withInitial(this::newFactory);
+        this.symbolTable = null;
+        this.engine = Engine.STAX;
+        this.memoryMapped = false;
+        this.limits = XParserLimits.UNLIMITED;
+    }
+    /**
+     * Copy constructor which replaces the non-factory settings.
+     * @param other the context to copy the factory settings from
+     * @param symbolTable the shared symbol table or null
+     * @param engine the parsing engine
+     * @param memoryMapped read files through memory mapping?
+     * @param limits the resource limits
+     */
+    private XParserContext(XParserContext other, XSymbolTable symbolTable, Engine engine, 
+            boolean memoryMapped, XParserLimits limits) {
+        this.namespaceAware = other.namespaceAware;
+        this.coalescing = other.coalescing;
+        this.secureProcessing = other.secureProcessing;
+        this.factories = other.factories;
+        this.symbolTable = symbolTable;
+        this.engine = engine;
+        this.memoryMapped = memoryMapped;
+        this.limits = limits;
+    }
+    /**
+     * Returns a context with the same settings which disables or enables DTD processing
+     * and external entities in the STAX parser. Documents declaring internal entities
+     * fail to parse when disabled.
+     * @param secureProcessing disable DTD processing and external entities?
+     * @return the new context
+     */
+    public XParserContext withSecureProcessing(boolean secureProcessing) {
+        XParserContext c = new XParserContext(namespaceAware, coalescing, secureProcessing);
+        return new XParserContext(c, symbolTable, engine, memoryMapped, limits);
+    }
+    /** @return true if DTD processing and external entities are disabled */
+    public boolean isSecureProcessing() {
+        return secureProcessing;
+    }
+    /**
+     * Returns a context with the same settings which interns the names
+     * of all parses into the given symbol table.
+     * The table has to be concurrent if the context is used from multiple threads.
+     * @param symbolTable the shared symbol table, null to use a new table for each parse
+     * @return the new context
+     */
+    public XParserContext withSymbolTable(XSymbolTable symbolTable) {
+        return new XParserContext(this, symbolTable, engine, memoryMapped, limits);
+    }
+    /**
+     * Returns a context with the same settings which parses byte inputs
+     * ({@code byte[]} and files) with the given engine.
+     * Other inputs are always parsed by STAX.
+     * @param engine the engine, not null
+     * @return the new context
+     */
+    public XParserContext withEngine(Engine engine) {
+        return new XParserContext(this, symbolTable, Objects.requireNonNull(engine), memoryMapped, limits);
+    }
+    /** @return the parsing engine for byte inputs */
+    public Engine engine() {
+        return engine;
+    }
+    /**
+     * Returns a context with the same settings which reads files through memory mapping
+     * instead of buffered reads.
+     * <p>
+     * The UTF8 engine parses directly from the mapped file if it is at most 2 GB;
+     * otherwise the parser is fed from consecutive mapped regions of the file.
+     * @param memoryMapped read files through memory mapping?
+     * @return the new context
+     */
+    public XParserContext withMemoryMapped(boolean memoryMapped) {
+        return new XParserContext(this, symbolTable, engine, memoryMapped, limits);
+    }
+    /** @return true if files are read through memory mapping */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+    /**
+     * Returns a context with the same settings which enforces the given limits
+     * while building XElement and XNElement trees.
+     * <p>
+     * The input size limit applies to everything read through the context, including
+     * projections and record streams; the other limits apply to each document, and to each
+     * record or projected fragment on their own. The parallel parser checks the element
+     * count of each range separately.
+     * @param limits the limits, {@link XParserLimits#UNLIMITED} for none
+     * @return the new context
+     */
+    public XParserContext withLimits(XParserLimits limits) {
+        return new XParserContext(this, symbolTable, engine, memoryMapped, Objects.requireNonNull(limits));
+    }
+    /** @return the resource limits */
+    public XParserLimits limits() {
+        return limits;
+    }
+    /**
+     * Opens the file for reading as a stream according to the settings.
+     * @param file the file
+     * @return the input stream
+     * @throws IOException on error
+     */
+    InputStream openFile(File file) throws IOException {
+        if (memoryMapped) {
+            return new XMappedInputStream(file);
+        }
+        return new BufferedInputStream(new FileInputStream(file), 64 * 1024);
+    }
+    /**
+     * Reads the whole file into a buffer for the UTF8 engine according to the settings.
+     * @param file the file, not larger than {@link XByteParser#MAX_SIZE}
+     * @return the buffer
+     * @throws IOException on error
+     * @throws XLimitExceededException if the file is larger than the input size limit
+     */
+    ByteBuffer readFile(File file) throws IOException, XLimitExceededException {
+        if (file.length() > limits.maxInputBytes) {
+            throw limits.exceeded(XParserLimits.Limit.INPUT_BYTES, limits.maxInputBytes);
+        }
+        if (memoryMapped) {
+            return XMappedInputStream.map(file);
+        }
+        return ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+    }
+    /**
+     * Returns the symbol table to use for a parse: the shared table or a new one.
+     * @return the symbol table
+     */
+    public XSymbolTable symbolTable() {
+        XSymbolTable t = symbolTable;
+        return t != null ? t : new XSymbolTable();
+    }
+    /**
+     * Returns the symbol table to use for a parse running on multiple threads:
+     * the shared table or a new concurrent one.
+     * @return the symbol table
+     */
+    XSymbolTable concurrentSymbolTable() {
+        XSymbolTable t = symbolTable;
+        return t != null ? t : new XSymbolTable(true);
+    }
+    /**
+     * Creates and configures a new factory instance.
+     * @return the factory
+     */
+    XMLInputFactory newFactory() {
+        XMLInputFactory inf = XMLInputFactory.newInstance();
+        inf.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, namespaceAware);
+        inf.setProperty(XMLInputFactory.IS_COALESCING, coalescing);
+        if (secureProcessing) {
+            inf.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            inf.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+        }
+        return inf;
+    }
+    /** @return true if the parser is namespace aware */
+    public boolean isNamespaceAware() {
+        return namespaceAware;
+    }
+    /** @return true if the parser coalesces adjacent text */
+    public boolean isCoalescing() {
+        return coalescing;
+    }
+    /**
+     * Creates a stream reader for the given input stream.
+     * @param in the input stream
+     * @return the stream reader
+     * @throws XMLStreamException on error
+     */
+    public XMLStreamReader createXMLStreamReader(InputStream in) throws XMLStreamException {
+        if (limits.limitsInput()) {
+            return XLimitedInput.create(factories.get(), in, limits);
+        }
+        return factories.get().createXMLStreamReader(in);
+    }
+    /**
+     * Creates a stream reader for the given reader.
+     * @param in the reader
+     * @return the stream reader
+     * @throws XMLStreamException on error
+     */
+    public XMLStreamReader createXMLStreamReader(Reader in) throws XMLStreamException {
+        if (limits.limitsInput()) {
+            return XLimitedInput.create(factories.get(), in, limits);
+        }
+        return factories.get().createXMLStreamReader(in);
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+import javax.xml.stream.Location;
+
+/**
+ * The resource limits enforced while parsing, each checked the moment it would be exceeded:
+ * before the element, the attributes or the text is allocated and before more input is read.
+ * <p>
+ * Exceeding a limit throws an {@link XLimitExceededException}. Instances are immutable;
+ * {@link #UNLIMITED} imposes no limits.
+ * <pre>{@code
+ * XParserContext ctx = XParserContext.DEFAULT.withLimits(XParserLimits.UNLIMITED
+ *     .withMaxDepth(256)
+ *     .withMaxTextLength(16 * 1024 * 1024));
+ * }</pre>
+ */
+public final class XParserLimits {
+    /** The kinds of limits. */
+    public enum Limit {
+        /** The nesting depth of elements. */
+        DEPTH("Maximum depth"),
+        /** The number of elements of a document. */
+        ELEMENTS("Maximum element count"),
+        /** The number of attributes of an element. */
+        ATTRIBUTES("Maximum attribute count"),
+        /** The length of the text content of an element, in characters. */
+        TEXT_LENGTH("Maximum text length"),
+        /** The size of the input, in bytes or in characters for character inputs. */
+        INPUT_BYTES("Maximum input size");
+        /** The description used in the error messages. */
+        final String description;
+        /**
+         * Constructor, sets the description.
+         * @param description the description
+         */
+        Limit(String description) {
+            this.description = description;
+        }
+    }
+    /** No limits. */
+    public static final XParserLimits UNLIMITED = new XParserLimits(Integer.MAX_VALUE, Long.MAX_VALUE, 
+            Integer.MAX_VALUE, Integer.MAX_VALUE, Long.MAX_VALUE);
+    /** The maximum element depth. */
+    final int maxDepth;
+    /** The maximum number of elements. */
+    final long maxElements;
+    /** The maximum number of attributes per element. */
+    final int maxAttributes;
+    /** The maximum text length per element. */
+    final int maxTextLength;
+    /** The maximum input size. */
+    final long maxInputBytes;
+    /**
+     * Constructor, sets the fields.
+     * @param maxDepth the maximum element depth
+     * @param maxElements the maximum number of elements
+     * @param maxAttributes the maximum number of attributes per element
+     * @param maxTextLength the maximum text length per element
+     * @param maxInputBytes the maximum input size
+     */
+    XParserLimits(int maxDepth, long maxElements, int maxAttributes, int maxTextLength, long maxInputBytes) {
+        this.maxDepth = maxDepth;
+        this.maxElements = maxElements;
+        this.maxAttributes = maxAttributes;
+        this.maxTextLength = maxTextLength;
+        this.maxInputBytes = maxInputBytes;
+    }
+    /**
+     * Checks that a limit value is positive.
+     * @param value the value
+     * @param name the name of the limit
+     */
+    static void requirePositive(long value, String name) {
+        if (value <= 0) {
+            throw new IllegalArgumentException(name + " > 0 required but it was " + value);
+        }
+    }
+    /**
+     * Returns limits with the same settings and the given maximum element depth, the root being at depth 1.
+     * @param maxDepth the maximum depth, positive
+     * @return the new limits
+     */
+    public XParserLimits withMaxDepth(int maxDepth) {
+        requirePositive(maxDepth, "maxDepth");
+        return new XParserLimits(maxDepth, maxElements, maxAttributes, maxTextLength, maxInputBytes);
+    }
+    /**
+     * Returns limits with the same settings and the given maximum number of elements in a document.
+     * @param maxElements the maximum number of elements, positive
+     * @return the new limits
+     */
+    public XParserLimits withMaxElements(long maxElements) {
+        requirePositive(maxElements, "maxElements");
+        return new XParserLimits(maxDepth, maxElements, maxAttributes, maxTextLength, maxInputBytes);
+    }
+    /**
+     * Returns limits with the same settings and the given maximum number of attributes
+     * of an element, not counting namespace declarations of namespace aware parsers.
+     * @param maxAttributes the maximum number of attributes, non-negative
+     * @return the new limits
+     */
+    public XParserLimits withMaxAttributes(int maxAttributes) {
+        requirePositive(maxAttributes + 1L, "maxAttributes + 1");
+        return new XParserLimits(maxDepth, maxElements, maxAttributes, maxTextLength, maxInputBytes);
+    }
+    /**
+     * Returns limits with the same settings and the given maximum length of the
+     * text content of an element, summing up all of its text runs.
+     * @param maxTextLength the maximum text length in characters, non-negative
+     * @return the new limits
+     */
+    public XParserLimits withMaxTextLength(int maxTextLength) {
+        requirePositive(maxTextLength + 1L, "maxTextLength + 1");
+        return new XParserLimits(maxDepth, maxElements, maxAttributes, maxTextLength, maxInputBytes);
+    }
+    /**
+     * Returns limits with the same settings and the given maximum input size.
+     * Inputs read through a {@link java.io.Reader} count characters instead of bytes.
+     * @param maxInputBytes the maximum input size, positive
+     * @return the new limits
+     */
+    public XParserLimits withMaxInputBytes(long maxInputBytes) {
+        requirePositive(maxInputBytes, "maxInputBytes");
+        return new XParserLimits(maxDepth, maxElements, maxAttributes, maxTextLength, maxInputBytes);
+    }
+    /** @return the maximum element depth */
+    public int maxDepth() {
+        return maxDepth;
+    }
+    /** @return the maximum number of elements */
+    public long maxElements() {
+        return maxElements;
+    }
+    /** @return the maximum number of attributes per element */
+    public int maxAttributes() {
+        return maxAttributes;
+    }
+    /** @return the maximum text length per element */
+    public int maxTextLength() {
+        return maxTextLength;
+    }
+    /** @return the maximum input size */
+    public long maxInputBytes() {
+        return maxInputBytes;
+    }
+    /** @return true if the input size is limited */
+    boolean limitsInput() {
+        return maxInputBytes != Long.MAX_VALUE;
+    }
+    /**
+     * Returns the value of the given limit.
+     * @param limit the limit
+     * @return the value
+     */
+    long value(Limit limit) {
+        switch (limit) {
+        case DEPTH:
+            return maxDepth;
+        case ELEMENTS:
+            return maxElements;
+        case ATTRIBUTES:
+            return maxAttributes;
+        case TEXT_LENGTH:
+            return maxTextLength;
+        default:
+            return maxInputBytes;
+        }
+    }
+    /**
+     * Creates the exception for the given exceeded limit.
+     * @param limit the limit
+     * @param location the location in the input, may be null
+     * @return the exception
+     */
+    XLimitExceededException exceeded(Limit limit, Location location) {
+        long max = value(limit);
+        String message = limit.description + " of " + max + " exceeded";
+        if (location != null) {
+            message += " at line " + location.getLineNumber() + ", column " + location.getColumnNumber();
+        }
+        return new XLimitExceededException(limit, max, message, location);
+    }
+    /**
+     * Creates the exception for the given exceeded limit.
+     * @param limit the limit
+     * @param offset the offset in the input
+     * @return the exception
+     */
+    XLimitExceededException exceeded(Limit limit, long offset) {
+        long max = value(limit);
+        return new XLimitExceededException(limit, max, 
+                limit.description + " of " + max + " exceeded at offset " + offset, null);
+    }
+}
@@ -0,0 +1,428 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+import java.util.*;
+
+import javax.xml.stream.*;
+
+/**
+ * A set of simple path patterns selecting the parts of a document to build.
+ * <p>
+ * A path is a sequence of steps separated by {@code /} (child) or {@code //} (descendant),
+ * each step being an element local name or {@code *}, for example {@code /order/lines/line}
+ * or {@code //price}. The last step may be an attribute, {@code @sku} or {@code @*}.
+ * <p>
+ * The projected tree contains:
+ * <ul>
+ * <li>the elements matched by an element path, with their attributes, content and whole subtree,</li>
+ * <li>the elements matched by an attribute path, with the selected attributes only,</li>
+ * <li>the ancestors of the above, with their names only.</li>
+ * </ul>
+ * The root element is always present. The subtrees which can't contain a match are skipped
+ * without creating elements or collecting their text.
+ * <p>
+ * The instances are immutable and can be shared between threads.
+ */
+public final class XProjection {
+    /** The element steps of each path. */
+    final String[][] steps;
+    /** Is the step of the same index preceded by {@code //}? */
+    final boolean[][] descendant;
+    /** The selected attribute of each path, {@code *} for all, null for an element path. */
+    final String[] attributes;
+    /**
+     * Constructor, sets the compiled paths.
+     * @param steps the element steps
+     * @param descendant the descendant flags of the steps
+     * @param attributes the selected attributes
+     */
+    private XProjection(String[][] steps, boolean[][] descendant, String[] attributes) {
+        this.steps = steps;
+        this.descendant = descendant;
+        this.attributes = attributes;
+    }
+    /**
+     * Compiles the given path patterns.
+     * @param paths the paths
+     * @return the projection
+     * @throws IllegalArgumentException if a path is malformed
+     */
+    public static XProjection of(String... paths) {
+        return of(Arrays.asList(paths));
+    }
+    /**
+     * Compiles the given path patterns.
+     * @param paths the paths
+     * @return the projection
+     * @throws IllegalArgumentException if a path is malformed
+     */
+    public static XProjection of(Collection<String> paths) {
+        int n = paths.size();
+        String[][] steps = new String[n][];
+        boolean[][] descendant = new boolean[n][];
+        String[] attributes = new String[n];
+        int p = 0;
+        for (String path : paths) {
+            List<String> names = new ArrayList<>();
+            List<Boolean> flags = new ArrayList<>();
+            int i = 0;
+            int len = path.length();
+            if (len == 0 || path.charAt(0) != '/') {
+                throw new IllegalArgumentException("Path must start with /: " + path);
+            }
+            while (i < len) {
+                if (path.charAt(i) != '/') {
+                    throw new IllegalArgumentException("Missing / at " + i + ": " + path);
+                }
+                boolean d = i + 1 < len && path.charAt(i + 1) == '/';
+                i += d ? 2 : 1;
+                int j = path.indexOf('/', i);
+                if (j < 0) {
+                    j = len;
+                }
+                String name = path.substring(i, j);
+                if (name.isEmpty() || name.indexOf('@', 1) >= 0) {
+                    throw new IllegalArgumentException("Invalid step at " + i + ": " + path);
+                }
+                if (name.charAt(0) == '@') {
+                    if (j != len || d || name.length() == 1 || names.isEmpty()) {
+                        throw new IllegalArgumentException("Invalid attribute step at " + i + ": " + path);
+                    }
+                    attributes[p] = name.substring(1);
+                } else {
+                    names.add(name);
+                    flags.add(d);
+                }
+                i = j;
+            }
+            steps[p] = names.toArray(new String[0]);
+            descendant[p] = new boolean[names.size()];
+            for (int k = 0; k < names.size(); k++) {
+                descendant[p][k] = flags.get(k);
+            }
+            p++;
+        }
+        return new XProjection(steps, descendant, attributes);
+    }
+    /**
+     * Checks if a step matches an element name.
+     * @param step the step
+     * @param name the local name
+     * @return true if matches
+     */
+    static boolean matches(String step, String name) {
+        return "*".equals(step) || step.equals(name);
+    }
+    /**
+     * Checks if an attribute is selected by the paths that matched its element.
+     * @param selected the selected attributes, null if none
+     * @param count the number of selected attributes
+     * @param name the attribute local name
+     * @return true if selected
+     */
+    static boolean selected(String[] selected, int count, String name) {
+        for (int i = 0; i < count; i++) {
+            if (matches(selected[i], name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+    /**
+     * Skips the rest of the current element, leaving the reader on its end tag.
+     * @param in the reader positioned on a start tag
+     * @throws XMLStreamException on error
+     */
+    static void skip(XMLStreamReader in) throws XMLStreamException {
+        int level = 1;
+        while (level > 0) {
+            int type = in.next();
+            if (type == XMLStreamConstants.START_ELEMENT) {
+                level++;
+            } else
+            if (type == XMLStreamConstants.END_ELEMENT) {
+                level--;
+            }
+        }
+    }
+    /**
+     * Parses the projection of the document.
+     * @param <E> the element type
+     * @param in the reader
+     * @param b the tree builder
+     * @return the root element
+     * @throws XMLStreamException on error
+     */
+    <E> E parse(XMLStreamReader in, Builder<E> b) throws XMLStreamException {
+        while (in.getEventType() != XMLStreamConstants.START_ELEMENT) {
+            if (!in.hasNext()) {
+                throw new XMLStreamException("No root element");
+            }
+            in.next();
+        }
+        int paths = steps.length;
+        // the active states of each level, encoded as path index * 65536 + step index
+        int[][] states = new int[16][];
+        int[] stateCounts = new int[16];
+        int[] initial = new int[paths];
+        for (int p = 0; p < paths; p++) {
+            initial[p] = p << 16;
+        }
+        states[0] = initial;
+        stateCounts[0] = paths;
+        // the open elements, built only when a match inside them is found
+        @SuppressWarnings("unchecked")
+        E[] nodes = (E[])new Object[16];
+        String[] names = new String[16];
+        String[] uris = new String[16];
+        String[] prefixes = new String[16];
+        String[] selected = new String[paths];
+        int built = 0;
+        int depth = 0;
+        for (;;) {
+            int type = in.getEventType();
+            if (type == XMLStreamConstants.START_ELEMENT) {
+                String name = in.getLocalName();
+                int[] current = states[depth];
+                int count = stateCounts[depth];
+                if (depth + 1 == states.length) {
+                    int cap = states.length * 2;
+                    states = Arrays.copyOf(states, cap);
+                    stateCounts = Arrays.copyOf(stateCounts, cap);
+                    nodes = Arrays.copyOf(nodes, cap);
+                    names = Arrays.copyOf(names, cap);
+                    uris = Arrays.copyOf(uris, cap);
+                    prefixes = Arrays.copyOf(prefixes, cap);
+                }
+                int[] next = states[depth + 1];
+                if (next == null || next.length < count * 2) {
+                    next = new int[Math.max(count * 2, 4)];
+                    states[depth + 1] = next;
+                }
+                int nextCount = 0;
+                int selectedCount = 0;
+                boolean whole = false;
+                for (int k = 0; k < count; k++) {
+                    int s = current[k];
+                    int p = s >>> 16;
+                    int i = s & 0xFFFF;
+                    if (descendant[p][i]) {
+                        nextCount = add(next, nextCount, s);
+                    }
+                    if (matches(steps[p][i], name)) {
+                        if (i + 1 < steps[p].length) {
+                            nextCount = add(next, nextCount, s + 1);
+                        } else
+                        if (attributes[p] == null) {
+                            whole = true;
+                        } else {
+                            selected[selectedCount++] = attributes[p];
+                        }
+                    }
+                }
+                stateCounts[depth + 1] = nextCount;
+                if (whole) {
+                    E e = b.fragment(in);
+                    if (depth == 0) {
+                        return e;
+                    }
+                    built = build(b, nodes, names, uris, prefixes, built, depth);
+                    b.append(nodes[depth - 1], e);
+                } else
+                if (nextCount == 0 && selectedCount == 0 && depth != 0) {
+                    skip(in);
+                } else {
+                    names[depth] = name;
+                    uris[depth] = in.getNamespaceURI();
+                    prefixes[depth] = in.getPrefix();
+                    nodes[depth] = null;
+                    depth++;
+                    for (int a = 0; a < in.getAttributeCount(); a++) {
+                        if (selected(selected, selectedCount, in.getAttributeLocalName(a))) {
+                            built = build(b, nodes, names, uris, prefixes, built, depth);
+                            b.attribute(nodes[depth - 1], in, a);
+                        }
+                    }
+                }
+            } else
+            if (type == XMLStreamConstants.END_ELEMENT) {
+                depth--;
+                if (built > depth) {
+                    built = depth;
+                }
+                if (depth == 0) {
+                    break;
+                }
+            }
+            if (!in.hasNext()) {
+                break;
+            }
+            in.next();
+        }
+        if (nodes[0] == null) {
+            build(b, nodes, names, uris, prefixes, 0, 1);
+        }
+        return nodes[0];
+    }
+    /**
+     * Adds a state unless already present.
+     * @param states the states
+     * @param count the number of states
+     * @param s the state to add
+     * @return the new number of states
+     */
+    static int add(int[] states, int count, int s) {
+        for (int i = 0; i < count; i++) {
+            if (states[i] == s) {
+                return count;
+            }
+        }
+        states[count] = s;
+        return count + 1;
+    }
+    /**
+     * Creates the not yet built open elements up to the given depth.
+     * @param <E> the element type
+     * @param b the tree builder
+     * @param nodes the open elements
+     * @param names the local names of the open elements
+     * @param uris the namespace URIs of the open elements
+     * @param prefixes the prefixes of the open elements
+     * @param built the number of open elements already built
+     * @param depth the number of open elements to build
+     * @return the new number of built elements
+     */
+    static <E> int build(Builder<E> b, E[] nodes, String[] names, String[] uris, String[] prefixes,
+            int built, int depth) {
+        for (int d = built; d < depth; d++) {
+            E e = b.create(names[d], uris[d], prefixes[d]);
+            if (d > 0) {
+                b.append(nodes[d - 1], e);
+            }
+            nodes[d] = e;
+        }
+        return Math.max(built, depth);
+    }
+    /**
+     * Creates and links the elements of the projected tree.
+     * @param <E> the element type
+     */
+    abstract static class Builder<E> {
+        /** The symbol table. */
+        final XSymbolTable symbols;
+        /** The limits of each projected fragment. */
+        final XParserLimits limits;
+        /**
+         * Constructor, sets the symbol table and the limits.
+         * @param symbols the symbol table
+         * @param limits the limits of each projected fragment
+         */
+        Builder(XSymbolTable symbols, XParserLimits limits) {
+            this.symbols = symbols;
+            this.limits = limits;
+        }
+        /**
+         * Creates an element without attributes and content.
+         * @param name the local name
+         * @param uri the namespace URI or null
+         * @param prefix the prefix or null
+         * @return the element
+         */
+        abstract E create(String name, String uri, String prefix);
+        /**
+         * Parses the whole current element.
+         * @param in the reader positioned on the start tag, left on the end tag
+         * @return the element
+         * @throws XMLStreamException on error
+         */
+        abstract E fragment(XMLStreamReader in) throws XMLStreamException;
+        /**
+         * Appends a child element.
+         * @param parent the parent
+         * @param child the child
+         */
+        abstract void append(E parent, E child);
+        /**
+         * Copies an attribute of the current start tag.
+         * @param e the element
+         * @param in the reader
+         * @param index the attribute index
+         */
+        abstract void attribute(E e, XMLStreamReader in, int index);
+    }
+    /** Builds XElement trees. */
+    static final class ElementBuilder extends Builder<XElement> {
+        /**
+         * Constructor, sets the symbol table and the limits.
+         * @param symbols the symbol table
+         * @param limits the limits of each projected fragment
+         */
+        ElementBuilder(XSymbolTable symbols, XParserLimits limits) {
+            super(symbols, limits);
+        }
+        @Override
+        XElement create(String name, String uri, String prefix) {
+            return new XElement(symbols.intern(name));
+        }
+        @Override
+        XElement fragment(XMLStreamReader in) throws XMLStreamException {
+            return XElement.parseXMLActiveFragment(in, symbols, limits);
+        }
+        @Override
+        void append(XElement parent, XElement child) {
+            child.parent = parent;
+            parent.children.add(child);
+        }
+        @Override
+        void attribute(XElement e, XMLStreamReader in, int index) {
+            e.attributes.put(symbols.intern(in.getAttributeLocalName(index)), in.getAttributeValue(index));
+        }
+    }
+    /** Builds XNElement trees. */
+    static final class NElementBuilder extends Builder<XNElement> {
+        /**
+         * Constructor, sets the symbol table and the limits.
+         * @param symbols the symbol table
+         * @param limits the limits of each projected fragment
+         */
+        NElementBuilder(XSymbolTable symbols, XParserLimits limits) {
+            super(symbols, limits);
+        }
+        @Override
+        XNElement create(String name, String uri, String prefix) {
+            XNElement e = new XNElement(symbols.intern(name));
+            e.namespace = symbols.intern(uri);
+            e.prefix = symbols.intern(prefix);
+            return e;
+        }
+        @Override
+        XNElement fragment(XMLStreamReader in) throws XMLStreamException {
+            return XNElement.parseXMLActiveFragment(in, symbols, limits);
+        }
+        @Override
+        void append(XNElement parent, XNElement child) {
+            child.parent = parent;
+            parent.children.add(child);
+        }
+        @Override
+        void attribute(XNElement e, XMLStreamReader in, int index) {
+            e.attributes.put(symbols.attributeName(
+                    symbols.intern(in.getAttributeLocalName(index)),
+                    symbols.intern(in.getAttributeNamespace(index)),
+                    symbols.intern(in.getAttributePrefix(index))
+            ), in.getAttributeValue(index));
+        }
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+import java.util.*;
+import java.util.stream.*;
+
+import javax.xml.stream.*;
+
+/**
+ * Iterates over the repeating record elements of a document by parsing
+ * one record subtree at a time from a shared XMLStreamReader.
+ * <p>
+ * A record is the outermost element which the matcher accepts; elements nested
+ * inside a record are part of it. The iterator doesn't hold onto a record once
+ * it has been returned.
+ * @param <T> the record element type
+ */
+final class XRecordIterator<T> implements Iterator<T>, AutoCloseable {
+    /** Decides if the reader's current start element is a record. */
+    interface Matcher {
+        /**
+         * Check the current start element.
+         * @param in the reader positioned on a START_ELEMENT
+         * @return true if the element is a record
+         */
+        boolean test(XMLStreamReader in);
+    }
+    /** Parses the record starting at the reader's current position. */
+    interface FragmentParser<T> {
+        /**
+         * Parse the record.
+         * @param in the reader positioned on the record's START_ELEMENT
+         * @return the parsed record
+         * @throws XMLStreamException on error
+         */
+        T parse(XMLStreamReader in) throws XMLStreamException;
+    }
+    /** The source reader. */
+    final XMLStreamReader in;
+    /** The record matcher. */
+    final Matcher matcher;
+    /** The record parser. */
+    final FragmentParser<T> parser;
+    /** The next record if already parsed. */
+    T next;
+    /** Reached the end of the document? */
+    boolean done;
+    /**
+     * Constructor, sets the fields.
+     * @param in the source reader
+     * @param matcher the record matcher
+     * @param parser the record parser
+     */
+    XRecordIterator(XMLStreamReader in, Matcher matcher, FragmentParser<T> parser) {
+        this.in = in;
+        this.matcher = matcher;
+        this.parser = parser;
+    }
+    @Override
+    public boolean hasNext() {
+        if (next != null) {
+            return true;
+        }
+        if (done) {
+            return false;
+        }
+        try {
+            while (in.hasNext()) {
+                if (in.next() == XMLStreamConstants.START_ELEMENT && matcher.test(in)) {
+                    next = parser.parse(in);
+                    return true;
+                }
+            }
+        } catch (XMLStreamException ex) {
+            done = true;
+            throw new IllegalStateException(ex);
+        }
+        done = true;
+        return false;
+    }
+    @Override
+    public T next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        T result = next;
+        next = null;
+        return result;
+    }
+    /**
+     * Closes the underlying XMLStreamReader.
+     */
+    @Override
+    public void close() {
+        done = true;
+        next = null;
+        try {
+            in.close();
+        } catch (XMLStreamException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+    /**
+     * Wraps this iterator into a sequential stream which closes the reader when closed.
+     * @return the stream
+     */
+    Stream<T> stream() {
+        Spliterator<T> sp = Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(sp, false).onClose(this::close);
+    }
+}
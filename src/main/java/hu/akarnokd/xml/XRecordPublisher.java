@@ -0,0 +1,253 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+import java.io.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Publishes the records of a document to a single subscriber, parsing the next
+ * record only when the subscriber has requested it.
+ * <p>
+ * The reading and parsing run on the given executor, one task at a time, so a slow
+ * subscriber stops the reading instead of records piling up. The input stream and the
+ * XMLStreamReader are closed when the last record was delivered, on error and on cancellation.
+ * A subscriber whose {@code onNext} throws is treated as cancelled and receives no more signals.
+ * @param <T> the record element type
+ */
+final class XRecordPublisher<T> implements XFlow.Publisher<T> {
+    /** Opens the record iterator over the input. */
+    interface Source<T> {
+        /**
+         * Open the iterator.
+         * @return the iterator
+         * @throws XMLStreamException on error
+         */
+        XRecordIterator<T> open() throws XMLStreamException;
+    }
+    /** The input stream. */
+    final InputStream in;
+    /** Opens the record iterator. */
+    final Source<T> source;
+    /** The executor running the reads. */
+    final Executor executor;
+    /** Was the publisher subscribed to? */
+    final AtomicBoolean subscribed = new AtomicBoolean();
+    /**
+     * Constructor, sets the fields.
+     * @param in the input stream
+     * @param source opens the record iterator
+     * @param executor the executor running the reads
+     */
+    XRecordPublisher(InputStream in, Source<T> source, Executor executor) {
+        this.in = in;
+        this.source = source;
+        this.executor = executor;
+    }
+    @Override
+    public void subscribe(XFlow.Subscriber<? super T> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber");
+        }
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new XFlow.Subscription() {
+                @Override
+                public void request(long n) {
+                    // ignored
+                }
+                @Override
+                public void cancel() {
+                    // ignored
+                }
+            });
+            subscriber.onError(new IllegalStateException("Only one subscriber allowed"));
+            return;
+        }
+        RecordSubscription<T> s = new RecordSubscription<>(this, subscriber);
+        // the initial run is counted in wip, so requests from onSubscribe don't start another one
+        s.wip.set(1);
+        subscriber.onSubscribe(s);
+        s.schedule();
+    }
+    /**
+     * The subscription, running the reads and signals.
+     * @param <T> the record element type
+     */
+    static final class RecordSubscription<T> implements XFlow.Subscription, Runnable {
+        /** The publisher. */
+        final XRecordPublisher<T> parent;
+        /** The subscriber. */
+        final XFlow.Subscriber<? super T> subscriber;
+        /** The outstanding requests. */
+        final AtomicLong requested = new AtomicLong();
+        /** The number of times the run was requested, the run loops until it drops to zero. */
+        final AtomicInteger wip = new AtomicInteger();
+        /** Was the subscription cancelled? */
+        volatile boolean cancelled;
+        /** The invalid request error to signal. */
+        volatile Throwable badRequest;
+        /** The record iterator, accessed by the run only. */
+        XRecordIterator<T> iterator;
+        /** Was a terminal event signalled or the resources released, accessed by the run only. */
+        boolean done;
+        /**
+         * Constructor, sets the fields.
+         * @param parent the publisher
+         * @param subscriber the subscriber
+         */
+        RecordSubscription(XRecordPublisher<T> parent, XFlow.Subscriber<? super T> subscriber) {
+            this.parent = parent;
+            this.subscriber = subscriber;
+        }
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                badRequest = new IllegalArgumentException("request(" + n + ") must be positive");
+                cancelled = true;
+            } else {
+                for (;;) {
+                    long r = requested.get();
+                    long u = r + n;
+                    if (u < 0) {
+                        u = Long.MAX_VALUE;
+                    }
+                    if (requested.compareAndSet(r, u)) {
+                        break;
+                    }
+                }
+            }
+            if (wip.getAndIncrement() == 0) {
+                schedule();
+            }
+        }
+        @Override
+        public void cancel() {
+            cancelled = true;
+            if (wip.getAndIncrement() == 0) {
+                schedule();
+            }
+        }
+        /** Submits the run to the executor. */
+        void schedule() {
+            try {
+                parent.executor.execute(this);
+            } catch (RejectedExecutionException ex) {
+                cancelled = true;
+                subscriber.onError(ex);
+            }
+        }
+        @Override
+        public void run() {
+            int missed = 1;
+            for (;;) {
+                if (!done) {
+                    drain();
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    break;
+                }
+            }
+        }
+        /** Emits the requested records, or releases the resources if cancelled. */
+        void drain() {
+            if (cancelled) {
+                release();
+                Throwable ex = badRequest;
+                if (ex != null) {
+                    subscriber.onError(ex);
+                }
+                return;
+            }
+            long r = requested.get();
+            if (r == 0) {
+                return;
+            }
+            long e = 0L;
+            while (e != r) {
+                if (cancelled) {
+                    break;
+                }
+                T item;
+                try {
+                    item = poll();
+                } catch (XMLStreamException | RuntimeException ex) {
+                    release();
+                    Throwable cause = ex;
+                    if (ex instanceof IllegalStateException && ex.getCause() instanceof XMLStreamException) {
+                        cause = ex.getCause();
+                    }
+                    subscriber.onError(cause);
+                    return;
+                }
+                if (item == null) {
+                    release();
+                    subscriber.onComplete();
+                    return;
+                }
+                try {
+                    subscriber.onNext(item);
+                } catch (RuntimeException ex) {
+                    // a failing onNext cancels the subscription, and nothing is signalled anymore
+                    cancelled = true;
+                    release();
+                    return;
+                }
+                e++;
+            }
+            if (cancelled) {
+                drain();
+                return;
+            }
+            if (r != Long.MAX_VALUE) {
+                // requests arriving meanwhile have bumped wip, so the run loops again
+                requested.addAndGet(-e);
+            }
+        }
+        /**
+         * Opens the iterator on the first call and reads the next record.
+         * @return the record or null if there are no more
+         * @throws XMLStreamException if the reader can't be opened
+         */
+        T poll() throws XMLStreamException {
+            XRecordIterator<T> it = iterator;
+            if (it == null) {
+                it = parent.source.open();
+                iterator = it;
+            }
+            return it.hasNext() ? it.next() : null;
+        }
+        /** Closes the reader and the input stream. */
+        void release() {
+            done = true;
+            XRecordIterator<T> it = iterator;
+            iterator = null;
+            if (it != null) {
+                try {
+                    it.close();
+                } catch (IllegalStateException ex) {
+                    // nobody to report to
+                }
+            }
+            try {
+                parent.in.close();
+            } catch (IOException ex) {
+                // nobody to report to
+            }
+        }
+    }
+}
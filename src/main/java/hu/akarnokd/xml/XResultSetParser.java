@@ -0,0 +1,414 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Parses an XML column of every row of a result set, reading the rows on the
+ * caller's thread and parsing them concurrently on an executor.
+ * <p>
+ * The caller's thread copies the column of each row into a pooled buffer and hands
+ * the buffer to a parse task. At most {@link #withMaxPending(int) maxPending} rows are
+ * read but not yet delivered; when the limit is reached, the reading waits for
+ * the parses to catch up. The results are delivered to the consumer on the caller's
+ * thread, in row order or in the order the parses complete.
+ * <p>
+ * Only {@link ResultSet#next()} and {@code getBinaryStream} are called on the result set,
+ * so it can be an in-memory stand-in in tests. Instances are immutable and can be reused.
+ * <pre>{@code
+ * XResultSetParser.column("doc")
+ *     .loading(Order::new)
+ *     .withMaxPending(64)
+ *     .parse(rs, order -> process(order));
+ * }</pre>
+ * @param <T> the delivered type
+ */
+public final class XResultSetParser<T> {
+    /** The column index, used if {@link #columnName} is null. */
+    final int columnIndex;
+    /** The column name or null. */
+    final String columnName;
+    /** Converts the parsed element, called on the parse task. */
+    final Function<? super XElement, ? extends T> mapper;
+    /** The parser context. */
+    final XParserContext context;
+    /** The executor running the parse tasks. */
+    final Executor executor;
+    /** The maximum number of rows read but not yet delivered. */
+    final int maxPending;
+    /** Deliver the results in row order? */
+    final boolean ordered;
+    /**
+     * Constructor, sets the fields.
+     * @param columnIndex the column index
+     * @param columnName the column name or null
+     * @param mapper converts the parsed element
+     * @param context the parser context
+     * @param executor the executor running the parse tasks
+     * @param maxPending the maximum number of rows read but not yet delivered
+     * @param ordered deliver the results in row order?
+     */
+    XResultSetParser(int columnIndex, String columnName, Function<? super XElement, ? extends T> mapper,
+            XParserContext context, Executor executor, int maxPending, boolean ordered) {
+        this.columnIndex = columnIndex;
+        this.columnName = columnName;
+        this.mapper = mapper;
+        this.context = context;
+        this.executor = executor;
+        this.maxPending = maxPending;
+        this.ordered = ordered;
+    }
+    /**
+     * Creates a parser of the indexed column, delivering XElements in row order,
+     * parsing on the common pool with the default context.
+     * @param index the column index
+     * @return the parser
+     */
+    public static XResultSetParser<XElement> column(int index) {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        return new XResultSetParser<>(index, null, Function.identity(), XParserContext.DEFAULT,
+                pool, pool.getParallelism() * 4, true);
+    }
+    /**
+     * Creates a parser of the named column, delivering XElements in row order,
+     * parsing on the common pool with the default context.
+     * @param column the column name
+     * @return the parser
+     */
+    public static XResultSetParser<XElement> column(String column) {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        return new XResultSetParser<>(0, Objects.requireNonNull(column), Function.identity(), XParserContext.DEFAULT,
+                pool, pool.getParallelism() * 4, true);
+    }
+    /**
+     * Returns a parser with the same settings which delivers new objects
+     * loaded from the parsed elements. The objects are created and loaded on the parse tasks.
+     * @param <U> the object type
+     * @param supplier creates the objects
+     * @return the new parser
+     */
+    public <U extends XSerializable> XResultSetParser<U> loading(Supplier<? extends U> supplier) {
+        Objects.requireNonNull(supplier);
+        return new XResultSetParser<U>(columnIndex, columnName, e -> {
+            U u = supplier.get();
+            u.load(e);
+            return u;
+        }, context, executor, maxPending, ordered);
+    }
+    /**
+     * Returns a parser with the same settings which parses with the given context.
+     * A shared symbol table of the context has to be concurrent.
+     * @param context the parser context
+     * @return the new parser
+     */
+    public XResultSetParser<T> withContext(XParserContext context) {
+        return new XResultSetParser<>(columnIndex, columnName, mapper, Objects.requireNonNull(context),
+                executor, maxPending, ordered);
+    }
+    /**
+     * Returns a parser with the same settings which parses on the given executor.
+     * @param executor the executor
+     * @return the new parser
+     */
+    public XResultSetParser<T> withExecutor(Executor executor) {
+        return new XResultSetParser<>(columnIndex, columnName, mapper, context,
+                Objects.requireNonNull(executor), maxPending, ordered);
+    }
+    /**
+     * Returns a parser with the same settings which reads at most the given number
+     * of rows ahead of the delivery. This bounds the number of buffers and unconsumed
+     * results held at any time.
+     * @param maxPending the maximum number of rows read but not yet delivered, positive
+     * @return the new parser
+     */
+    public XResultSetParser<T> withMaxPending(int maxPending) {
+        if (maxPending <= 0) {
+            throw new IllegalArgumentException("maxPending > 0 required but it was " + maxPending);
+        }
+        return new XResultSetParser<>(columnIndex, columnName, mapper, context, executor, maxPending, ordered);
+    }
+    /**
+     * Returns a parser with the same settings which delivers the results in row order
+     * or in the order the parses complete.
+     * @param ordered deliver the results in row order?
+     * @return the new parser
+     */
+    public XResultSetParser<T> ordered(boolean ordered) {
+        return new XResultSetParser<>(columnIndex, columnName, mapper, context, executor, maxPending, ordered);
+    }
+    /**
+     * Parses the column of the remaining rows of the result set and delivers the results
+     * to the consumer on the caller's thread. A null column is delivered as null.
+     * <p>
+     * The first failure stops the reading and is thrown right away; the parses not yet
+     * started are skipped and the results of the running ones are dropped. The result set
+     * is not closed.
+     * @param rs the result set
+     * @param consumer receives the results
+     * @return the number of rows delivered
+     * @throws SQLException on SQL error
+     * @throws IOException on IO error
+     * @throws XMLStreamException on parsing error
+     */
+    public long parse(ResultSet rs, Consumer<? super T> consumer)
+            throws SQLException, IOException, XMLStreamException {
+        Pipeline<T> p = new Pipeline<>(this, consumer);
+        try {
+            while (rs.next()) {
+                while (p.pending.size() == maxPending) {
+                    p.deliver(true);
+                }
+                Row<T> row = p.read(rs);
+                p.pending.add(row);
+                if (row.length < 0) {
+                    row.finish();
+                } else {
+                    executor.execute(row);
+                }
+                p.deliver(false);
+            }
+            while (!p.pending.isEmpty()) {
+                p.deliver(true);
+            }
+        } catch (Throwable ex) {
+            p.cancel();
+            throw ex;
+        }
+        return p.delivered;
+    }
+    /**
+     * Parses a row's data.
+     * @param data the data
+     * @param length the data length
+     * @param symbols the symbol table shared by the rows
+     * @return the element
+     * @throws XMLStreamException on error
+     */
+    XElement parseRow(byte[] data, int length, XSymbolTable symbols) throws XMLStreamException {
+        if (context.engine == XParserContext.Engine.UTF8) {
+            ByteBuffer buf = ByteBuffer.wrap(data, 0, length);
+            if (XByteParser.isUtf8(buf, 0, length)) {
+                XByteParser.ElementBuilder b = new XByteParser.ElementBuilder(symbols, context);
+                b.parseAll(buf, 0, length);
+                return b.root;
+            }
+        }
+        return XElement.parseXML(context.createXMLStreamReader(new ByteArrayInputStream(data, 0, length)), 
+                symbols, context.limits);
+    }
+    /**
+     * The state of one {@link XResultSetParser#parse(ResultSet, Consumer)} call,
+     * accessed by the caller's thread except for the completion queue.
+     * @param <T> the delivered type
+     */
+    static final class Pipeline<T> {
+        /** The parser. */
+        final XResultSetParser<T> parent;
+        /** The consumer of the results. */
+        final Consumer<? super T> consumer;
+        /** The symbol table shared by the parse tasks. */
+        final XSymbolTable symbols;
+        /** The rows read but not yet delivered, in row order. */
+        final ArrayDeque<Row<T>> pending = new ArrayDeque<>();
+        /** The finished rows in completion order, holding at most maxPending rows. */
+        final BlockingQueue<Row<T>> completed = new LinkedBlockingQueue<>();
+        /** The buffers of the delivered rows. */
+        final ArrayDeque<byte[]> buffers = new ArrayDeque<>();
+        /** The number of rows delivered. */
+        long delivered;
+        /**
+         * Constructor, sets the fields.
+         * @param parent the parser
+         * @param consumer the consumer of the results
+         */
+        Pipeline(XResultSetParser<T> parent, Consumer<? super T> consumer) {
+            this.parent = parent;
+            this.consumer = Objects.requireNonNull(consumer);
+            this.symbols = parent.context.concurrentSymbolTable();
+        }
+        /**
+         * Copies the column of the current row into a pooled buffer.
+         * @param rs the result set
+         * @return the row
+         * @throws SQLException on SQL error
+         * @throws IOException on IO error
+         * @throws XLimitExceededException if the value is larger than the input size limit
+         */
+        Row<T> read(ResultSet rs) throws SQLException, IOException, XLimitExceededException {
+            XResultSetParser<T> p = parent;
+            try (InputStream is = p.columnName != null
+                    ? rs.getBinaryStream(p.columnName) : rs.getBinaryStream(p.columnIndex)) {
+                if (is == null) {
+                    return new Row<>(this, null, -1);
+                }
+                byte[] b = buffers.poll();
+                if (b == null) {
+                    b = new byte[8192];
+                }
+                XParserLimits limits = p.context.limits;
+                int n = 0;
+                for (;;) {
+                    if (n > limits.maxInputBytes) {
+                        throw limits.exceeded(XParserLimits.Limit.INPUT_BYTES, limits.maxInputBytes);
+                    }
+                    if (n == b.length) {
+                        if (n == XByteParser.MAX_SIZE) {
+                            throw new IOException("Column value too large");
+                        }
+                        b = Arrays.copyOf(b, (int)Math.min(n * 2L, XByteParser.MAX_SIZE));
+                    }
+                    int r = is.read(b, n, b.length - n);
+                    if (r < 0) {
+                        break;
+                    }
+                    n += r;
+                }
+                return new Row<>(this, b, n);
+            }
+        }
+        /**
+         * Delivers the finished rows which can be delivered.
+         * @param wait wait until at least one row was delivered?
+         * @throws IOException on IO error
+         * @throws XMLStreamException on parsing error
+         */
+        void deliver(boolean wait) throws IOException, XMLStreamException {
+            if (parent.ordered) {
+                // the queue only signals completions here, the rows are taken in order from pending
+                completed.clear();
+                for (;;) {
+                    Row<T> r = pending.peek();
+                    if (r == null) {
+                        return;
+                    }
+                    if (!r.done) {
+                        if (!wait) {
+                            return;
+                        }
+                        // any completion may be the head
+                        take();
+                        continue;
+                    }
+                    pending.poll();
+                    emit(r);
+                    wait = false;
+                }
+            }
+            Row<T> r = wait ? take() : completed.poll();
+            while (r != null) {
+                pending.remove(r);
+                emit(r);
+                r = completed.poll();
+            }
+        }
+        /**
+         * Waits for the next finished row.
+         * @return the row
+         * @throws InterruptedIOException if the thread was interrupted
+         */
+        Row<T> take() throws InterruptedIOException {
+            try {
+                return completed.take();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException();
+            }
+        }
+        /**
+         * Recycles the row's buffer and hands its result to the consumer
+         * or throws its failure.
+         * @param r the row
+         * @throws XMLStreamException on parsing error
+         */
+        void emit(Row<T> r) throws XMLStreamException {
+            if (r.data != null) {
+                buffers.offer(r.data);
+            }
+            Throwable ex = r.error;
+            if (ex != null) {
+                if (ex instanceof XMLStreamException) {
+                    throw (XMLStreamException)ex;
+                }
+                if (ex instanceof RuntimeException) {
+                    throw (RuntimeException)ex;
+                }
+                throw (Error)ex;
+            }
+            consumer.accept(r.value);
+            delivered++;
+        }
+        /** Skips the parses of the rows not yet started. */
+        void cancel() {
+            for (Row<T> r : pending) {
+                r.cancelled = true;
+            }
+            pending.clear();
+        }
+    }
+    /**
+     * The data and the result of one row.
+     * @param <T> the delivered type
+     */
+    static final class Row<T> implements Runnable {
+        /** The pipeline. */
+        final Pipeline<T> parent;
+        /** The column data or null for a null column. */
+        final byte[] data;
+        /** The length of the data, -1 for a null column. */
+        final int length;
+        /** Was the pipeline stopped before the parse started? */
+        volatile boolean cancelled;
+        /** Did the parse finish? */
+        volatile boolean done;
+        /** The result, visible after {@link #done} is set. */
+        T value;
+        /** The failure, visible after {@link #done} is set. */
+        Throwable error;
+        /**
+         * Constructor, sets the fields.
+         * @param parent the pipeline
+         * @param data the column data or null
+         * @param length the length of the data
+         */
+        Row(Pipeline<T> parent, byte[] data, int length) {
+            this.parent = parent;
+            this.data = data;
+            this.length = length;
+        }
+        @Override
+        public void run() {
+            if (!cancelled) {
+                try {
+                    value = parent.parent.mapper.apply(parent.parent.parseRow(data, length, parent.symbols));
+                } catch (Throwable ex) {
+                    error = ex;
+                }
+            }
+            finish();
+        }
+        /** Marks the row finished and signals the caller's thread. */
+        void finish() {
+            done = true;
+            parent.completed.offer(this);
+        }
+    }
+}
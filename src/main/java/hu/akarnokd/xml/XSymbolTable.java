@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns element names, attribute names, namespace URIs and prefixes
+ * so the parsed trees share one String instance per distinct name, and
+ * one XAttributeName instance per distinct attribute name.
+ * <p>
+ * A non-concurrent table should be used by one parse at a time; a concurrent
+ * table can be shared between parallel parses.
+ */
+public final class XSymbolTable {
+    /** The symbols. */
+    final Map<String, String> symbols;
+    /** The attribute names by local name. */
+    final Map<String, XNElement.XAttributeName[]> attributeNames;
+    /**
+     * Constructs a non-concurrent symbol table.
+     */
+    public XSymbolTable() {
+        this(false);
+    }
+    /**
+     * Constructs a symbol table.
+     * @param concurrent should the table be safe to use from multiple threads?
+     */
+    public XSymbolTable(boolean concurrent) {
+        if (concurrent) {
+            symbols = new ConcurrentHashMap<>();
+            attributeNames = new ConcurrentHashMap<>();
+        } else {
+            symbols = new HashMap<>();
+            attributeNames = new HashMap<>();
+        }
+    }
+    /**
+     * Returns the shared instance of the given string.
+     * @param s the string to intern, can be null
+     * @return the shared instance or null
+     */
+    public String intern(String s) {
+        if (s == null) {
+            return null;
+        }
+        String t = symbols.putIfAbsent(s, s);
+        return t != null ? t : s;
+    }
+    /**
+     * Returns the shared attribute name instance.
+     * @param name the interned local name
+     * @param namespace the interned namespace URI or null
+     * @param prefix the interned prefix or null
+     * @return the shared instance
+     */
+    public XNElement.XAttributeName attributeName(String name, String namespace, String prefix) {
+        XNElement.XAttributeName[] names = attributeNames.get(name);
+        if (names != null) {
+            for (XNElement.XAttributeName an : names) {
+                if (an.namespace == namespace && an.prefix == prefix) {
+                    return an;
+                }
+            }
+        }
+        XNElement.XAttributeName an = new XNElement.XAttributeName(name, namespace, prefix);
+        XNElement.XAttributeName[] found = attributeNames.merge(name, new XNElement.XAttributeName[] { an }, (a, b) -> {
+            for (XNElement.XAttributeName n : a) {
+                if (n.namespace == namespace && n.prefix == prefix) {
+                    return a;
+                }
+            }
+            XNElement.XAttributeName[] c = Arrays.copyOf(a, a.length + 1);
+            c[a.length] = b[0];
+            return c;
+        });
+        for (XNElement.XAttributeName n : found) {
+            if (n.namespace == namespace && n.prefix == prefix) {
+                return n;
+            }
+        }
+        return an;
+    }
+    /** @return the number of symbols in this table */
+    public int size() {
+        return symbols.size();
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+/**
+ * Caches the numbers parsed from the attribute values and contents of an element.
+ * <p>
+ * The entries are keyed by the identity of the parsed string and the number type.
+ * Strings are immutable, so an entry is valid as long as the attribute or content
+ * still refers to the same string; any change through {@code set}, {@code setValue}
+ * or a direct {@code content} write stores a different string and misses the cache.
+ * The values are kept in a primitive array, without boxing. The table is cleared
+ * once it fills up, so replaced values don't accumulate.
+ * <p>
+ * The cache is safe to use from multiple threads: the entries live in an immutable
+ * {@link Table} published through a single volatile field, and adding an entry
+ * publishes a copy. Concurrent additions may lose an entry, which is parsed again
+ * on the next lookup.
+ */
+final class XValueCache {
+    /** The int number type. */
+    static final byte INT = 1;
+    /** The long number type. */
+    static final byte LONG = 2;
+    /** The double number type. */
+    static final byte DOUBLE = 3;
+    /** The maximum number of entries before the table is cleared. */
+    static final int MAX_SIZE = 64;
+    /** The table without entries. */
+    static final Table EMPTY = new Table(new String[8], new byte[8], new long[8], 0);
+    /** The current entries, null until the first entry is added. */
+    volatile Table table;
+    /**
+     * Returns the current table.
+     * @return the table, not null
+     */
+    Table table() {
+        Table t = table;
+        return t != null ? t : EMPTY;
+    }
+    /**
+     * Publishes a copy of the table with the entry added.
+     * @param t the table the entry was looked up in
+     * @param s the string
+     * @param kind the number type
+     * @param value the value bits
+     */
+    void put(Table t, String s, byte kind, long value) {
+        int n = t.sources.length;
+        if (t.size == MAX_SIZE) {
+            t = EMPTY;
+            n = t.sources.length;
+        } else
+        if ((t.size + 1) * 2 > n) {
+            n *= 2;
+        }
+        String[] src = new String[n];
+        byte[] ks = new byte[n];
+        long[] bs = new long[n];
+        for (int j = 0; j < t.sources.length; j++) {
+            String o = t.sources[j];
+            if (o != null) {
+                int i = Table.slot(src, ks, o, t.kinds[j]);
+                src[i] = o;
+                ks[i] = t.kinds[j];
+                bs[i] = t.bits[j];
+            }
+        }
+        int i = Table.slot(src, ks, s, kind);
+        src[i] = s;
+        ks[i] = kind;
+        bs[i] = value;
+        table = new Table(src, ks, bs, t.size + 1);
+    }
+    /**
+     * Returns the int value of the string.
+     * @param s the string, not null
+     * @return the value
+     * @throws NumberFormatException if the string is not an int
+     */
+    int parseInt(String s) {
+        Table t = table();
+        int i = t.indexOf(s, INT);
+        if (i >= 0) {
+            return (int)t.bits[i];
+        }
+        int v = Integer.parseInt(s);
+        put(t, s, INT, v);
+        return v;
+    }
+    /**
+     * Returns the long value of the string.
+     * @param s the string, not null
+     * @return the value
+     * @throws NumberFormatException if the string is not a long
+     */
+    long parseLong(String s) {
+        Table t = table();
+        int i = t.indexOf(s, LONG);
+        if (i >= 0) {
+            return t.bits[i];
+        }
+        long v = Long.parseLong(s);
+        put(t, s, LONG, v);
+        return v;
+    }
+    /**
+     * Returns the double value of the string.
+     * @param s the string, not null
+     * @return the value
+     * @throws NumberFormatException if the string is not a double
+     */
+    double parseDouble(String s) {
+        Table t = table();
+        int i = t.indexOf(s, DOUBLE);
+        if (i >= 0) {
+            return Double.longBitsToDouble(t.bits[i]);
+        }
+        double v = Double.parseDouble(s);
+        put(t, s, DOUBLE, Double.doubleToRawLongBits(v));
+        return v;
+    }
+    /** An open addressing table of entries, not changed after publication. */
+    static final class Table {
+        /** The parsed strings. */
+        final String[] sources;
+        /** The number types of the entries. */
+        final byte[] kinds;
+        /** The values, doubles stored as their raw bits. */
+        final long[] bits;
+        /** The number of entries. */
+        final int size;
+        /**
+         * Constructor, sets the fields.
+         * @param sources the parsed strings
+         * @param kinds the number types
+         * @param bits the values
+         * @param size the number of entries
+         */
+        Table(String[] sources, byte[] kinds, long[] bits, int size) {
+            this.sources = sources;
+            this.kinds = kinds;
+            this.bits = bits;
+            this.size = size;
+        }
+        /**
+         * Returns the index of the entry.
+         * @param s the string
+         * @param kind the number type
+         * @return the index or -1 if not present
+         */
+        int indexOf(String s, byte kind) {
+            int i = slot(sources, kinds, s, kind);
+            return sources[i] != null ? i : -1;
+        }
+        /**
+         * Returns the index of the entry or of the free slot for it.
+         * @param sources the parsed strings, with at least one free slot
+         * @param kinds the number types
+         * @param s the string
+         * @param kind the number type
+         * @return the index
+         */
+        static int slot(String[] sources, byte[] kinds, String s, byte kind) {
+            int mask = sources.length - 1;
+            int i = (System.identityHashCode(s) * 0x9E3779B9 + kind) & mask;
+            for (;;) {
+                String t = sources[i];
+                if (t == null || (t == s && kinds[i] == kind)) {
+                    return i;
+                }
+                i = (i + 1) & mask;
+            }
+        }
+    }
+}
@@ -0,0 +1,478 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+import java.io.*;
+import java.nio.CharBuffer;
+import java.util.*;
+
+/**
+ * Serializes element trees into a Writer or other Appendable.
+ * <p>
+ * The pretty mode produces the same text as {@code toString()} of the elements: every
+ * element on its own line, indented by two spaces per level. The compact mode leaves out
+ * the line breaks and the indentation.
+ * <p>
+ * The text is collected in a char buffer and handed to the output in bulk after each
+ * written tree. A writer is not thread-safe.
+ */
+public final class XWriter implements Flushable {
+    /** The line separator. */
+    static final String NEWLINE = System.lineSeparator();
+    /** The XML declaration written by {@link #header()}. */
+    static final String HEADER = "<?xml version='1.0' encoding='UTF-8'?>";
+    /** The default buffer size in characters. */
+    static final int BUFFER_SIZE = 8192;
+    /** The number of spaces per indentation level. */
+    static final int INDENT = 2;
+    /** The spaces the indentation is copied from. */
+    static final char[] SPACES;
+    static {
+        SPACES = new char[128];
+        Arrays.fill(SPACES, ' ');
+    }
+    /** The output. */
+    final Appendable out;
+    /** Indent and break lines? */
+    final boolean pretty;
+    /** The line separator characters. */
+    final char[] newline = NEWLINE.toCharArray();
+    /** The buffer. */
+    final char[] buf;
+    /** The number of characters in the buffer. */
+    int pos;
+    /** The namespaces declared in the open elements, in declaration order. */
+    String[] namespaces = new String[16];
+    /** The prefixes of the declared namespaces. */
+    String[] prefixes = new String[16];
+    /** The number of declared namespaces. */
+    int namespaceCount;
+    /**
+     * Constructor, sets the fields.
+     * @param out the output
+     * @param pretty indent and break lines?
+     * @param bufferSize the buffer size in characters
+     */
+    XWriter(Appendable out, boolean pretty, int bufferSize) {
+        this.out = Objects.requireNonNull(out);
+        this.pretty = pretty;
+        this.buf = new char[bufferSize];
+    }
+    /**
+     * Creates a writer which indents the elements and puts them on separate lines.
+     * @param out the output
+     * @return the writer
+     */
+    public static XWriter pretty(Appendable out) {
+        return new XWriter(out, true, BUFFER_SIZE);
+    }
+    /**
+     * Creates a writer without indentation and line breaks.
+     * @param out the output
+     * @return the writer
+     */
+    public static XWriter compact(Appendable out) {
+        return new XWriter(out, false, BUFFER_SIZE);
+    }
+    /**
+     * Writes the XML declaration, followed by a line break in pretty mode.
+     * @return this
+     * @throws IOException if the output fails
+     */
+    public XWriter header() throws IOException {
+        write(HEADER);
+        newline();
+        return this;
+    }
+    /**
+     * Writes the element tree.
+     * @param e the root element
+     * @return this
+     * @throws IOException if the output fails
+     */
+    public XWriter write(XElement e) throws IOException {
+        element(e, 0);
+        drain();
+        return this;
+    }
+    /**
+     * Writes the element tree, declaring the namespaces where they are first used.
+     * @param e the root element
+     * @return this
+     * @throws IOException if the output fails
+     */
+    public XWriter write(XNElement e) throws IOException {
+        namespaceCount = 0;
+        element(e, 0);
+        Arrays.fill(namespaces, null);
+        Arrays.fill(prefixes, null);
+        drain();
+        return this;
+    }
+    /**
+     * Hands the buffered text to the output and flushes the output if it is flushable.
+     * @throws IOException if the output fails
+     */
+    @Override
+    public void flush() throws IOException {
+        drain();
+        if (out instanceof Flushable) {
+            ((Flushable)out).flush();
+        }
+    }
+    /**
+     * Writes an element and its subtree.
+     * @param e the element
+     * @param depth the depth of the element
+     * @throws IOException if the output fails
+     */
+    void element(XElement e, int depth) throws IOException {
+        indent(depth);
+        write('<');
+        write(e.name);
+        Map<String, String> attributes = e.attributes;
+        if (attributes instanceof XAttributeMap) {
+            XAttributeMap<?> map = (XAttributeMap<?>)attributes;
+            Object[] keys = map.keys;
+            String[] values = map.values;
+            for (int i = 0, n = map.size; i < n; i++) {
+                attribute((String)keys[i], values[i]);
+            }
+        } else {
+            for (Map.Entry<String, String> a : attributes.entrySet()) {
+                attribute(a.getKey(), a.getValue());
+            }
+        }
+        List<XElement> children = e.children;
+        String content = e.content;
+        int n = children.size();
+        if (n == 0) {
+            if (content == null) {
+                write("/>");
+            } else {
+                write('>');
+                escaped(content);
+                write("</");
+                write(e.name);
+                write('>');
+            }
+        } else {
+            write('>');
+            if (content != null) {
+                escaped(content);
+            }
+            newline();
+            if (children instanceof RandomAccess) {
+                for (int i = 0; i < n; i++) {
+                    element(children.get(i), depth + 1);
+                }
+            } else {
+                for (XElement c : children) {
+                    element(c, depth + 1);
+                }
+            }
+            indent(depth);
+            write("</");
+            write(e.name);
+            write('>');
+        }
+        newline();
+    }
+    /**
+     * Writes an attribute with a leading space.
+     * @param name the attribute name
+     * @param value the value, null is written as empty
+     * @throws IOException if the output fails
+     */
+    void attribute(String name, String value) throws IOException {
+        write(' ');
+        write(name);
+        write("='");
+        if (value != null) {
+            escaped(value);
+        }
+        write('\'');
+    }
+    /**
+     * Writes a namespaced element and its subtree.
+     * @param e the element
+     * @param depth the depth of the element
+     * @throws IOException if the output fails
+     */
+    void element(XNElement e, int depth) throws IOException {
+        e.materialize();
+        int scope = namespaceCount;
+        indent(depth);
+        write('<');
+        String prefix = prefix(e.namespace, e.prefix);
+        boolean declare = namespaceCount != scope;
+        qualified(prefix, e.name);
+        if (declare) {
+            declaration(prefix, e.namespace);
+        }
+        Map<XNElement.XAttributeName, String> attributes = e.attributes;
+        if (attributes instanceof XAttributeMap) {
+            XAttributeMap<?> map = (XAttributeMap<?>)attributes;
+            Object[] keys = map.keys;
+            String[] values = map.values;
+            for (int i = 0, n = map.size; i < n; i++) {
+                attribute((XNElement.XAttributeName)keys[i], values[i]);
+            }
+        } else {
+            for (Map.Entry<XNElement.XAttributeName, String> a : attributes.entrySet()) {
+                attribute(a.getKey(), a.getValue());
+            }
+        }
+        List<XNElement> children = e.children;
+        String content = e.content;
+        boolean hasContent = content != null && !content.isEmpty();
+        int n = children.size();
+        if (n == 0) {
+            if (!hasContent) {
+                write("/>");
+            } else {
+                write('>');
+                escaped(content);
+                if (content.endsWith("\n")) {
+                    indent(depth);
+                }
+                write("</");
+                qualified(prefix, e.name);
+                write('>');
+            }
+        } else {
+            write('>');
+            if (hasContent) {
+                escaped(content);
+            }
+            newline();
+            if (children instanceof RandomAccess) {
+                for (int i = 0; i < n; i++) {
+                    element(children.get(i), depth + 1);
+                }
+            } else {
+                for (XNElement c : children) {
+                    element(c, depth + 1);
+                }
+            }
+            indent(depth);
+            write("</");
+            qualified(prefix, e.name);
+            write('>');
+        }
+        newline();
+        // the declarations of this element are not visible to its siblings
+        namespaceCount = scope;
+    }
+    /**
+     * Writes a namespaced attribute with a leading space, followed by the declaration
+     * of its namespace if not yet declared.
+     * @param name the attribute name
+     * @param value the value, null is written as empty
+     * @throws IOException if the output fails
+     */
+    void attribute(XNElement.XAttributeName name, String value) throws IOException {
+        int before = namespaceCount;
+        String prefix = prefix(name.namespace, name.prefix);
+        write(' ');
+        qualified(prefix, name.name);
+        write("='");
+        if (value != null) {
+            escaped(value);
+        }
+        write('\'');
+        if (namespaceCount != before) {
+            declaration(prefix, name.namespace);
+        }
+    }
+    /**
+     * Returns the prefix of a namespace, declaring it with a new prefix if it is not
+     * declared in the open elements, the same way as {@link XNElement#createPrefix(Map, String, String)}.
+     * @param namespace the namespace, null if none
+     * @param preferred the preferred prefix, null if none
+     * @return the prefix or null if there is no namespace
+     */
+    String prefix(String namespace, String preferred) {
+        if (namespace == null) {
+            return null;
+        }
+        int count = namespaceCount;
+        String[] namespaces = this.namespaces;
+        String[] prefixes = this.prefixes;
+        for (int i = count - 1; i >= 0; i--) {
+            if (namespace.equals(namespaces[i])) {
+                return prefixes[i];
+            }
+        }
+        int nsc = 0;
+        String pf = preferred != null ? preferred : "ns0";
+        outer:
+        for (;;) {
+            for (int i = 0; i < count; i++) {
+                if (pf.equals(prefixes[i])) {
+                    nsc++;
+                    pf = "ns" + nsc;
+                    continue outer;
+                }
+            }
+            break;
+        }
+        if (count == namespaces.length) {
+            this.namespaces = namespaces = Arrays.copyOf(namespaces, count * 2);
+            this.prefixes = prefixes = Arrays.copyOf(prefixes, count * 2);
+        }
+        namespaces[count] = namespace;
+        prefixes[count] = pf;
+        namespaceCount = count + 1;
+        return pf;
+    }
+    /**
+     * Writes a name with its prefix if not empty.
+     * @param prefix the prefix, may be null
+     * @param name the name
+     * @throws IOException if the output fails
+     */
+    void qualified(String prefix, String name) throws IOException {
+        if (prefix != null && !prefix.isEmpty()) {
+            write(prefix);
+            write(':');
+        }
+        write(name);
+    }
+    /**
+     * Writes a namespace declaration with a leading space.
+     * @param prefix the prefix, empty for the default namespace
+     * @param namespace the namespace
+     * @throws IOException if the output fails
+     */
+    void declaration(String prefix, String namespace) throws IOException {
+        if (prefix.isEmpty()) {
+            write(" xmlns='");
+        } else {
+            write(" xmlns:");
+            write(prefix);
+            write("='");
+        }
+        escaped(namespace);
+        write('\'');
+    }
+    /**
+     * Writes the indentation of the depth in pretty mode.
+     * @param depth the depth
+     * @throws IOException if the output fails
+     */
+    void indent(int depth) throws IOException {
+        if (pretty) {
+            int n = depth * INDENT;
+            while (n > 0) {
+                int k = Math.min(n, SPACES.length);
+                write(SPACES, k);
+                n -= k;
+            }
+        }
+    }
+    /**
+     * Writes a line break in pretty mode.
+     * @throws IOException if the output fails
+     */
+    void newline() throws IOException {
+        if (pretty) {
+            write(newline, newline.length);
+        }
+    }
+    /**
+     * Writes the string with the sensitive characters converted to entities.
+     * @param s the string
+     * @throws IOException if the output fails
+     */
+    void escaped(String s) throws IOException {
+        int start = 0;
+        for (int i = XElementBase.nextSensitive(s, 0); i >= 0; i = XElementBase.nextSensitive(s, start)) {
+            write(s, start, i);
+            write(XElementBase.entity(s.charAt(i)));
+            start = i + 1;
+        }
+        write(s, start, s.length());
+    }
+    /**
+     * Writes a character.
+     * @param c the character
+     * @throws IOException if the output fails
+     */
+    void write(char c) throws IOException {
+        if (pos == buf.length) {
+            drain();
+        }
+        buf[pos++] = c;
+    }
+    /**
+     * Writes a string.
+     * @param s the string
+     * @throws IOException if the output fails
+     */
+    void write(String s) throws IOException {
+        write(s, 0, s.length());
+    }
+    /**
+     * Writes a part of a string.
+     * @param s the string
+     * @param start the start index
+     * @param end the end index, exclusive
+     * @throws IOException if the output fails
+     */
+    void write(String s, int start, int end) throws IOException {
+        int n = end - start;
+        if (n > buf.length - pos) {
+            drain();
+            if (n > buf.length) {
+                XElementBase.appendRun(s, start, end, out);
+                return;
+            }
+        }
+        s.getChars(start, end, buf, pos);
+        pos += n;
+    }
+    /**
+     * Writes the start of a char array.
+     * @param chars the characters
+     * @param n the number of characters, at most the buffer size
+     * @throws IOException if the output fails
+     */
+    void write(char[] chars, int n) throws IOException {
+        if (n > buf.length - pos) {
+            drain();
+        }
+        System.arraycopy(chars, 0, buf, pos, n);
+        pos += n;
+    }
+    /**
+     * Hands the buffered text to the output.
+     * @throws IOException if the output fails
+     */
+    void drain() throws IOException {
+        int n = pos;
+        if (n != 0) {
+            pos = 0;
+            Appendable out = this.out;
+            if (out instanceof Writer) {
+                ((Writer)out).write(buf, 0, n);
+            } else
+            if (out instanceof StringBuilder) {
+                ((StringBuilder)out).append(buf, 0, n);
+            } else {
+                out.append(CharBuffer.wrap(buf, 0, n));
+            }
+        }
+    }
+}
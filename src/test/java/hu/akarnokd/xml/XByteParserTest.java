@@ -0,0 +1,247 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+/**
+ * Parses a corpus with both engines: the trees of the well-formed documents have to be
+ * the same, and both engines have to reject the malformed ones.
+ */
+public class XByteParserTest {
+    /** The STAX context. */
+    static final XParserContext STAX = XParserContext.DEFAULT;
+    /** The UTF8 context. */
+    static final XParserContext UTF8 = XParserContext.DEFAULT.withEngine(XParserContext.Engine.UTF8);
+    /** Documents both engines parse into the same tree. */
+    static final String[] WELL_FORMED = {
+        "<r/>",
+        "<r></r>",
+        "<r>text</r>",
+        "<r a='1' b=\"2\"/>",
+        "<r a = '1'\n\tb='2' />",
+        "<?xml version='1.0' encoding='UTF-8'?><r/>",
+        "<?xml version='1.0'?>\n<!-- c --><?pi data?>\n<r/>",
+        "<!DOCTYPE r><r/>",
+        "<!DOCTYPE r SYSTEM 'r.dtd'><r/>",
+        "<r><a/><b>x</b><c d='e'>f</c></r>",
+        "<r>a <b/> c</r>",
+        "<r>a<!-- c -->b</r>",
+        "<r>a<?pi x?>b</r>",
+        "<r>   </r>",
+        "<r>\n  <a/>\n</r>",
+        "<r>&lt;&gt;&amp;&quot;&apos;</r>",
+        "<r>&#65;&#x42;&#x1F600;</r>",
+        "<r a='&lt;&amp;&#65;'/>",
+        "<r a='x\ny\tz\r\nw'/>",
+        "<r a='x&#10;y&#9;z'/>",
+        "<r>x\r\ny\rz</r>",
+        "<r><![CDATA[ a <b> & ]] ]]></r>",
+        "<r><![CDATA[]]></r>",
+        "<r>a<![CDATA[b]]>c</r>",
+        "<r>]]</r>",
+        "<r>]></r>",
+        "<r>a > b</r>",
+        "<r a='>'/>",
+        "<r>\u00e9\u4e2d\ud83d\ude00</r>",
+        "<\u00e9l\u00e9ment attr\u00efbut='v'/>",
+        "<r _a='1' a-b='2' a.b='3' a1='4'/>",
+        "<r xmlns='urn:a'><c/></r>",
+        "<p:r xmlns:p='urn:p' p:a='1' b='2'><p:c/><c/></p:r>",
+        "<r xmlns:p='urn:p'><p:c xmlns:p='urn:q'/><p:d/></r>",
+        "<r xml:lang='en'/>",
+        "<r/>junk",
+        "<r/><s/>",
+        "<r/>&amp;",
+        "<r/><!-- c --> ",
+        "\n\t <r/>",
+    };
+    /** Documents both engines reject. */
+    static final String[] MALFORMED = {
+        "",
+        "   ",
+        "text",
+        "<r>",
+        "<r><a></r>",
+        "<r></s>",
+        "<r>x</r",
+        "<r a=1/>",
+        "<r a='1/>",
+        "<r a='1' a='2'/>",
+        "<r a='<'/>",
+        "<r a/>",
+        "<r a='1'b='2'/>",
+        "<1r/>",
+        "<-r/>",
+        "<.r/>",
+        "<r .a='1'/>",
+        "<r 1a='1'/>",
+        "<r>x]]>y</r>",
+        "<r>&unknown;</r>",
+        "<r>&amp</r>",
+        "<r>&#0;</r>",
+        "<r>&#xD800;</r>",
+        "<r>&#xFFFE;</r>",
+        "<r>&#x110000;</r>",
+        "<r>&#;</r>",
+        "<r>\u0001</r>",
+        "<r a='\u0001'/>",
+        "<r><![CDATA[\u0001]]></r>",
+        "<r><![CDATA[x</r>",
+        "<r><!-- x</r>",
+        "x<r/>",
+        "<p:r/>",
+        "<r p:a='1'/>",
+        "<p:/>",
+    };
+    /**
+     * Documents where the engines differ on purpose: the STAX path drops whitespace-only
+     * runs the JDK reader reports separately next to references, the UTF8 engine keeps them.
+     */
+    static final String[][] KNOWN_DIFFERENCES = {
+        // document, STAX content, UTF8 content
+        { "<r> &amp; </r>", "&", " & " },
+        { "<r>a&#13;b</r>", "ab", "a\rb" },
+    };
+
+    @Test
+    public void wellFormedSameTree() throws Exception {
+        for (String s : WELL_FORMED) {
+            byte[] data = s.getBytes(StandardCharsets.UTF_8);
+            String expected = XElement.parseXML(data, STAX).toString();
+            assertEquals(s, expected, XElement.parseXML(data, UTF8).toString());
+            assertEquals(s, XNElement.parseXML(data, STAX).toString(), XNElement.parseXML(data, UTF8).toString());
+        }
+    }
+
+    @Test
+    public void wellFormedChunked() throws Exception {
+        for (String s : WELL_FORMED) {
+            byte[] data = s.getBytes(StandardCharsets.UTF_8);
+            String expected = XElement.parseXML(data, UTF8).toString();
+            for (int chunk : new int[] { 1, 2, 7 }) {
+                assertEquals(s + " @ " + chunk, expected, XElement.parseXML(channel(data, chunk), UTF8).toString());
+            }
+        }
+    }
+
+    @Test
+    public void malformedRejected() throws Exception {
+        for (String s : MALFORMED) {
+            byte[] data = s.getBytes(StandardCharsets.UTF_8);
+            assertRejected("STAX " + s, data, STAX);
+            assertRejected("UTF8 " + s, data, UTF8);
+        }
+    }
+
+    @Test
+    public void malformedChunkedRejected() throws Exception {
+        for (String s : MALFORMED) {
+            byte[] data = s.getBytes(StandardCharsets.UTF_8);
+            try {
+                XElement.parseXML(channel(data, 3), UTF8);
+                fail("Accepted " + s);
+            } catch (XMLStreamException expected) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void knownDifferences() throws Exception {
+        for (String[] c : KNOWN_DIFFERENCES) {
+            byte[] data = c[0].getBytes(StandardCharsets.UTF_8);
+            assertEquals(c[0], c[1], XElement.parseXML(data, STAX).content);
+            assertEquals(c[0], c[2], XElement.parseXML(data, UTF8).content);
+        }
+    }
+
+    @Test
+    public void errorHasOffset() {
+        try {
+            XElement.parseXML("<r><1a/></r>".getBytes(StandardCharsets.UTF_8), UTF8);
+            fail("Accepted");
+        } catch (XMLStreamException ex) {
+            assertTrue(ex.getMessage(), ex.getMessage().endsWith("at offset 4"));
+        }
+    }
+
+    @Test
+    public void declaredEncodingChunked() throws Exception {
+        String s = "<?xml version='1.0' encoding='ISO-8859-1'?><r a='\u00e9'>\u00e1rv\u00edzt\u0171r\u0151</r>";
+        byte[] data = s.replace('\u0171', 'u').replace('\u0151', 'o').getBytes(StandardCharsets.ISO_8859_1);
+        for (int chunk : new int[] { 1, 3, 7 }) {
+            XElement e = XElement.parseXML(channel(data, chunk), UTF8);
+            assertEquals("\u00e9", e.get("a"));
+            assertEquals("\u00e1rv\u00edzturo", e.content);
+            XNElement n = XNElement.parseXML(channel(data, chunk), UTF8);
+            assertEquals("\u00e1rv\u00edzturo", n.content);
+        }
+    }
+
+    /**
+     * Asserts that parsing the data fails.
+     * @param message the failure message
+     * @param data the document
+     * @param context the parser context
+     */
+    static void assertRejected(String message, byte[] data, XParserContext context) {
+        try {
+            XElement e = XElement.parseXML(data, context);
+            fail(message + " -> " + e);
+        } catch (XMLStreamException expected) {
+            // expected
+        }
+    }
+
+    /**
+     * Returns a channel which returns at most the given number of bytes per read.
+     * @param data the data
+     * @param chunk the maximum read size
+     * @return the channel
+     */
+    static ReadableByteChannel channel(byte[] data, int chunk) {
+        ByteArrayInputStream in = new ByteArrayInputStream(data);
+        return new ReadableByteChannel() {
+            boolean open = true;
+            @Override
+            public boolean isOpen() {
+                return open;
+            }
+            @Override
+            public void close() throws IOException {
+                open = false;
+            }
+            @Override
+            public int read(ByteBuffer dst) throws IOException {
+                int n = Math.min(chunk, dst.remaining());
+                byte[] b = new byte[n];
+                int r = in.read(b, 0, n);
+                if (r > 0) {
+                    dst.put(b, 0, r);
+                }
+                return r;
+            }
+        };
+    }
+}
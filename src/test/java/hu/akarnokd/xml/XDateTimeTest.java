@@ -0,0 +1,143 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+
+package hu.akarnokd.xml;
+
+import static org.junit.Assert.*;
+
+import java.time.*;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAccessor;
+import java.util.*;
+
+import org.junit.Test;
+
+public class XDateTimeTest {
+    /** The reference formatter. */
+    static final DateTimeFormatter REFERENCE = DateTimeFormatter.ofPattern("uuuu-MM-dd'T'HH:mm:ss[xxx]");
+    /** The characters a mutation puts into a timestamp. */
+    static final String NOISE = "0123456789-+:TZ 9";
+    /** The number of random cases per test. */
+    static final int CASES = 200000;
+
+    /**
+     * Parses with the reference formatter, a missing offset meaning UTC.
+     * @param s the text
+     * @return the timestamp or the exception class name
+     */
+    static Object referenceParse(String s) {
+        try {
+            return REFERENCE.withZone(ZoneOffset.UTC).parse(s, OffsetDateTime::from);
+        } catch (DateTimeException ex) {
+            return ex.getClass().getName();
+        }
+    }
+
+    static Object parse(String s) {
+        try {
+            return XDateTime.parse(s);
+        } catch (DateTimeException ex) {
+            return ex.getClass().getName();
+        }
+    }
+
+    static void pad(StringBuilder b, int v, int width) {
+        String s = Integer.toString(v);
+        for (int i = s.length(); i < width; i++) {
+            b.append('0');
+        }
+        b.append(s);
+    }
+
+    /**
+     * Creates a timestamp with each field slightly out of its range now and then.
+     * @param r the random source
+     * @return the text
+     */
+    static String timestamp(Random r) {
+        StringBuilder b = new StringBuilder(32);
+        pad(b, r.nextInt(10) == 0 ? r.nextInt(10000) : 1900 + r.nextInt(300), 4);
+        b.append('-');
+        pad(b, r.nextInt(14), 2);
+        b.append('-');
+        pad(b, r.nextInt(33), 2);
+        b.append('T');
+        pad(b, r.nextInt(26), 2);
+        b.append(':');
+        pad(b, r.nextInt(62), 2);
+        b.append(':');
+        pad(b, r.nextInt(62), 2);
+        if (r.nextBoolean()) {
+            b.append(r.nextBoolean() ? '+' : '-');
+            pad(b, r.nextInt(20), 2);
+            b.append(':');
+            pad(b, r.nextInt(62), 2);
+        }
+        switch (r.nextInt(8)) {
+        case 0:
+            b.setCharAt(r.nextInt(b.length()), NOISE.charAt(r.nextInt(NOISE.length())));
+            break;
+        case 1:
+            b.setLength(r.nextInt(b.length()));
+            break;
+        case 2:
+            b.append(NOISE.charAt(r.nextInt(NOISE.length())));
+            break;
+        default:
+            // keep as is
+        }
+        return b.toString();
+    }
+
+    @Test
+    public void parseMatchesFormatter() {
+        Random r = new Random(0x5EED2015L);
+        for (int i = 0; i < CASES; i++) {
+            String s = timestamp(r);
+            assertEquals(s, referenceParse(s), parse(s));
+        }
+    }
+
+    @Test
+    public void formatMatchesFormatter() {
+        Random r = new Random(0x5EED2016L);
+        List<String> zones = new ArrayList<>(ZoneId.getAvailableZoneIds());
+        Collections.sort(zones);
+        for (int i = 0; i < CASES; i++) {
+            int year = r.nextInt(10) == 0 ? r.nextInt(20002) - 10001 : 1900 + r.nextInt(300);
+            LocalDateTime local = LocalDateTime.of(year, 1 + r.nextInt(12), 1 + r.nextInt(28),
+                    r.nextInt(24), r.nextInt(60), r.nextInt(60), r.nextInt(1000000000))
+                    .plusDays(r.nextInt(4));
+            TemporalAccessor t;
+            switch (r.nextInt(3)) {
+            case 0:
+                t = local;
+                break;
+            case 1:
+                int seconds = r.nextBoolean() ? (r.nextInt(145) - 72) * 15 * 60 : r.nextInt(129601) - 64800;
+                t = OffsetDateTime.of(local, ZoneOffset.ofTotalSeconds(seconds));
+                break;
+            default:
+                t = ZonedDateTime.of(local, ZoneId.of(zones.get(r.nextInt(zones.size()))));
+            }
+            String expected = REFERENCE.format(t);
+            assertEquals(t.toString(), expected, XDateTime.format(t));
+            if (year >= 0 && year <= 9999 && t instanceof OffsetDateTime
+                    && ((OffsetDateTime)t).getOffset().getTotalSeconds() % 60 == 0) {
+                OffsetDateTime odt = ((OffsetDateTime)t).withNano(0);
+                assertEquals(expected, odt, XDateTime.parse(expected));
+            }
+        }
+    }
+}
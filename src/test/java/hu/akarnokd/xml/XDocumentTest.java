@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+
+package hu.akarnokd.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+
+import org.junit.Test;
+
+public class XDocumentTest {
+    /**
+     * Creates a root with text runs between empty children.
+     * @param runs the number of text runs
+     * @return the document text
+     */
+    static String mixed(int runs) {
+        StringBuilder b = new StringBuilder("<r>");
+        for (int i = 0; i < runs; i++) {
+            b.append("t").append(i).append("<c>").append(i).append("</c>");
+        }
+        return b.append("</r>").toString();
+    }
+
+    static XDocument parse(String s) throws Exception {
+        return XDocument.parseXML(new ByteArrayInputStream(s.getBytes("UTF-8")));
+    }
+
+    @Test
+    public void mixedContentSameAsElement() throws Exception {
+        String s = "<r>a<b>x<d>y</d>z</b>c<e/>d</r>";
+        XDocument d = parse(s);
+        XElement e = XElement.parseXML(new ByteArrayInputStream(s.getBytes("UTF-8")));
+        assertEquals(e.content, d.content(d.root()));
+        assertEquals("xz", d.content(d.childElement(d.root(), "b")));
+        assertEquals(e.toString(), d.toXElement().toString());
+    }
+
+    @Test
+    public void manyMixedRuns() throws Exception {
+        int runs = 100000;
+        XDocument d = parse(mixed(runs));
+        String c = d.content(d.root());
+        StringBuilder expected = new StringBuilder();
+        for (int i = 0; i < runs; i++) {
+            expected.append("t").append(i);
+        }
+        assertEquals(expected.toString(), c);
+        assertEquals(runs + 1, d.size());
+        assertEquals("99999", d.content(d.size() - 1));
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+
+package hu.akarnokd.xml;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class XFrozenElementTest {
+    /** @return the frozen sample tree */
+    static XElement sample() {
+        XElement root = new XElement("r");
+        root.set("a", 1);
+        root.add("c", "x").set("b", 2);
+        return root.freeze();
+    }
+
+    @Test
+    public void readsLikeSource() {
+        XElement f = sample();
+        assertEquals(1, f.getInt("a"));
+        XElement c = f.childElement("c");
+        assertEquals("x", c.content);
+        assertEquals(2, c.getInt("b"));
+        assertSame(f, c.parent);
+        assertSame(f, f.freeze());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void setValueRejected() {
+        sample().childElement("c").setValue("y");
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void cacheValuesRejected() {
+        sample().cacheValues(true);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void setRejected() {
+        sample().set("a", 2);
+    }
+
+    @Test
+    public void structureRejected() {
+        XElement f = sample();
+        XElement c = f.childElement("c");
+        try {
+            f.add("d");
+            fail("add");
+        } catch (UnsupportedOperationException expected) {
+            // expected
+        }
+        try {
+            c.detach();
+            fail("detach");
+        } catch (UnsupportedOperationException expected) {
+            // expected
+        }
+        try {
+            f.remove(c);
+            fail("remove");
+        } catch (UnsupportedOperationException expected) {
+            // expected
+        }
+        assertSame(f, c.parent);
+        assertEquals(1, f.children().size());
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+
+package hu.akarnokd.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.*;
+
+import org.junit.*;
+
+public class XGZipInputTest {
+    /** The pool to inflate on. */
+    static ForkJoinPool pool;
+    /** A BGZF file. */
+    File bgzf;
+    /** A single member gzip file. */
+    File plain;
+    /** Two gzip members concatenated. */
+    File concatenated;
+    /** The uncompressed document. */
+    byte[] document;
+
+    @BeforeClass
+    public static void startPool() {
+        pool = new ForkJoinPool(2);
+    }
+
+    @AfterClass
+    public static void stopPool() {
+        pool.shutdown();
+    }
+
+    @Before
+    public void setup() throws IOException {
+        StringBuilder b = new StringBuilder("<orders>");
+        for (int i = 0; i < 20000; i++) {
+            b.append("<order id='").append(i).append("'><item qty='").append(i % 7)
+            .append("'>item ").append(i * 31).append("</item></order>");
+        }
+        document = b.append("</orders>").toString().getBytes(StandardCharsets.UTF_8);
+        bgzf = File.createTempFile("xgzip", ".gz");
+        plain = File.createTempFile("xgzip", ".gz");
+        concatenated = File.createTempFile("xgzip", ".gz");
+        Files.write(bgzf.toPath(), bgzf(document));
+        Files.write(plain.toPath(), gzip(document, 0, document.length));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        int half = document.length / 2;
+        out.write(gzip(document, 0, half));
+        out.write(gzip(document, half, document.length - half));
+        Files.write(concatenated.toPath(), out.toByteArray());
+    }
+
+    @After
+    public void cleanup() {
+        bgzf.delete();
+        plain.delete();
+        concatenated.delete();
+    }
+
+    static byte[] gzip(byte[] data, int off, int len) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gz = new GZIPOutputStream(out)) {
+            gz.write(data, off, len);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the data as BGZF blocks of at most 64 KB each, followed by the empty end block.
+     * @param data the data
+     * @return the compressed bytes
+     */
+    static byte[] bgzf(byte[] data) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (int i = 0; i < data.length; i += 65280) {
+            out.write(block(data, i, Math.min(65280, data.length - i)));
+        }
+        out.write(block(data, 0, 0));
+        return out.toByteArray();
+    }
+
+    /**
+     * Compresses one BGZF block.
+     * @param data the data
+     * @param off the offset
+     * @param len the length
+     * @return the block
+     */
+    static byte[] block(byte[] data, int off, int len) {
+        Deflater def = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        def.setInput(data, off, len);
+        def.finish();
+        byte[] buf = new byte[len + 1024];
+        int n = def.deflate(buf);
+        def.end();
+        CRC32 crc = new CRC32();
+        crc.update(data, off, len);
+        return block(buf, n, (int)crc.getValue(), len);
+    }
+
+    /**
+     * Builds a BGZF block around the deflated data.
+     * @param deflated the deflated data
+     * @param n the length of the deflated data
+     * @param crc the CRC32 to record
+     * @param isize the decompressed size to record
+     * @return the block
+     */
+    static byte[] block(byte[] deflated, int n, int crc, int isize) {
+        int bs = XGZipInput.BGZF_HEADER + n + 8;
+        byte[] b = new byte[bs];
+        byte[] header = { 31, (byte)139, 8, 4, 0, 0, 0, 0, 0, (byte)255, 6, 0, 'B', 'C', 2, 0 };
+        System.arraycopy(header, 0, b, 0, header.length);
+        b[16] = (byte)(bs - 1);
+        b[17] = (byte)((bs - 1) >> 8);
+        System.arraycopy(deflated, 0, b, XGZipInput.BGZF_HEADER, n);
+        putIntLE(b, bs - 8, crc);
+        putIntLE(b, bs - 4, isize);
+        return b;
+    }
+
+    static void putIntLE(byte[] b, int i, int v) {
+        b[i] = (byte)v;
+        b[i + 1] = (byte)(v >> 8);
+        b[i + 2] = (byte)(v >> 16);
+        b[i + 3] = (byte)(v >> 24);
+    }
+
+    static byte[] readAll(File file) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (InputStream in = XGZipInput.open(file, pool)) {
+            byte[] buf = new byte[8192];
+            int n;
+            while ((n = in.read(buf)) >= 0) {
+                out.write(buf, 0, n);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    @Test
+    public void bgzfAndPlainSameContent() throws Exception {
+        assertArrayEquals(document, readAll(bgzf));
+        assertArrayEquals(document, readAll(plain));
+        assertArrayEquals(document, readAll(concatenated));
+    }
+
+    @Test
+    public void bgzfAndPlainSameTree() throws Exception {
+        String expected = XElement.parseXML(document).toString();
+        assertEquals(expected, XElement.parseXMLGZ(bgzf, pool).toString());
+        assertEquals(expected, XElement.parseXMLGZ(plain, pool).toString());
+        assertEquals(expected, XElement.parseXMLGZ(concatenated, pool).toString());
+        assertEquals(XNElement.parseXML(document).toString(), XNElement.parseXMLGZ(bgzf, pool).toString());
+    }
+
+    /**
+     * Asserts that reading the file fails with a ZipException.
+     * @param data the file content
+     */
+    static void assertCorrupt(byte[] data) throws IOException {
+        File f = File.createTempFile("xgzip", ".gz");
+        try {
+            Files.write(f.toPath(), data);
+            try {
+                readAll(f);
+                fail("Accepted");
+            } catch (ZipException expected) {
+                // expected
+            }
+        } finally {
+            f.delete();
+        }
+    }
+
+    @Test
+    public void hugeIsizeRejected() throws Exception {
+        byte[] empty = block(new byte[0], 0, 0);
+        putIntLE(empty, empty.length - 4, 0x7ff00000);
+        assertCorrupt(empty);
+    }
+
+    @Test
+    public void negativeIsizeRejected() throws Exception {
+        byte[] empty = block(new byte[0], 0, 0);
+        putIntLE(empty, empty.length - 4, -1);
+        assertCorrupt(empty);
+    }
+
+    @Test
+    public void shortBlockRejected() throws Exception {
+        byte[] b = block(new byte[0], 0, 0);
+        b[16] = (byte)(XGZipInput.BGZF_MIN_BLOCK - 2);
+        assertCorrupt(b);
+    }
+
+    @Test
+    public void corruptCrcRejected() throws Exception {
+        byte[] b = bgzf(document);
+        b[XGZipInput.BGZF_HEADER + 20] ^= 0x55;
+        assertCorrupt(b);
+    }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+
+package hu.akarnokd.xml;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+public class XLazyParserTest {
+    /** A document with three levels, at most three attributes and ten characters of text. */
+    static final byte[] DOCUMENT = ("<r a='1'><c a='1' b='2' c='3'><d>0123456789</d><d/></c>"
+            + "<c><d><e/></d></c></r>").getBytes(StandardCharsets.UTF_8);
+
+    static XParserContext limited(XParserLimits limits) {
+        return XParserContext.DEFAULT.withLimits(limits);
+    }
+
+    /**
+     * Asserts that the lazy parse fails with the limit.
+     * @param limits the limits
+     * @param limit the limit expected to be exceeded
+     */
+    static void assertParseExceeds(XParserLimits limits, XParserLimits.Limit limit) throws XMLStreamException {
+        try {
+            XNElement.parseXMLLazy(DOCUMENT, limited(limits));
+            fail("Accepted");
+        } catch (XLimitExceededException ex) {
+            assertSame(limit, ex.limit());
+        }
+        try {
+            XNElement.parseXML(DOCUMENT, limited(limits).withEngine(XParserContext.Engine.UTF8));
+            fail("Eager accepted");
+        } catch (XLimitExceededException ex) {
+            assertSame(limit, ex.limit());
+        }
+    }
+
+    /**
+     * Asserts that building the elements fails with the limit.
+     * @param limits the limits
+     * @param limit the limit expected to be exceeded
+     */
+    static void assertBuildExceeds(XParserLimits limits, XParserLimits.Limit limit) throws XMLStreamException {
+        XNElement root = XNElement.parseXMLLazy(DOCUMENT, limited(limits));
+        try {
+            for (XNElement c : root.children()) {
+                c.children();
+            }
+            fail("Accepted");
+        } catch (IllegalStateException ex) {
+            assertTrue(ex.getCause() instanceof XLimitExceededException);
+            assertSame(limit, ((XLimitExceededException)ex.getCause()).limit());
+        }
+    }
+
+    @Test
+    public void withinLimits() throws Exception {
+        XParserLimits limits = XParserLimits.UNLIMITED.withMaxDepth(4).withMaxElements(7)
+                .withMaxAttributes(3).withMaxTextLength(10).withMaxInputBytes(DOCUMENT.length);
+        XNElement lazy = XNElement.parseXMLLazy(DOCUMENT, limited(limits));
+        assertEquals(XNElement.parseXML(DOCUMENT).toString(), lazy.toString());
+    }
+
+    @Test
+    public void depthCheckedUpFront() throws Exception {
+        assertParseExceeds(XParserLimits.UNLIMITED.withMaxDepth(3), XParserLimits.Limit.DEPTH);
+    }
+
+    @Test
+    public void elementsCheckedUpFront() throws Exception {
+        assertParseExceeds(XParserLimits.UNLIMITED.withMaxElements(6), XParserLimits.Limit.ELEMENTS);
+    }
+
+    @Test
+    public void inputSizeCheckedUpFront() throws Exception {
+        assertParseExceeds(XParserLimits.UNLIMITED.withMaxInputBytes(DOCUMENT.length - 1),
+                XParserLimits.Limit.INPUT_BYTES);
+    }
+
+    @Test
+    public void rootAttributesCheckedUpFront() throws Exception {
+        assertParseExceeds(XParserLimits.UNLIMITED.withMaxAttributes(0), XParserLimits.Limit.ATTRIBUTES);
+    }
+
+    @Test
+    public void attributesCheckedWhenBuilt() throws Exception {
+        assertBuildExceeds(XParserLimits.UNLIMITED.withMaxAttributes(2), XParserLimits.Limit.ATTRIBUTES);
+    }
+
+    @Test
+    public void textCheckedWhenBuilt() throws Exception {
+        assertBuildExceeds(XParserLimits.UNLIMITED.withMaxTextLength(9), XParserLimits.Limit.TEXT_LENGTH);
+    }
+}
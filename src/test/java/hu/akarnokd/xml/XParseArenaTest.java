@@ -0,0 +1,59 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+
+package hu.akarnokd.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.Test;
+
+public class XParseArenaTest {
+
+    static void uniqueNames(XParserContext context) throws Exception {
+        XParseArena arena = new XParseArena(context);
+        for (int i = 0; i < 3 * XParseArena.MAX_RETAINED_SYMBOLS; i++) {
+            byte[] data = ("<r" + i + " a" + i + "='" + i + "'><c/></r" + i + ">").getBytes(StandardCharsets.UTF_8);
+            XElement e = i % 2 == 0 ? arena.parseXML(data) : arena.parseXML(new ByteArrayInputStream(data));
+            assertEquals("r" + i, e.name);
+            assertEquals(i, e.getInt("a" + i));
+            assertEquals("c", e.children().get(0).name);
+            arena.release(e);
+            assertTrue(arena.symbols.size() <= XParseArena.MAX_RETAINED_SYMBOLS + 3);
+        }
+    }
+
+    @Test
+    public void symbolTableBoundedUtf8() throws Exception {
+        uniqueNames(XParserContext.DEFAULT.withEngine(XParserContext.Engine.UTF8));
+    }
+
+    @Test
+    public void symbolTableBoundedStax() throws Exception {
+        uniqueNames(XParserContext.DEFAULT);
+    }
+
+    @Test
+    public void sharedSymbolTableKept() throws Exception {
+        XSymbolTable shared = new XSymbolTable();
+        XParseArena arena = new XParseArena(XParserContext.DEFAULT.withSymbolTable(shared));
+        for (int i = 0; i < XParseArena.MAX_RETAINED_SYMBOLS + 10; i++) {
+            arena.release(arena.parseXML(("<r" + i + "/>").getBytes(StandardCharsets.UTF_8)));
+        }
+        assertSame(shared, arena.symbols);
+        assertTrue(shared.size() > XParseArena.MAX_RETAINED_SYMBOLS);
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+package hu.akarnokd.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+public class XParserContextTest {
+    /** A document using an entity declared in its internal DTD subset. */
+    static final byte[] INTERNAL_ENTITY = "<!DOCTYPE r [<!ENTITY e 'hello'>]><r a='&e;'>x&e;</r>".getBytes();
+
+    @Test
+    public void defaultResolvesInternalEntities() throws Exception {
+        XElement e = XElement.parseXML(INTERNAL_ENTITY);
+        assertEquals("hello", e.get("a"));
+        assertEquals("xhello", e.content);
+    }
+
+    @Test
+    public void defaultKeepsFactoryDefaults() {
+        assertFalse(XParserContext.DEFAULT.isSecureProcessing());
+        assertTrue(XParserContext.SECURE.isSecureProcessing());
+        assertTrue(XParserContext.SECURE.isNamespaceAware());
+    }
+
+    @Test(expected = XMLStreamException.class)
+    public void secureRejectsEntities() throws Exception {
+        XElement.parseXML(new ByteArrayInputStream(INTERNAL_ENTITY), XParserContext.SECURE);
+    }
+
+    @Test
+    public void withersKeepSecureProcessing() {
+        XParserContext c = XParserContext.SECURE
+                .withEngine(XParserContext.Engine.UTF8)
+                .withLimits(XParserLimits.UNLIMITED.withMaxDepth(10));
+        assertTrue(c.isSecureProcessing());
+        assertFalse(c.withSecureProcessing(false).isSecureProcessing());
+        assertEquals(XParserContext.Engine.UTF8, c.withSecureProcessing(false).engine());
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+
+package hu.akarnokd.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+public class XRecordPublisherTest {
+    /** An input stream recording the reads and the close. */
+    static final class TrackingInput extends ByteArrayInputStream {
+        /** The number of read calls. */
+        int reads;
+        /** Was the stream closed? */
+        boolean closed;
+        /**
+         * Constructor, sets the content.
+         * @param data the content
+         */
+        TrackingInput(byte[] data) {
+            super(data);
+        }
+        @Override
+        public synchronized int read() {
+            reads++;
+            return super.read();
+        }
+        @Override
+        public synchronized int read(byte[] b, int off, int len) {
+            reads++;
+            return super.read(b, off, len);
+        }
+        @Override
+        public void close() throws IOException {
+            closed = true;
+            super.close();
+        }
+    }
+    /** A subscriber recording the signals, requesting the initial amount on subscribe. */
+    static class Recorder implements XFlow.Subscriber<XElement> {
+        /** The initial request, zero for none. */
+        final long initial;
+        /** The received items. */
+        final List<XElement> items = new ArrayList<>();
+        /** The received errors. */
+        final List<Throwable> errors = new ArrayList<>();
+        /** The number of completions. */
+        int completions;
+        /** The subscription. */
+        XFlow.Subscription subscription;
+        /**
+         * Constructor, sets the initial request.
+         * @param initial the initial request, zero for none
+         */
+        Recorder(long initial) {
+            this.initial = initial;
+        }
+        @Override
+        public void onSubscribe(XFlow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initial != 0) {
+                subscription.request(initial);
+            }
+        }
+        @Override
+        public void onNext(XElement item) {
+            items.add(item);
+        }
+        @Override
+        public void onError(Throwable throwable) {
+            errors.add(throwable);
+        }
+        @Override
+        public void onComplete() {
+            completions++;
+        }
+        /**
+         * Asserts the signals received so far.
+         * @param count the number of items
+         * @param errors the number of errors
+         * @param completions the number of completions
+         */
+        void assertSignals(int count, int errors, int completions) {
+            assertEquals(count, items.size());
+            for (int i = 0; i < count; i++) {
+                assertEquals(Integer.toString(i), items.get(i).content);
+            }
+            assertEquals(errors, this.errors.size());
+            assertEquals(completions, this.completions);
+        }
+    }
+
+    /**
+     * Creates a document with the given number of records.
+     * @param count the number of records
+     * @return the input
+     */
+    static TrackingInput records(int count) {
+        StringBuilder b = new StringBuilder("<r>");
+        for (int i = 0; i < count; i++) {
+            b.append("<i>").append(i).append("</i>");
+        }
+        return new TrackingInput(b.append("</r>").toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    static XFlow.Publisher<XElement> publisher(InputStream in) {
+        return XElement.publishChildren(in, "i", Runnable::run);
+    }
+
+    @Test
+    public void requestThrottles() {
+        TrackingInput in = records(5);
+        Recorder r = new Recorder(0);
+        publisher(in).subscribe(r);
+        assertEquals(0, in.reads);
+        r.assertSignals(0, 0, 0);
+
+        r.subscription.request(2);
+        r.assertSignals(2, 0, 0);
+        r.subscription.request(1);
+        r.assertSignals(3, 0, 0);
+        assertFalse(in.closed);
+
+        r.subscription.request(Long.MAX_VALUE);
+        r.assertSignals(5, 0, 1);
+        assertTrue(in.closed);
+    }
+
+    @Test
+    public void requestFromOnNext() {
+        TrackingInput in = records(4);
+        Recorder r = new Recorder(1) {
+            @Override
+            public void onNext(XElement item) {
+                super.onNext(item);
+                subscription.request(1);
+            }
+        };
+        publisher(in).subscribe(r);
+        r.assertSignals(4, 0, 1);
+        assertTrue(in.closed);
+    }
+
+    @Test
+    public void cancelClosesStream() {
+        TrackingInput in = records(5);
+        Recorder r = new Recorder(2);
+        publisher(in).subscribe(r);
+        r.assertSignals(2, 0, 0);
+
+        r.subscription.cancel();
+        assertTrue(in.closed);
+        r.subscription.request(1);
+        r.assertSignals(2, 0, 0);
+    }
+
+    @Test
+    public void singleSubscriber() {
+        XFlow.Publisher<XElement> p = publisher(records(2));
+        Recorder r1 = new Recorder(1);
+        Recorder r2 = new Recorder(1);
+        p.subscribe(r1);
+        p.subscribe(r2);
+        r1.assertSignals(1, 0, 0);
+        r2.assertSignals(0, 1, 0);
+        assertTrue(r2.errors.get(0) instanceof IllegalStateException);
+    }
+
+    @Test
+    public void requestZero() {
+        TrackingInput in = records(2);
+        Recorder r = new Recorder(1);
+        publisher(in).subscribe(r);
+        r.subscription.request(0);
+        r.assertSignals(1, 1, 0);
+        assertTrue(r.errors.get(0) instanceof IllegalArgumentException);
+        assertTrue(in.closed);
+
+        r.subscription.request(1);
+        r.assertSignals(1, 1, 0);
+    }
+
+    @Test
+    public void throwingOnNextCancels() {
+        TrackingInput in = records(5);
+        Recorder r = new Recorder(Long.MAX_VALUE) {
+            @Override
+            public void onNext(XElement item) {
+                super.onNext(item);
+                throw new IllegalStateException("Forced failure");
+            }
+        };
+        publisher(in).subscribe(r);
+        r.assertSignals(1, 0, 0);
+        assertTrue(in.closed);
+    }
+
+    @Test
+    public void parseError() {
+        TrackingInput in = new TrackingInput("<r><i>0</i><i>1</j></r>".getBytes(StandardCharsets.UTF_8));
+        Recorder r = new Recorder(Long.MAX_VALUE);
+        publisher(in).subscribe(r);
+        r.assertSignals(1, 1, 0);
+        assertTrue(r.errors.get(0).toString(), r.errors.get(0) instanceof XMLStreamException);
+        assertTrue(in.closed);
+    }
+}
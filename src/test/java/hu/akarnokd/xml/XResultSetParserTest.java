@@ -0,0 +1,193 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+
+package hu.akarnokd.xml;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.*;
+
+public class XResultSetParserTest {
+    /** The pool to parse on. */
+    static ExecutorService pool;
+    /** The number of rows. */
+    static final int ROWS = 200;
+
+    @BeforeClass
+    public static void startPool() {
+        pool = Executors.newFixedThreadPool(4);
+    }
+
+    @AfterClass
+    public static void stopPool() {
+        pool.shutdown();
+    }
+
+    /**
+     * Creates a result set over the given column values, supporting only next() and getBinaryStream().
+     * @param rows the column values, null for a null column
+     * @param nextCalls counts the next() calls
+     * @return the result set
+     */
+    static ResultSet resultSet(List<String> rows, AtomicInteger nextCalls) {
+        int[] index = { -1 };
+        return (ResultSet)Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                    case "next":
+                        nextCalls.incrementAndGet();
+                        return ++index[0] < rows.size();
+                    case "getBinaryStream":
+                        assertTrue(args[0].equals("doc") || args[0].equals(1));
+                        String s = rows.get(index[0]);
+                        return s != null ? new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)) : null;
+                    default:
+                        throw new UnsupportedOperationException(method.toString());
+                    }
+                });
+    }
+
+    static List<String> rows(int count) {
+        List<String> rows = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            rows.add("<row id='" + i + "'><v>" + i + "</v></row>");
+        }
+        return rows;
+    }
+
+    /**
+     * An executor delaying every third task, so the parses complete out of row order.
+     * @return the executor
+     */
+    static Executor skewed() {
+        AtomicInteger count = new AtomicInteger();
+        return r -> {
+            boolean delay = count.getAndIncrement() % 3 == 0;
+            pool.execute(() -> {
+                if (delay) {
+                    try {
+                        Thread.sleep(1);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                r.run();
+            });
+        };
+    }
+
+    static XResultSetParser<XElement> parser() {
+        return XResultSetParser.column("doc").withExecutor(skewed()).withMaxPending(8);
+    }
+
+    @Test
+    public void ordered() throws Exception {
+        List<XElement> result = new ArrayList<>();
+        AtomicInteger next = new AtomicInteger();
+        assertEquals(ROWS, parser().parse(resultSet(rows(ROWS), next), result::add));
+        assertEquals(ROWS, result.size());
+        for (int i = 0; i < ROWS; i++) {
+            assertEquals(i, result.get(i).getInt("id"));
+            assertEquals(i, result.get(i).intValue("v"));
+        }
+        assertEquals(ROWS + 1, next.get());
+    }
+
+    @Test
+    public void completionOrder() throws Exception {
+        List<XElement> result = new ArrayList<>();
+        AtomicInteger next = new AtomicInteger();
+        assertEquals(ROWS, parser().ordered(false).parse(resultSet(rows(ROWS), next), result::add));
+        Set<Integer> ids = new HashSet<>();
+        for (XElement e : result) {
+            assertTrue(ids.add(e.getInt("id")));
+        }
+        assertEquals(ROWS, ids.size());
+        for (int i = 0; i < ROWS; i++) {
+            assertTrue(ids.contains(i));
+        }
+    }
+
+    @Test
+    public void malformedRow() throws Exception {
+        for (XParserContext.Engine engine : XParserContext.Engine.values()) {
+            List<String> rows = rows(ROWS);
+            rows.set(50, "<row id='50'><v>50</w></row>");
+            List<XElement> result = new ArrayList<>();
+            AtomicInteger next = new AtomicInteger();
+            try {
+                parser().withContext(XParserContext.DEFAULT.withEngine(engine))
+                .parse(resultSet(rows, next), result::add);
+                fail("Accepted with " + engine);
+            } catch (XMLStreamException expected) {
+                // expected
+            }
+            assertEquals(50, result.size());
+            for (int i = 0; i < 50; i++) {
+                assertEquals(i, result.get(i).getInt("id"));
+            }
+            assertTrue(next.toString(), next.get() <= 50 + 8 + 1);
+        }
+    }
+
+    @Test
+    public void consumerException() throws Exception {
+        for (boolean ordered : new boolean[] { true, false }) {
+            IllegalStateException failure = new IllegalStateException("Forced failure");
+            List<XElement> result = new ArrayList<>();
+            AtomicInteger next = new AtomicInteger();
+            try {
+                parser().ordered(ordered).parse(resultSet(rows(ROWS), next), e -> {
+                    if (result.size() == 10) {
+                        throw failure;
+                    }
+                    result.add(e);
+                });
+                fail("Consumer failure swallowed");
+            } catch (IllegalStateException ex) {
+                assertSame(failure, ex);
+            }
+            assertEquals(10, result.size());
+            assertTrue(next.toString(), next.get() <= 10 + 8 + 1);
+        }
+    }
+
+    @Test
+    public void nullColumn() throws Exception {
+        List<String> rows = rows(20);
+        rows.set(0, null);
+        rows.set(7, null);
+        List<XElement> result = new ArrayList<>();
+        assertEquals(20, XResultSetParser.column(1).withExecutor(skewed())
+                .parse(resultSet(rows, new AtomicInteger()), result::add));
+        assertEquals(20, result.size());
+        for (int i = 0; i < 20; i++) {
+            if (i == 0 || i == 7) {
+                assertNull(result.get(i));
+            } else {
+                assertEquals(i, result.get(i).getInt("id"));
+            }
+        }
+    }
+}
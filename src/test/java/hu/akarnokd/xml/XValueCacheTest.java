@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 David Karnok
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License is
+ * distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See
+ * the License for the specific language governing permissions and limitations under the License.
+ */
+
+
+package hu.akarnokd.xml;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+import org.junit.Test;
+
+public class XValueCacheTest {
+
+    @Test
+    public void cachedValuesFollowChanges() {
+        XElement e = new XElement("r");
+        e.set("a", 1);
+        e.add("c", 2.5);
+        e.cacheValues(true);
+        assertEquals(1, e.getInt("a"));
+        assertEquals(1, e.getInt("a"));
+        assertEquals(1L, e.getLong("a"));
+        assertEquals(2.5, e.doubleValue("c"), 0);
+        e.set("a", 2);
+        assertEquals(2, e.getInt("a"));
+        assertNotNull(e.childElement("c").valueCache);
+    }
+
+    @Test
+    public void tableClearedWhenFull() {
+        XValueCache c = new XValueCache();
+        for (int i = 0; i < 3 * XValueCache.MAX_SIZE; i++) {
+            String s = Integer.toString(i);
+            assertEquals(i, c.parseInt(s));
+            assertEquals(i, c.parseInt(s));
+            assertTrue(c.table().size <= XValueCache.MAX_SIZE);
+        }
+    }
+
+    @Test
+    public void lazyChildrenCached() throws Exception {
+        byte[] data = "<r><c a='1'><d a='2'/></c></r>".getBytes(StandardCharsets.UTF_8);
+        XNElement e = XNElement.parseXMLLazy(data);
+        e.cacheValues(true);
+        XNElement d = e.childElement("c").childElement("d");
+        assertNotNull(d.valueCache);
+        assertEquals(2, d.getInt("a"));
+    }
+
+    @Test
+    public void concurrentReaders() throws Exception {
+        XElement root = new XElement("r");
+        for (int i = 0; i < 200; i++) {
+            root.add("c").set("a", i);
+        }
+        root.cacheValues(true);
+        ExecutorService exec = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Object>> fs = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                fs.add(exec.submit(() -> {
+                    for (int k = 0; k < 200; k++) {
+                        int i = 0;
+                        for (XElement c : root.children()) {
+                            assertEquals(i, c.getInt("a"));
+                            assertEquals(i, c.getLong("a"));
+                            assertEquals(i, c.getDouble("a"), 0);
+                            i++;
+                        }
+                    }
+                    return null;
+                }));
+            }
+            for (Future<Object> f : fs) {
+                f.get();
+            }
+        } finally {
+            exec.shutdown();
+        }
+    }
+}